@@ -4,6 +4,8 @@ import android.app.Application;
 
 import com.google.android.material.color.DynamicColors;
 
+import io.github.subhamtyagi.ocr.ocr.EngineCache;
+
 
 public class App extends Application {
     @Override
@@ -11,6 +13,12 @@ public class App extends Application {
         super.onCreate();
         DynamicColors.applyToActivitiesIfAvailable(this);
     }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        EngineCache.getInstance().onTrimMemory(level);
+    }
 }
 
 
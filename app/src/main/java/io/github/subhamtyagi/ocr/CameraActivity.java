@@ -51,7 +51,9 @@ import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
 import androidx.core.content.FileProvider;
+import androidx.lifecycle.Lifecycle;
 
+import com.googlecode.leptonica.android.Pix;
 import com.theartofdev.edmodo.cropper.CropImage;
 import com.theartofdev.edmodo.cropper.CropImageView;
 
@@ -65,15 +67,34 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.stream.Collectors;
 
+import io.github.subhamtyagi.ocr.camera.LiveFrameRecognizer;
+import io.github.subhamtyagi.ocr.download.TrainingDataStore;
+import io.github.subhamtyagi.ocr.image.LuminanceImage;
+import io.github.subhamtyagi.ocr.image.PreprocessPipeline;
+import io.github.subhamtyagi.ocr.ocr.EngineCache;
+import io.github.subhamtyagi.ocr.ocr.ImageTextReader;
+import io.github.subhamtyagi.ocr.ocr.OcrResult;
+import io.github.subhamtyagi.ocr.utils.Constants;
+import io.github.subhamtyagi.ocr.utils.SpUtil;
+import io.github.subhamtyagi.ocr.utils.Utils;
+
 public class CameraActivity extends AppCompatActivity {
 
     private static final String TAG = "CameraActivity";
     private static final int CAMERA_PERMISSION_REQUEST = 101;
+    /**
+     * largest frame recognized in live mode, bigger frames only make the engine slower
+     */
+    private static final int LIVE_FRAME_MAX_PIXELS = 1280 * 960;
 
     private List<Size> mMasterResolutionList;
     private List<Size> mHardwareSupportedResolutions;
@@ -85,6 +106,9 @@ public class CameraActivity extends AppCompatActivity {
     private ImageButton mCheckCamerasButton;
     private ImageButton mChangeResolutionButton;
     private TextView mCameraStatusTextView;
+    private ImageButton mLiveButton;
+    private TextOverlayView mTextOverlayView;
+    private TextView mLiveTextView;
 
     private String mCameraId;
     private CameraDevice mCameraDevice;
@@ -95,6 +119,16 @@ public class CameraActivity extends AppCompatActivity {
     private Handler mBackgroundHandler;
     private ImageReader mImageReader;
 
+    private volatile boolean mLiveMode;
+    private Size mLiveFrameSize;
+    private ImageReader mLiveImageReader;
+    private LiveFrameRecognizer mLiveRecognizer;
+
+    /**
+     * recognizes the stills captured by {@link #captureText()}
+     */
+    private final ExecutorService mCaptureExecutor = Executors.newSingleThreadExecutor();
+
     private int mCurrentLensFacing = CameraCharacteristics.LENS_FACING_BACK;
 
     public static class CameraInfo {
@@ -342,8 +376,27 @@ public class CameraActivity extends AppCompatActivity {
         mCheckCamerasButton = findViewById(R.id.btn_check_cameras);
         mChangeResolutionButton = findViewById(R.id.btn_change_resolution);
         mCameraStatusTextView = findViewById(R.id.camera_status_text);
+        mLiveButton = findViewById(R.id.btn_live_ocr);
+        mTextOverlayView = findViewById(R.id.text_overlay);
+        mLiveTextView = findViewById(R.id.live_text);
 
+        // tap captures a photo for the crop flow, long press reads the text of the still right here
         mCaptureButton.setOnClickListener(v -> captureImage());
+        mCaptureButton.setOnLongClickListener(v -> {
+            captureText();
+            return true;
+        });
+        if (!SpUtil.getInstance().getBoolean(Constants.KEY_CAPTURE_TEXT_HINT_SHOWN)) {
+            Toast.makeText(this, R.string.capture_text_hint, Toast.LENGTH_LONG).show();
+            SpUtil.getInstance().putBoolean(Constants.KEY_CAPTURE_TEXT_HINT_SHOWN, true);
+        }
+        mLiveButton.setOnClickListener(v -> toggleLiveMode());
+        mLiveTextView.setOnClickListener(v -> {
+            CharSequence text = mLiveTextView.getText();
+            if (text.length() > 0) {
+                BottomSheetResultsFragment.newInstance(text.toString()).show(getSupportFragmentManager(), "bottomSheetResultsFragment");
+            }
+        });
         mSwitchCameraButton.setOnClickListener(v -> switchCamera());
 
         mCheckCamerasButton.setOnClickListener(v -> {
@@ -459,6 +512,7 @@ public class CameraActivity extends AppCompatActivity {
             StreamConfigurationMap map = characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
             setupHardwareResolutions(map);
             mPreviewSize = chooseOptimalSize(map.getOutputSizes(SurfaceTexture.class), width, height);
+            mLiveFrameSize = chooseLiveFrameSize(map.getOutputSizes(ImageFormat.YUV_420_888));
 
             manager.openCamera(mCameraId, mStateCallback, mBackgroundHandler);
             runOnUiThread(this::updateCameraStatusText);
@@ -490,6 +544,22 @@ public class CameraActivity extends AppCompatActivity {
         }
     }
 
+    /**
+     * @return the largest YUV size with the aspect ratio of the preview and at most
+     * {@link #LIVE_FRAME_MAX_PIXELS}, so that the word boxes line up with the preview
+     */
+    private Size chooseLiveFrameSize(@Nullable Size[] choices) {
+        Size best = null;
+        if (choices != null) {
+            for (Size option : choices) {
+                if ((long) option.getWidth() * mPreviewSize.getHeight() != (long) option.getHeight() * mPreviewSize.getWidth()) continue;
+                if (option.getWidth() * option.getHeight() > LIVE_FRAME_MAX_PIXELS) continue;
+                if (best == null || option.getWidth() > best.getWidth()) best = option;
+            }
+        }
+        return best != null ? best : mPreviewSize;
+    }
+
     private Size findBestCaptureSize(Size target) {
         if (mHardwareSupportedResolutions.isEmpty()) return target;
 
@@ -585,6 +655,114 @@ public class CameraActivity extends AppCompatActivity {
         }
     }
 
+    /**
+     * Capture a YUV still and recognize its luminance plane right away: no JPEG encoding, no file
+     * and no ARGB decode. The text is shown on this screen instead of going through the crop flow.
+     * Started by a long press on the capture button, a hint tells about it the first time the
+     * screen is opened.
+     */
+    private void captureText() {
+        if (mCameraDevice == null) return;
+        final ImageTextReader reader = findImageTextReader();
+        if (reader == null) {
+            Toast.makeText(this, R.string.live_ocr_no_engine, Toast.LENGTH_SHORT).show();
+            return;
+        }
+        try {
+            CameraManager manager = (CameraManager) getSystemService(Context.CAMERA_SERVICE);
+            StreamConfigurationMap map = manager.getCameraCharacteristics(mCameraId).get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+            final Size captureSize = findBestYuvCaptureSize(map != null ? map.getOutputSizes(ImageFormat.YUV_420_888) : null, mTargetResolution);
+            Log.d(TAG, "Target Res: " + mTargetResolution + " | YUV Capture Res: " + captureSize);
+
+            if (mImageReader != null) mImageReader.close();
+            mImageReader = ImageReader.newInstance(captureSize.getWidth(), captureSize.getHeight(), ImageFormat.YUV_420_888, 1);
+
+            List<Surface> outputSurfaces = new ArrayList<>(2);
+            outputSurfaces.add(mImageReader.getSurface());
+            outputSurfaces.add(new Surface(mTextureView.getSurfaceTexture()));
+
+            final CaptureRequest.Builder captureBuilder = mCameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_STILL_CAPTURE);
+            captureBuilder.addTarget(mImageReader.getSurface());
+            captureBuilder.set(CaptureRequest.CONTROL_MODE, CaptureRequest.CONTROL_MODE_AUTO);
+            final int rotation = getJpegOrientation();
+
+            mImageReader.setOnImageAvailableListener(imageReader -> {
+                Pix pix = null;
+                try (Image image = imageReader.acquireLatestImage()) {
+                    if (image == null) return;
+                    // only the Y plane is read, rotated into a byte array which leptonica copies once more
+                    pix = LuminanceImage.fromYPlane(image).toPix(rotation);
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Failed to read captured image", e);
+                }
+                if (mCameraDevice != null) {
+                    createCameraPreviewSession();
+                }
+                if (pix == null) {
+                    runOnUiThread(() -> Toast.makeText(this, R.string.capture_text_failed, Toast.LENGTH_SHORT).show());
+                    return;
+                }
+                recognizeCapturedText(reader, pix);
+            }, mBackgroundHandler);
+
+            mCameraDevice.createCaptureSession(outputSurfaces, new CameraCaptureSession.StateCallback() {
+                @Override
+                public void onConfigured(@NonNull CameraCaptureSession session) {
+                    try {
+                        session.capture(captureBuilder.build(), null, mBackgroundHandler);
+                    } catch (CameraAccessException e) {
+                        Log.e(TAG, "Failed to capture image", e);
+                    }
+                }
+                @Override
+                public void onConfigureFailed(@NonNull CameraCaptureSession session) {}
+            }, mBackgroundHandler);
+        } catch (CameraAccessException e) {
+            Log.e(TAG, "Failed to setup capture", e);
+        }
+    }
+
+    /**
+     * @return the smallest YUV size covering the target, the largest one if none does
+     */
+    private Size findBestYuvCaptureSize(@Nullable Size[] choices, Size target) {
+        if (choices == null || choices.length == 0) return mPreviewSize;
+        Comparator<Size> byArea = (s1, s2) -> Long.compare((long) s1.getWidth() * s1.getHeight(), (long) s2.getWidth() * s2.getHeight());
+        List<Size> bigEnough = new ArrayList<>();
+        for (Size option : choices) {
+            if (option.getWidth() >= target.getWidth() && option.getHeight() >= target.getHeight()) {
+                bigEnough.add(option);
+            }
+        }
+        return bigEnough.isEmpty() ? Collections.max(Arrays.asList(choices), byArea) : Collections.min(bigEnough, byArea);
+    }
+
+    /**
+     * @param pix 8 bit still, owned and recycled by this call
+     */
+    private void recognizeCapturedText(ImageTextReader reader, Pix pix) {
+        try {
+            mCaptureExecutor.execute(() -> {
+                long start = System.currentTimeMillis();
+                Pix input = pix;
+                if (Utils.isPreProcessImage()) {
+                    input = PreprocessPipeline.fromPreferences().process8(input);
+                }
+                OcrResult result = reader.getResultFromOwnedPix(input, Utils.isTiledRecognition());
+                Log.d(TAG, "Recognized captured text in " + (System.currentTimeMillis() - start) + " ms");
+                runOnUiThread(() -> {
+                    if (!getLifecycle().getCurrentState().isAtLeast(Lifecycle.State.RESUMED)) return;
+                    BottomSheetResultsFragment.newInstance(result.getText()).show(getSupportFragmentManager(), "bottomSheetResultsFragment");
+                    if (result.isSuccess()) {
+                        Toast.makeText(this, String.format(Locale.US, "With Confidence: %d%%", result.getConfidence()), Toast.LENGTH_SHORT).show();
+                    }
+                });
+            });
+        } catch (RejectedExecutionException e) {
+            pix.recycle();
+        }
+    }
+
     private void onImageCaptured(File imageFile) {
         Uri imageUri = FileProvider.getUriForFile(this, getApplicationContext().getPackageName() + ".image-cropper.provider", imageFile);
 
@@ -660,6 +838,80 @@ public class CameraActivity extends AppCompatActivity {
             mImageReader.close();
             mImageReader = null;
         }
+        closeLiveReader();
+    }
+
+    private void toggleLiveMode() {
+        if (!mLiveMode && findImageTextReader() == null) {
+            Toast.makeText(this, R.string.live_ocr_no_engine, Toast.LENGTH_SHORT).show();
+            return;
+        }
+        mLiveMode = !mLiveMode;
+        mLiveButton.setAlpha(mLiveMode ? 1.0f : 0.5f);
+        mLiveTextView.setVisibility(mLiveMode ? View.VISIBLE : View.GONE);
+        mTextOverlayView.clear();
+        mLiveTextView.setText("");
+        if (mCameraDevice == null) return;
+        if (mCaptureSession != null) {
+            mCaptureSession.close();
+            mCaptureSession = null;
+        }
+        closeLiveReader();
+        createCameraPreviewSession();
+    }
+
+    /**
+     * @return the reader of the current settings if the main screen already loaded it
+     */
+    @Nullable
+    private ImageTextReader findImageTextReader() {
+        String dataType = Utils.getTrainingDataType();
+        String key = EngineCache.createKey(Utils.getTrainingDataLanguages(this), dataType,
+                Utils.getPageSegMode(), Utils.getAllParameters(), Utils.isExtraParameterSet(),
+                TrainingDataStore.getInstance().getDataDir(dataType), Utils.getEnginePoolSize());
+        return EngineCache.getInstance().peek(key);
+    }
+
+    /**
+     * @return the surface receiving the frames to recognize, null if no engine is loaded
+     */
+    @Nullable
+    private Surface openLiveReader() {
+        // a still capture restarts the preview session, drop the reader of the previous one
+        closeLiveReader();
+        ImageTextReader reader = findImageTextReader();
+        if (reader == null) return null;
+        Size size = mLiveFrameSize != null ? mLiveFrameSize : mPreviewSize;
+        mLiveRecognizer = new LiveFrameRecognizer(reader, getJpegOrientation(), this::onLiveFrameRecognized);
+        // one image is copied while the camera fills the other
+        mLiveImageReader = ImageReader.newInstance(size.getWidth(), size.getHeight(), ImageFormat.YUV_420_888, 2);
+        mLiveImageReader.setOnImageAvailableListener(mLiveRecognizer, mBackgroundHandler);
+        Log.d(TAG, "Live frame size: " + size);
+        return mLiveImageReader.getSurface();
+    }
+
+    private void closeLiveReader() {
+        if (mLiveRecognizer != null) {
+            mLiveRecognizer.close();
+            mLiveRecognizer = null;
+        }
+        if (mLiveImageReader != null) {
+            mLiveImageReader.close();
+            mLiveImageReader = null;
+        }
+    }
+
+    private void onLiveFrameRecognized(OcrResult result, int width, int height) {
+        runOnUiThread(() -> {
+            if (!mLiveMode) return;
+            mTextOverlayView.setMirrored(mCurrentLensFacing == CameraCharacteristics.LENS_FACING_FRONT);
+            if (result.isSuccess()) {
+                mTextOverlayView.setResult(result, width, height);
+                mLiveTextView.setText(result.getText().trim());
+            } else {
+                mTextOverlayView.clear();
+            }
+        });
     }
 
     private final TextureView.SurfaceTextureListener mSurfaceTextureListener = new TextureView.SurfaceTextureListener() {
@@ -703,7 +955,16 @@ public class CameraActivity extends AppCompatActivity {
             Surface surface = new Surface(texture);
             mPreviewRequestBuilder = mCameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
             mPreviewRequestBuilder.addTarget(surface);
-            mCameraDevice.createCaptureSession(Collections.singletonList(surface), new CameraCaptureSession.StateCallback() {
+            List<Surface> outputSurfaces = new ArrayList<>(2);
+            outputSurfaces.add(surface);
+            if (mLiveMode) {
+                Surface liveSurface = openLiveReader();
+                if (liveSurface != null) {
+                    mPreviewRequestBuilder.addTarget(liveSurface);
+                    outputSurfaces.add(liveSurface);
+                }
+            }
+            mCameraDevice.createCaptureSession(outputSurfaces, new CameraCaptureSession.StateCallback() {
                 @Override
                 public void onConfigured(@NonNull CameraCaptureSession session) {
                     if (mCameraDevice == null) return;
@@ -813,6 +1074,12 @@ public class CameraActivity extends AppCompatActivity {
         super.onPause();
     }
 
+    @Override
+    protected void onDestroy() {
+        mCaptureExecutor.shutdownNow();
+        super.onDestroy();
+    }
+
     @Override
     public void onRequestPermissionsResult(int requestCode, @NonNull String[] permissions, @NonNull int[] grantResults) {
         super.onRequestPermissionsResult(requestCode, permissions, grantResults);
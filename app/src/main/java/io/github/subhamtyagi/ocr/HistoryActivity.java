@@ -0,0 +1,224 @@
+package io.github.subhamtyagi.ocr;
+
+import android.graphics.Bitmap;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.Editable;
+import android.text.TextWatcher;
+import android.text.format.DateUtils;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.EditText;
+import android.widget.ImageView;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.appcompat.app.AppCompatActivity;
+import androidx.lifecycle.Lifecycle;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import io.github.subhamtyagi.ocr.history.HistoryEntry;
+import io.github.subhamtyagi.ocr.history.HistoryStore;
+import io.github.subhamtyagi.ocr.image.ImageCache;
+
+/**
+ * Lists the scan history newest first, page by page as it is scrolled, and searches its text.
+ */
+public class HistoryActivity extends AppCompatActivity {
+
+    private static final int PAGE_SIZE = 50;
+    /**
+     * the next page is read when the list is scrolled this close to its end
+     */
+    private static final int PREFETCH_DISTANCE = 10;
+    private static final long SEARCH_DELAY_MS = 300;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final HistoryAdapter adapter = new HistoryAdapter();
+
+    private TextView mEmptyView;
+    private String mQuery = "";
+    /**
+     * pages read for an older query are dropped
+     */
+    private int mGeneration;
+    private boolean mLoading;
+    private boolean mEndReached;
+
+    private final Runnable mSearch = this::reload;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_history);
+        HistoryStore.getInstance().init(this);
+        ImageCache.getInstance().init(this);
+
+        mEmptyView = findViewById(R.id.history_empty);
+        RecyclerView list = findViewById(R.id.history_list);
+        LinearLayoutManager layoutManager = new LinearLayoutManager(this);
+        list.setLayoutManager(layoutManager);
+        list.setAdapter(adapter);
+        list.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+                if (layoutManager.findLastVisibleItemPosition() >= adapter.getItemCount() - PREFETCH_DISTANCE) {
+                    loadNextPage();
+                }
+            }
+        });
+
+        EditText search = findViewById(R.id.history_search);
+        search.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                mQuery = s.toString();
+                handler.removeCallbacks(mSearch);
+                handler.postDelayed(mSearch, SEARCH_DELAY_MS);
+            }
+        });
+
+        reload();
+    }
+
+    @Override
+    protected void onDestroy() {
+        handler.removeCallbacks(mSearch);
+        executor.shutdownNow();
+        super.onDestroy();
+    }
+
+    private void reload() {
+        mGeneration++;
+        mLoading = false;
+        mEndReached = false;
+        adapter.clear();
+        loadNextPage();
+    }
+
+    private void loadNextPage() {
+        if (mLoading || mEndReached) return;
+        mLoading = true;
+        final int generation = mGeneration;
+        final String query = mQuery;
+        final long before = adapter.getLastId();
+        executor.execute(() -> {
+            List<HistoryEntry> page = HistoryStore.getInstance().getPage(query, before, PAGE_SIZE);
+            handler.post(() -> {
+                if (generation != mGeneration) return;
+                mLoading = false;
+                mEndReached = page.size() < PAGE_SIZE;
+                adapter.append(page);
+                mEmptyView.setVisibility(adapter.getItemCount() == 0 ? View.VISIBLE : View.GONE);
+            });
+        });
+    }
+
+    private void showEntry(HistoryEntry entry) {
+        executor.execute(() -> {
+            String text = HistoryStore.getInstance().getText(entry.getId());
+            if (text == null) return;
+            handler.post(() -> {
+                if (getLifecycle().getCurrentState().isAtLeast(Lifecycle.State.RESUMED)) {
+                    BottomSheetResultsFragment.newInstance(text).show(getSupportFragmentManager(), "bottomSheetResultsFragment");
+                }
+            });
+        });
+    }
+
+    private class HistoryAdapter extends RecyclerView.Adapter<HistoryAdapter.ViewHolder> {
+        private final List<HistoryEntry> entries = new ArrayList<>();
+
+        void clear() {
+            entries.clear();
+            notifyDataSetChanged();
+        }
+
+        void append(List<HistoryEntry> page) {
+            int start = entries.size();
+            entries.addAll(page);
+            notifyItemRangeInserted(start, page.size());
+        }
+
+        long getLastId() {
+            return entries.isEmpty() ? Long.MAX_VALUE : entries.get(entries.size() - 1).getId();
+        }
+
+        @NonNull
+        @Override
+        public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+            return new ViewHolder(LayoutInflater.from(parent.getContext()).inflate(R.layout.item_history, parent, false));
+        }
+
+        @Override
+        public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
+            HistoryEntry entry = entries.get(position);
+            CharSequence date = DateUtils.getRelativeTimeSpanString(entry.getCreatedAt());
+            holder.details.setText(String.format(Locale.US, "%s · %s · %d%% · %.1f s", date, entry.getLanguages(),
+                    entry.getConfidence(), entry.getDurationMs() / 1000f));
+            holder.text.setText(entry.getText().trim());
+            holder.itemView.setOnClickListener(v -> showEntry(entry));
+            bindThumbnail(holder, entry.getThumbnail());
+        }
+
+        private void bindThumbnail(ViewHolder holder, @Nullable String key) {
+            holder.thumbnailKey = key;
+            holder.thumbnail.setImageDrawable(null);
+            holder.thumbnail.setVisibility(key != null ? View.VISIBLE : View.GONE);
+            if (key == null) return;
+            ImageCache cache = ImageCache.getInstance();
+            Bitmap cached = cache.getThumbnailFromMemory(key);
+            if (cached != null) {
+                holder.thumbnail.setImageBitmap(cached);
+                return;
+            }
+            cache.loadThumbnail(key, bitmap -> {
+                // the holder may show another entry by now
+                if (!key.equals(holder.thumbnailKey)) return;
+                if (bitmap != null) {
+                    holder.thumbnail.setImageBitmap(bitmap);
+                } else {
+                    holder.thumbnail.setVisibility(View.GONE);
+                }
+            });
+        }
+
+        @Override
+        public int getItemCount() {
+            return entries.size();
+        }
+
+        class ViewHolder extends RecyclerView.ViewHolder {
+            final ImageView thumbnail;
+            final TextView details;
+            final TextView text;
+            String thumbnailKey;
+
+            ViewHolder(View itemView) {
+                super(itemView);
+                thumbnail = itemView.findViewById(R.id.history_thumbnail);
+                details = itemView.findViewById(R.id.history_details);
+                text = itemView.findViewById(R.id.history_text);
+            }
+        }
+    }
+}
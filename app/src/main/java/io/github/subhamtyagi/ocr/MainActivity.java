@@ -1,18 +1,14 @@
 package io.github.subhamtyagi.ocr;
 
-import android.annotation.SuppressLint;
-import android.content.Context;
 import android.content.Intent;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.net.Uri;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Looper;
-import android.provider.MediaStore;
-import android.text.Html;
+import android.text.format.Formatter;
 import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
@@ -32,28 +28,37 @@ import androidx.swiperefreshlayout.widget.SwipeRefreshLayout;
 import com.google.android.material.floatingactionbutton.FloatingActionButton;
 import com.google.android.material.progressindicator.LinearProgressIndicator;
 import com.googlecode.tesseract.android.TessBaseAPI;
+import com.theartofdev.edmodo.cropper.CropDeviceCapabilities;
 import com.theartofdev.edmodo.cropper.CropImage;
 import com.theartofdev.edmodo.cropper.CropImageView;
+import com.theartofdev.edmodo.cropper.CropMemoryPlanner;
+import com.theartofdev.edmodo.cropper.CropTaskScheduler;
 
-import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.stream.Collectors;
 
+import io.github.subhamtyagi.ocr.batch.BatchJob;
+import io.github.subhamtyagi.ocr.download.TrainingDataDownloader;
+import io.github.subhamtyagi.ocr.download.TrainingDataStore;
+import io.github.subhamtyagi.ocr.history.HistoryEntry;
+import io.github.subhamtyagi.ocr.history.HistoryStore;
+import io.github.subhamtyagi.ocr.image.ImageCache;
+import io.github.subhamtyagi.ocr.image.PreprocessPipeline;
+import io.github.subhamtyagi.ocr.ocr.EngineCache;
 import io.github.subhamtyagi.ocr.ocr.ImageTextReader;
-import io.github.subhamtyagi.ocr.utils.Constants;
+import io.github.subhamtyagi.ocr.ocr.OcrResult;
+import io.github.subhamtyagi.ocr.ocr.ResultCache;
+import io.github.subhamtyagi.ocr.pipeline.OcrJob;
+import io.github.subhamtyagi.ocr.pipeline.OcrPipeline;
+import io.github.subhamtyagi.ocr.pipeline.OcrService;
+import io.github.subhamtyagi.ocr.pipeline.OcrTask;
 import io.github.subhamtyagi.ocr.utils.Language;
 import io.github.subhamtyagi.ocr.utils.SpUtil;
 import io.github.subhamtyagi.ocr.utils.Utils;
@@ -62,13 +67,27 @@ public class MainActivity extends AppCompatActivity implements TessBaseAPI.Progr
 
     public static final String TAG = "MainActivity";
     private static final int REQUEST_CODE_SETTINGS = 797;
-    private static boolean isRefresh = false;
+    private static final int REQUEST_CODE_BATCH = 798;
+    /**
+     * a new scan or refresh supersedes the scan still running
+     */
+    private static final String JOB_KEY_SCAN = "scan";
+    private static final String LEGACY_LAST_IMAGE_FILE = "last_file.jpeg";
 
     private File dirBest;
     private File dirStandard;
     private File dirFast;
     private File currentDirectory;
-    private ImageTextReader mImageTextReader;
+    private volatile ImageTextReader mImageTextReader;
+    private volatile PreprocessPipeline mPreprocessPipeline;
+    private OcrPipeline mOcrPipeline;
+    private OcrService mOcrService;
+    private volatile BatchJob mBatchJob;
+    /**
+     * the images of the batch are cached under this key and their index
+     */
+    private volatile String mBatchImageKey;
+    private List<Uri> mPendingBatch;
     private String mTrainingDataType;
     private int mPageSegMode;
     private Map<String, String> parameters;
@@ -79,7 +98,8 @@ public class MainActivity extends AppCompatActivity implements TessBaseAPI.Progr
     private FloatingActionButton mFloatingActionButton;
     private LinearLayout mDownloadLayout;
     private TextView mLanguageName;
-    private ExecutorService executorService;
+    private final TrainingDataDownloader mDownloader = new TrainingDataDownloader();
+    private TrainingDataDownloader.Download mDownload;
     private Handler handler;
     private LinearProgressIndicator mProgressBar;
     private TextView mProgressMessage;
@@ -95,6 +115,12 @@ public class MainActivity extends AppCompatActivity implements TessBaseAPI.Progr
         setContentView(R.layout.activity_main);
 
         SpUtil.getInstance().init(this);
+        Utils.migrateResultCachePreference();
+        EngineCache.getInstance().init(this);
+        TrainingDataStore.getInstance().init(this);
+        HistoryStore.getInstance().init(this);
+        ImageCache.getInstance().init(this);
+        CropDeviceCapabilities.warmUp(this);
 
         mImageView = findViewById(R.id.source_image);
         mProgressIndicator = findViewById(R.id.progress_indicator);
@@ -107,14 +133,113 @@ public class MainActivity extends AppCompatActivity implements TessBaseAPI.Progr
         mDownloadLayout = findViewById(R.id.download_layout);
         mProcessingTimeTextView = findViewById(R.id.processing_time_text);
 
-        executorService = Executors.newFixedThreadPool(1);
+        mOcrPipeline = new OcrPipeline(getContentResolver(), () -> mImageTextReader, () -> mPreprocessPipeline, Utils.getEnginePoolSize());
+        mOcrPipeline.setResultCache(ResultCache.getInstance());
+        mOcrService = new OcrService(mOcrPipeline);
         handler = new Handler(Looper.getMainLooper());
 
         initDirectories();
         initializeOCR();
         initViews();
+        if (savedInstanceState == null) {
+            handleSharedImages(getIntent());
+        }
+    }
+
+    private void handleSharedImages(@Nullable Intent intent) {
+        if (intent == null) return;
+        if (Intent.ACTION_SEND.equals(intent.getAction())) {
+            Uri uri = intent.getParcelableExtra(Intent.EXTRA_STREAM);
+            if (uri != null) {
+                showImage(uri);
+                startBatch(Collections.singletonList(uri));
+            }
+        } else if (Intent.ACTION_SEND_MULTIPLE.equals(intent.getAction())) {
+            ArrayList<Uri> uris = intent.getParcelableArrayListExtra(Intent.EXTRA_STREAM);
+            if (uris != null && !uris.isEmpty()) {
+                startBatch(uris);
+            }
+        }
+    }
+
+    private void selectImagesForBatch() {
+        Intent intent = new Intent(Intent.ACTION_GET_CONTENT);
+        intent.setType("image/*");
+        intent.addCategory(Intent.CATEGORY_OPENABLE);
+        intent.putExtra(Intent.EXTRA_ALLOW_MULTIPLE, true);
+        startActivityForResult(Intent.createChooser(intent, getString(R.string.batch_scan)), REQUEST_CODE_BATCH);
+    }
+
+    /**
+     * recognize the images one after another, once the OCR engine is ready
+     */
+    private void startBatch(List<Uri> uris) {
+        BatchJob running = mBatchJob;
+        if (running != null && !running.isFinished() && !running.isCancelled()) {
+            Toast.makeText(this, R.string.batch_already_running, Toast.LENGTH_SHORT).show();
+            return;
+        }
+        if (mImageTextReader == null) {
+            mPendingBatch = uris;
+            return;
+        }
+        mPendingBatch = null;
+        BatchJob job = new BatchJob(mOcrPipeline, uris, Utils.isPreProcessImage(), mBatchListener);
+        // the history shows a thumbnail of every image, as it does for single scans
+        job.setKeepImages(Utils.isPersistData());
+        mBatchImageKey = ImageCache.getInstance().newKey();
+        mBatchJob = job;
+        mProgressIndicator.setProgress(0);
+        mProgressIndicator.setVisibility(View.VISIBLE);
+        mProcessingTimeTextView.setText(getString(R.string.batch_progress, 0, uris.size(), 0f));
+        mProcessingTimeTextView.setVisibility(View.VISIBLE);
+        job.start();
+    }
+
+    /**
+     * @return the key of the image of the batch in the image cache
+     */
+    private String getBatchImageKey(BatchJob.Item item) {
+        return mBatchImageKey + "_" + item.getIndex();
     }
 
+    private void startPendingBatch() {
+        if (mPendingBatch != null && mImageTextReader != null && !isFinishing()) {
+            startBatch(mPendingBatch);
+        }
+    }
+
+    private final BatchJob.Listener mBatchListener = new BatchJob.Listener() {
+        @Override
+        public void onItemDone(BatchJob job, BatchJob.Item item) {
+            int done = job.getDoneCount();
+            float imagesPerMinute = job.getImagesPerMinute();
+            OcrResult result = item.getResult();
+            if (result != null) addToHistory(result, item.getTotalMs(), getBatchImageKey(item));
+            handler.post(() -> {
+                mProgressIndicator.setProgress(done * 100 / job.getTotalCount());
+                mProcessingTimeTextView.setText(getString(R.string.batch_progress, done, job.getTotalCount(), imagesPerMinute));
+            });
+        }
+
+        @Override
+        public void onItemImage(BatchJob job, BatchJob.Item item, Bitmap bitmap) {
+            ImageCache.getInstance().putThumbnail(getBatchImageKey(item), bitmap);
+        }
+
+        @Override
+        public void onFinished(BatchJob job) {
+            String text = job.getCombinedText();
+            long durationMs = job.getElapsedMs();
+            handler.post(() -> {
+                mProgressIndicator.setVisibility(View.GONE);
+                mProcessingTimeTextView.setText(getString(R.string.batch_finished,
+                        job.getDoneCount(), durationMs / 1000f, job.getImagesPerMinute()));
+                showOCRResult(text);
+            });
+        }
+    };
+
     private void initViews() {
         mFloatingActionButton.setOnClickListener(v -> {
             if (isNoLanguagesDataMissingFromSet()) {
@@ -141,8 +266,7 @@ public class MainActivity extends AppCompatActivity implements TessBaseAPI.Progr
                     if (drawable != null) {
                         Bitmap bitmap = ((BitmapDrawable) drawable).getBitmap();
                         if (bitmap != null) {
-                            isRefresh = true;
-                            executorService.submit(new ConvertImageToText(bitmap));
+                            new ConvertImageToText(bitmap).submit();
                         }
                     }
                 } else {
@@ -154,11 +278,17 @@ public class MainActivity extends AppCompatActivity implements TessBaseAPI.Progr
             mSwipeRefreshLayout.setRefreshing(false);
         });
 
-        if (Utils.isPersistData()) {
-            Bitmap bitmap = loadBitmapFromStorage();
-            if (bitmap != null) {
-                mImageView.setImageBitmap(bitmap);
-            }
+        // the single image kept before there was an image cache
+        deleteFile(LEGACY_LAST_IMAGE_FILE);
+        String lastImage = Utils.getLastImage();
+        if (Utils.isPersistData() && lastImage != null) {
+            int width = getResources().getDisplayMetrics().widthPixels;
+            int height = getResources().getDisplayMetrics().heightPixels;
+            ImageCache.getInstance().loadImage(lastImage, width, height, bitmap -> {
+                if (bitmap != null && mImageView.getDrawable() == null) {
+                    mImageView.setImageBitmap(bitmap);
+                }
+            });
         }
     }
 
@@ -169,24 +299,26 @@ public class MainActivity extends AppCompatActivity implements TessBaseAPI.Progr
     }
 
     private void initDirectories() {
-        String[] dirNames = {"best", "fast", "standard"};
-        for (String dirName : dirNames) {
-            File dir = new File(getExternalFilesDir(dirName), "tessdata");
-            if (dir.mkdirs() || dir.isDirectory()) {
-                switch (dirName) {
-                    case "best":
-                        dirBest = dir.getParentFile();
-                        break;
-                    case "fast":
-                        dirFast = dir.getParentFile();
-                        break;
-                    case "standard":
-                        dirStandard = dir.getParentFile();
-                        break;
-                }
-            }
-        }
+        TrainingDataStore store = TrainingDataStore.getInstance();
+        loadDataDirectories();
         currentDirectory = new File(dirStandard, "tessdata");
+        final String dataType = Utils.getTrainingDataType();
+        final boolean online = Utils.isNetworkAvailable(getApplication());
+        new Thread(() -> {
+            store.cleanUp(dataType);
+            if (online) store.confirmAdopted(mDownloader);
+        }).start();
+    }
+
+    /**
+     * the directories move to internal storage on the start after the training data of older
+     * versions was copied there
+     */
+    private void loadDataDirectories() {
+        TrainingDataStore store = TrainingDataStore.getInstance();
+        dirBest = store.getDataDir("best");
+        dirFast = store.getDataDir("fast");
+        dirStandard = store.getDataDir("standard");
     }
 
     private void initializeOCR() {
@@ -195,6 +327,11 @@ public class MainActivity extends AppCompatActivity implements TessBaseAPI.Progr
         mTrainingDataType = Utils.getTrainingDataType();
         mPageSegMode = Utils.getPageSegMode();
         parameters = Utils.getAllParameters();
+        ResultCache.getInstance().setEnabled(Utils.isResultCacheEnabled());
+        mOcrPipeline.setNormalizeResolution(Utils.isNormalizeResolution());
+        mOcrPipeline.setEngines(Utils.getEnginePoolSize());
+        mPreprocessPipeline = PreprocessPipeline.fromPreferences();
+        loadDataDirectories();
 
         switch (mTrainingDataType) {
             case "best":
@@ -219,25 +356,44 @@ public class MainActivity extends AppCompatActivity implements TessBaseAPI.Progr
     }
 
     private void startImageTextReaderThread(File cf, Set<Language> languages) {
+        final boolean isParameterSet = Utils.isExtraParameterSet();
+        final int poolSize = Utils.getEnginePoolSize();
+        final String key = EngineCache.createKey(languages, mTrainingDataType, mPageSegMode, parameters, isParameterSet, cf, poolSize);
+        final long engineBytes = EngineCache.estimateEngineBytes(currentDirectory, languages);
         new Thread(() -> {
             try {
-                if (mImageTextReader != null) {
-                    mImageTextReader.tearDownEverything();
+                ImageTextReader previous = mImageTextReader;
+                mImageTextReader = EngineCache.getInstance().obtain(key, engineBytes, () ->
+                        ImageTextReader.getInstance(cf.getAbsolutePath(), languages, mPageSegMode, parameters, isParameterSet, poolSize, null));
+                if (previous != null && previous != mImageTextReader) {
+                    previous.setProgressNotifier(null);
                 }
-                mImageTextReader = ImageTextReader.getInstance(cf.getAbsolutePath(), languages, mPageSegMode, parameters, Utils.isExtraParameterSet(), MainActivity.this);
                 if (mImageTextReader != null && !mImageTextReader.isSuccess()) {
+                    mImageTextReader.tearDownEverything();
                     handleReaderException(languages);
+                } else if (mImageTextReader != null) {
+                    TrainingDataStore.getInstance().markUsed(mTrainingDataType, languages.stream().map(Language::getCode).collect(Collectors.toList()));
+                    mImageTextReader.setProgressNotifier(MainActivity.this);
+                    handler.post(MainActivity.this::startPendingBatch);
                 }
             } catch (Exception e) {
+                EngineCache.getInstance().remove(key);
                 handleReaderException(languages);
             }
         }).start();
     }
 
+    /**
+     * Called on a worker thread: deletes the training data the engine could not load and asks to
+     * download it again.
+     */
     private void handleReaderException(Set<Language> languages) {
-        File destFile = new File(currentDirectory, String.format(Constants.LANGUAGE_CODE, languages));
-        destFile.delete();
+        TrainingDataStore store = TrainingDataStore.getInstance();
+        for (Language language : languages) {
+            store.discard(mTrainingDataType, language.getCode());
+        }
         mImageTextReader = null;
+        handler.post(this::initializeOCR);
     }
 
     private void downloadLanguageData() {
@@ -252,14 +408,93 @@ public class MainActivity extends AppCompatActivity implements TessBaseAPI.Progr
                 missingLanguage.add(l);
             }
         }
+        final String dataType = mTrainingDataType;
+        new Thread(() -> {
+            // identical files downloaded for another data type are linked instead
+            TrainingDataStore store = TrainingDataStore.getInstance();
+            missingLanguage.removeIf(l -> store.linkSameSource(dataType, l.getCode(), TrainingDataDownloader.getDownloadUrl(dataType, l.getCode())));
+            if (missingLanguage.isEmpty()) {
+                handler.post(this::initializeOCR);
+                return;
+            }
+            List<String> codes = missingLanguage.stream().map(Language::getCode).collect(Collectors.toList());
+            long downloadBytes = mDownloader.fetchSize(dataType, codes);
+            handler.post(() -> showDownloadDialog(dataType, missingLanguage, downloadBytes));
+        }).start();
+    }
+
+    /**
+     * @param downloadBytes size of the missing files, -1 if the server did not tell
+     */
+    private void showDownloadDialog(String dataType, Set<Language> missingLanguage, long downloadBytes) {
+        if (isFinishing() || isDestroyed()) return;
+        TrainingDataStore store = TrainingDataStore.getInstance();
         String missingLangName = missingLanguage.stream().map(Language::getName).collect(Collectors.joining(", "));
         String msg = String.format(getString(R.string.download_description), missingLangName);
-        dialog = new AlertDialog.Builder(this).setTitle(R.string.training_data_missing).setCancelable(false).setMessage(msg).setPositiveButton(R.string.yes, (dialog, which) -> {
-            dialog.cancel();
-            executorService.submit(new DownloadTraining(mTrainingDataType, missingLanguage));
-        }).setNegativeButton(R.string.no, (dialog, which) -> dialog.cancel()).create();
+        long missingSpace = store.getMissingSpace(dataType, Math.max(0, downloadBytes));
+        if (downloadBytes >= 0) {
+            msg += "\n\n" + getString(R.string.download_size,
+                    Formatter.formatShortFileSize(this, downloadBytes),
+                    Formatter.formatShortFileSize(this, store.getUsableSpace(dataType)));
+        }
+        AlertDialog.Builder builder = new AlertDialog.Builder(this).setTitle(R.string.training_data_missing).setCancelable(false);
+        if (missingSpace > 0) {
+            builder.setMessage(msg + "\n\n" + getString(R.string.download_not_enough_space, Formatter.formatShortFileSize(this, missingSpace)))
+                    .setPositiveButton(android.R.string.ok, (dialog, which) -> dialog.cancel());
+        } else {
+            builder.setMessage(msg).setPositiveButton(R.string.yes, (dialog, which) -> {
+                dialog.cancel();
+                startDownload(dataType, missingLanguage);
+            }).setNegativeButton(R.string.no, (dialog, which) -> dialog.cancel());
+        }
+        dialog = builder.create();
         dialog.show();
+    }
+
+    /**
+     * Download the languages in parallel, initialize the engine once all of them are there
+     */
+    private void startDownload(String dataType, Set<Language> languages) {
+        if (mDownload != null) {
+            mDownload.cancel();
+        }
+        mProgressMessage.setText(getString(R.string.downloading_language));
+        mDownloadLayout.setVisibility(View.VISIBLE);
+        mProgressBar.setVisibility(View.GONE);
+        List<String> codes = languages.stream().map(Language::getCode).collect(Collectors.toList());
+        final TrainingDataStore store = TrainingDataStore.getInstance();
+        mDownload = mDownloader.download(dataType, codes, store.getTessDataDir(dataType), new TrainingDataDownloader.Listener() {
+            @Override
+            public void onProgress(long downloaded, long total) {
+                if (total <= 0) return;
+                final int percentage = (int) Math.min(100, downloaded * 100 / total);
+                final String size = Utils.getSize((int) total);
+                handler.post(() -> {
+                    mProgressBar.setVisibility(View.VISIBLE);
+                    mProgressBar.setProgress(percentage);
+                    mProgressMessage.setText(String.format(Locale.US, "%d%s%s.", percentage, getString(R.string.percentage_downloaded), size));
+                });
+            }
 
+            @Override
+            public void onFinished(List<String> failed, boolean cancelled) {
+                List<String> broken = new ArrayList<>(failed);
+                for (String code : codes) {
+                    // hashed once here, later launches only read the manifest
+                    if (!failed.contains(code) && !store.add(dataType, code, TrainingDataDownloader.getDownloadUrl(dataType, code))) broken.add(code);
+                }
+                handler.post(() -> {
+                    if (cancelled) return;
+                    mDownloadLayout.setVisibility(View.GONE);
+                    if (broken.isEmpty()) {
+                        initializeOCR();
+                    } else {
+                        Log.e(TAG, "Download failed: " + broken);
+                        Toast.makeText(MainActivity.this, "Download failed", Toast.LENGTH_SHORT).show();
+                    }
+                });
+            }
+        });
     }
 
     private boolean isNoLanguagesDataMissingFromSet() {
@@ -283,7 +518,7 @@ public class MainActivity extends AppCompatActivity implements TessBaseAPI.Progr
                 currentDirectory = new File(dirFast, "tessdata");
 
         }
-        return !new File(currentDirectory, String.format(Constants.LANGUAGE_CODE, language.getCode())).exists();
+        return !TrainingDataStore.getInstance().isInstalled(dataType, language.getCode());
     }
 
     private void selectImage() {
@@ -291,14 +526,21 @@ public class MainActivity extends AppCompatActivity implements TessBaseAPI.Progr
     }
 
     private void convertImageToText(Uri imageUri) {
-        Bitmap bitmap = null;
-        try {
-            bitmap = MediaStore.Images.Media.getBitmap(getContentResolver(), imageUri);
-        } catch (IOException e) {
-            Log.e(TAG, "convertImageToText: " + e.getLocalizedMessage());
-        }
-        mImageView.setImageURI(imageUri);
-        executorService.submit(new ConvertImageToText(bitmap));
+        showImage(imageUri);
+        new ConvertImageToText(imageUri).submit();
+    }
+
+    /**
+     * show the image sampled down to the screen, decoded off the main thread
+     */
+    private void showImage(Uri imageUri) {
+        int width = getResources().getDisplayMetrics().widthPixels;
+        int height = getResources().getDisplayMetrics().heightPixels;
+        mOcrPipeline.getDecoder().loadForDisplay(imageUri, width, height, bitmap -> {
+            if (bitmap != null) {
+                mImageView.setImageBitmap(bitmap);
+            }
+        });
     }
 
     @Override
@@ -307,8 +549,23 @@ public class MainActivity extends AppCompatActivity implements TessBaseAPI.Progr
         if (requestCode == REQUEST_CODE_SETTINGS) {
             initializeOCR();
         }
+        if (resultCode == RESULT_OK && requestCode == REQUEST_CODE_BATCH && data != null) {
+            List<Uri> uris = new ArrayList<>();
+            if (data.getClipData() != null) {
+                for (int i = 0; i < data.getClipData().getItemCount(); i++) {
+                    uris.add(data.getClipData().getItemAt(i).getUri());
+                }
+            } else if (data.getData() != null) {
+                uris.add(data.getData());
+            }
+            if (!uris.isEmpty()) {
+                startBatch(uris);
+            }
+        }
         if (resultCode == RESULT_OK) {
             if (requestCode == CropImage.CROP_IMAGE_ACTIVITY_REQUEST_CODE) {
+                Log.d(TAG, "crop tasks: " + CropTaskScheduler.getInstance().getStats());
+                Log.d(TAG, "crop memory: " + CropMemoryPlanner.getStats());
                 if (isNoLanguagesDataMissingFromSet()) {
                     CropImage.ActivityResult result = CropImage.getActivityResult(data);
                     if (result != null) {
@@ -321,15 +578,41 @@ public class MainActivity extends AppCompatActivity implements TessBaseAPI.Progr
         }
     }
 
+    @Override
+    public void onBackPressed() {
+        OcrJob scan = mOcrService.getLatestJob(JOB_KEY_SCAN);
+        BatchJob batchJob = mBatchJob;
+        if (scan != null && scan.cancel(true)) {
+            onScanCancelled();
+        } else if (batchJob != null && !batchJob.isFinished() && !batchJob.isCancelled()) {
+            batchJob.cancel();
+            onScanCancelled();
+        } else {
+            super.onBackPressed();
+        }
+    }
+
+    private void onScanCancelled() {
+        mProgressIndicator.setVisibility(View.GONE);
+        mImageView.animate().alpha(1f).setDuration(450).start();
+        mProcessingTimeTextView.setVisibility(View.GONE);
+        Toast.makeText(this, R.string.scan_cancelled, Toast.LENGTH_SHORT).show();
+    }
+
     @Override
     protected void onDestroy() {
         super.onDestroy();
-        executorService.shutdownNow();
+        if (mDownload != null) mDownload.cancel();
+        if (mBatchJob != null) mBatchJob.cancel();
+        mOcrService.shutdown();
         if (dialog != null) {
             dialog.dismiss();
             dialog = null;
         }
-        if (mImageTextReader != null) mImageTextReader.tearDownEverything();
+        if (mImageTextReader != null) mImageTextReader.setProgressNotifier(null);
+        if (isFinishing()) {
+            EngineCache.getInstance().clear();
+        }
     }
 
     @Override
@@ -351,40 +634,35 @@ public class MainActivity extends AppCompatActivity implements TessBaseAPI.Progr
         int id = item.getItemId();
         if (id == R.id.action_settings) {
             startActivityForResult(new Intent(this, SettingsActivity.class), REQUEST_CODE_SETTINGS);
+        } else if (id == R.id.action_batch) {
+            if (isNoLanguagesDataMissingFromSet()) {
+                selectImagesForBatch();
+            } else {
+                downloadLanguageData();
+            }
         } else if (id == R.id.action_history) {
-            showOCRResult(Utils.getLastUsedText());
+            startActivity(new Intent(this, HistoryActivity.class));
         }
         return super.onOptionsItemSelected(item);
     }
 
     @Override
     public void onProgressValues(final TessBaseAPI.ProgressValues progressValues) {
+        BatchJob batchJob = mBatchJob;
+        // the batch shows its own progress, per image values of parallel engines would flicker
+        if (batchJob != null && !batchJob.isFinished() && !batchJob.isCancelled()) return;
         runOnUiThread(() -> mProgressIndicator.setProgress((int) (progressValues.getPercent() * 1.46)));
     }
 
-    public void saveBitmapToStorage(Bitmap bitmap) {
-        FileOutputStream fileOutputStream;
-        try {
-            fileOutputStream = openFileOutput("last_file.jpeg", Context.MODE_PRIVATE);
-            bitmap.compress(Bitmap.CompressFormat.JPEG, 30, fileOutputStream);
-            fileOutputStream.close();
-        } catch (IOException e) {
-            Log.e(TAG, "loadBitmapFromStorage: " + e.getLocalizedMessage());
-        }
-    }
-
-    public Bitmap loadBitmapFromStorage() {
-        Bitmap bitmap = null;
-        FileInputStream fileInputStream;
-        try {
-            fileInputStream = openFileInput("last_file.jpeg");
-            bitmap = BitmapFactory.decodeStream(fileInputStream);
-            fileInputStream.close();
-
-        } catch (IOException e) {
-            Log.e(TAG, "loadBitmapFromStorage: " + e.getLocalizedMessage());
-        }
-        return bitmap;
+    /**
+     * Append a recognized text to the history, if the user wants the data kept
+     *
+     * @param imageKey key of the scanned image in the image cache, null if it is not cached
+     */
+    private void addToHistory(OcrResult result, long durationMs, @Nullable String imageKey) {
+        if (!result.isSuccess() || !Utils.isPersistData()) return;
+        String languages = Utils.getTrainingDataLanguages(this).stream().map(Language::getCode).sorted().collect(Collectors.joining("+"));
+        HistoryStore.getInstance().add(new HistoryEntry(result.getText(), languages, result.getConfidence(), durationMs, imageKey));
     }
 
     public void showOCRResult(String text) {
@@ -395,32 +673,37 @@ public class MainActivity extends AppCompatActivity implements TessBaseAPI.Progr
 
     }
 
-    private class ConvertImageToText implements Runnable {
-        private Bitmap bitmap;
-
-        public ConvertImageToText(Bitmap bitmap) {
-            this.bitmap = bitmap;
+    /**
+     * recognize one image on the pipeline and show its text and the recognized image
+     */
+    private class ConvertImageToText implements OcrTask.Callback {
+        private final OcrTask task;
+        private final String imageKey = ImageCache.getInstance().newKey();
+
+        ConvertImageToText(Uri imageUri) {
+            task = OcrTask.forUri(imageUri, Utils.isPreProcessImage(), this);
+            task.setTiled(Utils.isTiledRecognition());
+            task.setKeepDisplayImage(true);
         }
 
-        @Override
-        public void run() {
-            handler.post(() -> {
-                mProgressIndicator.setProgress(0);
-                mProgressIndicator.setVisibility(View.VISIBLE);
-                animateImageViewAlpha(0.2f);
-            });
-
-            long startTime = System.currentTimeMillis();
+        ConvertImageToText(Bitmap bitmap) {
+            task = OcrTask.forBitmap(bitmap, false, this);
+            task.setTiled(Utils.isTiledRecognition());
+            task.setKeepDisplayImage(true);
+        }
 
-            if (!isRefresh && Utils.isPreProcessImage()) {
-                bitmap = Utils.preProcessBitmap(bitmap);
-            }
-            isRefresh = false;
-            saveBitmapToStorage(bitmap);
-            String text = mImageTextReader.getTextFromBitmap(bitmap);
+        void submit() {
+            mProgressIndicator.setProgress(0);
+            mProgressIndicator.setVisibility(View.VISIBLE);
+            animateImageViewAlpha(0.2f);
+            mOcrService.submit(JOB_KEY_SCAN, task);
+        }
 
-            long durationMs = System.currentTimeMillis() - startTime;
-            final String timeTaken = String.format(Locale.US, "Processing Time: %.2f s", durationMs / 1000.0);
+        @Override
+        public void onRecognized(OcrTask task) {
+            OcrResult result = task.getResult();
+            final String text = result.getText();
+            final String timeTaken = String.format(Locale.US, "Processing Time: %.2f s", task.getTotalMs() / 1000.0);
 
             handler.post(() -> {
                 mProgressIndicator.setVisibility(View.GONE);
@@ -429,133 +712,30 @@ public class MainActivity extends AppCompatActivity implements TessBaseAPI.Progr
                 mProcessingTimeTextView.setText(timeTaken);
                 mProcessingTimeTextView.setVisibility(View.VISIBLE);
 
-                String cleanText = Html.fromHtml(text).toString().trim();
-                showOCRResult(cleanText);
-                Toast.makeText(MainActivity.this, "With Confidence: " + mImageTextReader.getAccuracy() + "%", Toast.LENGTH_SHORT).show();
-                Utils.putLastUsedText(cleanText);
-                updateImageView();
+                showOCRResult(text);
+                Toast.makeText(MainActivity.this, "With Confidence: " + result.getConfidence() + "%", Toast.LENGTH_SHORT).show();
             });
-        }
-
-        private void animateImageViewAlpha(float alpha) {
-            mImageView.animate().alpha(alpha).setDuration(450).start();
-        }
-
-        private void updateImageView() {
-            Bitmap bitmap = loadBitmapFromStorage();
-            if (bitmap != null) {
-                mImageView.setImageBitmap(bitmap);
-            }
-        }
-    }
-
-    private class DownloadTraining implements Runnable {
-        private final String dataType;
-        private final Set<Language> languages;
-        private String size;
-
-        public DownloadTraining(String dataType, Set<Language> langs) {
-            this.dataType = dataType;
-            this.languages = langs;
+            addToHistory(result, task.getTotalMs(), imageKey);
         }
 
         @Override
-        public void run() {
-            handler.post(() -> {
-                mProgressMessage.setText(getString(R.string.downloading_language));
-                mDownloadLayout.setVisibility(View.VISIBLE);
-                mProgressBar.setVisibility(View.GONE);
-            });
-
-            final boolean[] success = {true};
-            for (Language lang : languages) {
-                success[0] = success[0] && downloadTrainingData(dataType, lang.getCode());
-            }
-            handler.post(() -> {
-                mDownloadLayout.setVisibility(View.GONE);
-                if (success[0]) {
-                    initializeOCR();
-                } else {
-                    Toast.makeText(MainActivity.this, "Download failed", Toast.LENGTH_SHORT).show();
-                }
-            });
-        }
-
-        @SuppressLint("DefaultLocale")
-        private boolean downloadTrainingData(String dataType, String lang) {
-            String downloadURL = getDownloadUrl(dataType, lang);
-            if (downloadURL == null) {
-                return false;
-            }
-            try {
-                URL url = new URL(downloadURL);
-                HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-                conn.setInstanceFollowRedirects(false);
-                downloadURL = followRedirects(conn, downloadURL);
-                conn = (HttpURLConnection) new URL(downloadURL).openConnection();
-                conn.connect();
-                int totalContentSize = conn.getContentLength();
-                if (totalContentSize <= 0) {
-                    return false;
-                }
-                size = Utils.getSize(totalContentSize);
-
-                handler.post(() -> {
-                    mProgressBar.setVisibility(View.VISIBLE);
-                    mProgressMessage.setText(String.format("0%s%s", getString(R.string.percentage_downloaded), size));
-                    mProgressBar.setProgress(0);
-                });
-
-                try (InputStream input = new BufferedInputStream(conn.getInputStream()); OutputStream output = new FileOutputStream(new File(currentDirectory, String.format(Constants.LANGUAGE_CODE, lang)))) {
-
-                    byte[] data = new byte[6 * 1024];
-                    int downloaded = 0;
-                    int count;
-
-                    while ((count = input.read(data)) != -1) {
-                        output.write(data, 0, count);
-                        downloaded += count;
-                        int percentage = (downloaded * 100) / totalContentSize;
-                        handler.post(() -> {
-                            mProgressBar.setProgress(percentage);
-                            mProgressMessage.setText(String.format("%d%s%s.", percentage, getString(R.string.percentage_downloaded), size));
-                        });
-                    }
-                    output.flush();
+        public void onDone(OcrTask task) {
+            Bitmap bitmap = task.getDisplayBitmap();
+            if (bitmap != null) {
+                // the task frees its bitmap once this returns, the cache keeps a copy
+                ImageCache cache = ImageCache.getInstance();
+                cache.put(imageKey, bitmap);
+                Utils.putLastImage(imageKey);
+                Bitmap cached = cache.getFromMemory(imageKey);
+                if (cached != null) {
+                    handler.post(() -> mImageView.setImageBitmap(cached));
                 }
-
-                return true;
-            } catch (IOException e) {
-                Log.e(TAG, "Download failed: " + e.getLocalizedMessage());
-                return false;
             }
         }
 
-        private String getDownloadUrl(String dataType, String lang) {
-            switch (dataType) {
-                case "best":
-                    return lang.equals("akk") ? Constants.TESSERACT_DATA_DOWNLOAD_URL_AKK_BEST : lang.equals("eqo") ? Constants.TESSERACT_DATA_DOWNLOAD_URL_EQU : String.format(Constants.TESSERACT_DATA_DOWNLOAD_URL_BEST, lang);
-                case "standard":
-                    return lang.equals("akk") ? Constants.TESSERACT_DATA_DOWNLOAD_URL_AKK_STANDARD : lang.equals("eqo") ? Constants.TESSERACT_DATA_DOWNLOAD_URL_EQU : String.format(Constants.TESSERACT_DATA_DOWNLOAD_URL_STANDARD, lang);
-                default: // Assuming "fast" is the default
-                    return lang.equals("akk") ? Constants.TESSERACT_DATA_DOWNLOAD_URL_AKK_FAST : lang.equals("eqo") ? Constants.TESSERACT_DATA_DOWNLOAD_URL_EQU : String.format(Constants.TESSERACT_DATA_DOWNLOAD_URL_FAST, lang);
-            }
-        }
-
-        private String followRedirects(HttpURLConnection conn, String downloadURL) throws IOException {
-            while (true) {
-                int responseCode = conn.getResponseCode();
-                if (responseCode == HttpURLConnection.HTTP_MOVED_PERM || responseCode == HttpURLConnection.HTTP_MOVED_TEMP) {
-                    String location = conn.getHeaderField("Location");
-                    URL base = new URL(downloadURL);
-                    downloadURL = new URL(base, location).toExternalForm(); // Handle relative URLs
-                    conn = (HttpURLConnection) new URL(downloadURL).openConnection(); // Re-open connection
-                } else {
-                    break; // No more redirects
-                }
-            }
-            return downloadURL;
+        private void animateImageViewAlpha(float alpha) {
+            mImageView.animate().alpha(alpha).setDuration(450).start();
         }
     }
 
-}
\ No newline at end of file
+}
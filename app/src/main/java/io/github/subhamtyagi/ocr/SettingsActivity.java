@@ -3,8 +3,13 @@ package io.github.subhamtyagi.ocr;
 import android.os.Bundle;
 
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.preference.Preference;
 import androidx.preference.PreferenceFragmentCompat;
 
+import io.github.subhamtyagi.ocr.history.HistoryStore;
+import io.github.subhamtyagi.ocr.image.ImageCache;
+import io.github.subhamtyagi.ocr.utils.Constants;
+
 public class SettingsActivity extends AppCompatActivity {
 
     @Override
@@ -21,6 +26,19 @@ public class SettingsActivity extends AppCompatActivity {
         @Override
         public void onCreatePreferences(Bundle savedInstanceState, String rootKey) {
             setPreferencesFromResource(R.xml.main_preferences, rootKey);
+            Preference persistData = findPreference(Constants.KEY_PERSIST_DATA);
+            if (persistData != null) {
+                persistData.setOnPreferenceChangeListener((preference, newValue) -> {
+                    if (!(Boolean) newValue) {
+                        // nothing of the scans made so far is kept on the device either
+                        HistoryStore.getInstance().init(requireContext());
+                        HistoryStore.getInstance().clear();
+                        ImageCache.getInstance().init(requireContext());
+                        ImageCache.getInstance().clear();
+                    }
+                    return true;
+                });
+            }
         }
     }
 
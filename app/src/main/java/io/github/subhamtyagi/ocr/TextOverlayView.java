@@ -0,0 +1,97 @@
+package io.github.subhamtyagi.ocr;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.util.AttributeSet;
+import android.view.View;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import io.github.subhamtyagi.ocr.ocr.OcrResult;
+
+/**
+ * Draws the boxes of recognized words over the {@link AutoFitTextureView} showing the camera
+ * preview. The boxes are given in frame coordinates and stretched to the view like the preview.
+ */
+public class TextOverlayView extends View {
+
+    private final Paint mBoxPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private List<Rect> mBoxes = Collections.emptyList();
+    private int mFrameWidth;
+    private int mFrameHeight;
+    private boolean mMirrored;
+
+    public TextOverlayView(Context context) {
+        this(context, null);
+    }
+
+    public TextOverlayView(Context context, AttributeSet attrs) {
+        this(context, attrs, 0);
+    }
+
+    public TextOverlayView(Context context, AttributeSet attrs, int defStyle) {
+        super(context, attrs, defStyle);
+        mBoxPaint.setStyle(Paint.Style.STROKE);
+        mBoxPaint.setColor(Color.CYAN);
+        mBoxPaint.setStrokeWidth(2 * getResources().getDisplayMetrics().density);
+    }
+
+    /**
+     * Show the words of the result, must be called on the main thread.
+     *
+     * @param frameWidth  width of the frame the result was recognized on
+     * @param frameHeight height of the frame
+     */
+    public void setResult(OcrResult result, int frameWidth, int frameHeight) {
+        List<Rect> boxes = new ArrayList<>();
+        for (OcrResult.Page page : result.getPages()) {
+            for (OcrResult.Block block : page.getBlocks()) {
+                for (OcrResult.Line line : block.getLines()) {
+                    for (OcrResult.Word word : line.getWords()) {
+                        boxes.add(word.getBox());
+                    }
+                }
+            }
+        }
+        mBoxes = boxes;
+        mFrameWidth = frameWidth;
+        mFrameHeight = frameHeight;
+        invalidate();
+    }
+
+    /**
+     * @param mirrored whether the preview is shown mirrored, as for front cameras
+     */
+    public void setMirrored(boolean mirrored) {
+        mMirrored = mirrored;
+        invalidate();
+    }
+
+    public void clear() {
+        mBoxes = Collections.emptyList();
+        invalidate();
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        if (mBoxes.isEmpty() || mFrameWidth == 0 || mFrameHeight == 0) return;
+        float scaleX = (float) getWidth() / mFrameWidth;
+        float scaleY = (float) getHeight() / mFrameHeight;
+        for (Rect box : mBoxes) {
+            float left = box.left * scaleX;
+            float right = box.right * scaleX;
+            if (mMirrored) {
+                float mirroredLeft = getWidth() - right;
+                right = getWidth() - left;
+                left = mirroredLeft;
+            }
+            canvas.drawRect(left, box.top * scaleY, right, box.bottom * scaleY, mBoxPaint);
+        }
+    }
+}
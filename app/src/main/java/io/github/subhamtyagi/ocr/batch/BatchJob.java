@@ -0,0 +1,267 @@
+package io.github.subhamtyagi.ocr.batch;
+
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.github.subhamtyagi.ocr.ocr.OcrResult;
+import io.github.subhamtyagi.ocr.pipeline.OcrPipeline;
+import io.github.subhamtyagi.ocr.pipeline.OcrTask;
+
+/**
+ * Recognizes many images one after another on an {@link OcrPipeline}: while one image is inside
+ * tesseract the next ones are already being decoded and preprocessed. The images are fed to the
+ * pipeline as its queues drain so that a burst of shared photos does not run out of memory.
+ */
+public class BatchJob {
+
+    public static final String TAG = "BatchJob";
+
+    public interface Listener {
+        /**
+         * called on a worker thread each time an image is done, in order of completion
+         */
+        void onItemDone(BatchJob job, Item item);
+
+        /**
+         * called on a worker thread after {@link #onItemDone} if the job keeps the images, the
+         * bitmap is only valid during this call
+         */
+        void onItemImage(BatchJob job, Item item, Bitmap bitmap);
+
+        /**
+         * called on a worker thread once every image is done
+         */
+        void onFinished(BatchJob job);
+    }
+
+    private final OcrPipeline pipeline;
+    private final List<Item> items;
+    private final Listener listener;
+
+    private final ExecutorService feeder = Executors.newSingleThreadExecutor();
+    private final AtomicInteger doneCount = new AtomicInteger();
+
+    private volatile boolean cancelled;
+    private volatile long startTime;
+    private volatile long endTime;
+
+    /**
+     * @param preprocess whether the enhancement steps of the settings are applied to every image
+     */
+    public BatchJob(OcrPipeline pipeline, List<Uri> uris, boolean preprocess, Listener listener) {
+        this.pipeline = pipeline;
+        this.listener = listener;
+        List<Item> items = new ArrayList<>(uris.size());
+        for (int i = 0; i < uris.size(); i++) {
+            items.add(new Item(i, uris.get(i), preprocess));
+        }
+        this.items = Collections.unmodifiableList(items);
+    }
+
+    /**
+     * @param keepImages whether {@link Listener#onItemImage} gets the recognized images, call before
+     *                   {@link #start()}
+     */
+    public void setKeepImages(boolean keepImages) {
+        for (Item item : items) {
+            item.task.setKeepDisplayImage(keepImages);
+        }
+    }
+
+    public void start() {
+        startTime = System.currentTimeMillis();
+        if (items.isEmpty()) {
+            finish();
+            return;
+        }
+        feeder.execute(() -> {
+            for (Item item : items) {
+                if (cancelled) return;
+                try {
+                    pipeline.submit(item.task);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (IllegalStateException e) {
+                    // the pipeline was shut down under the job
+                    return;
+                }
+            }
+        });
+        feeder.shutdown();
+    }
+
+    /**
+     * Drop the images not started yet and stop the engines recognizing images of this job, images
+     * of other jobs are not affected.
+     */
+    public void cancel() {
+        cancelled = true;
+        feeder.shutdownNow();
+        for (Item item : items) {
+            item.task.cancel();
+        }
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public boolean isFinished() {
+        return endTime != 0;
+    }
+
+    public List<Item> getItems() {
+        return items;
+    }
+
+    public int getTotalCount() {
+        return items.size();
+    }
+
+    public int getDoneCount() {
+        return doneCount.get();
+    }
+
+    /**
+     * @return wall time since the job started, until it finished
+     */
+    public long getElapsedMs() {
+        if (startTime == 0) return 0;
+        long end = endTime != 0 ? endTime : System.currentTimeMillis();
+        return end - startTime;
+    }
+
+    /**
+     * @return images recognized per minute since the job started
+     */
+    public float getImagesPerMinute() {
+        long elapsed = getElapsedMs();
+        if (elapsed <= 0) return 0;
+        return doneCount.get() * 60_000f / elapsed;
+    }
+
+    /**
+     * @return the text of every recognized image in the order the images were given, each under a
+     * header with its position and name
+     */
+    @NonNull
+    public String getCombinedText() {
+        StringBuilder builder = new StringBuilder();
+        for (Item item : items) {
+            if (!item.isDone()) continue;
+            if (builder.length() > 0) builder.append("\n\n");
+            builder.append("--- ").append(item.index + 1).append('/').append(items.size());
+            String name = item.uri.getLastPathSegment();
+            if (name != null) builder.append(' ').append(name);
+            builder.append(" ---\n").append(item.getText());
+        }
+        return builder.toString();
+    }
+
+    private void complete(Item item) {
+        Log.d(TAG, String.format(Locale.US, "item %d: decode %d ms, preprocess %d ms, recognize %d ms, total %d ms",
+                item.index, item.getDecodeMs(), item.getPreprocessMs(), item.getRecognizeMs(), item.getTotalMs()));
+        if (cancelled) return;
+        int done = doneCount.incrementAndGet();
+        listener.onItemDone(this, item);
+        if (done == items.size()) {
+            finish();
+        }
+    }
+
+    private void finish() {
+        endTime = System.currentTimeMillis();
+        Log.d(TAG, String.format(Locale.US, "finished %d images in %d ms, %.1f images/min",
+                doneCount.get(), getElapsedMs(), getImagesPerMinute()));
+        pipeline.logStats();
+        listener.onFinished(this);
+    }
+
+    /**
+     * One image of the job with the time spent in each stage
+     */
+    public class Item implements OcrTask.Callback {
+        private final int index;
+        private final Uri uri;
+        private final OcrTask task;
+        private volatile boolean done;
+
+        Item(int index, Uri uri, boolean preprocess) {
+            this.index = index;
+            this.uri = uri;
+            this.task = OcrTask.forUri(uri, preprocess, this);
+            // the job keeps every engine busy with its own image, tiling would only add contention
+            this.task.setTiled(false);
+        }
+
+        @Override
+        public void onRecognized(OcrTask task) {
+            done = true;
+            complete(this);
+        }
+
+        @Override
+        public void onDone(OcrTask task) {
+            Bitmap bitmap = task.getDisplayBitmap();
+            if (bitmap != null && done && !cancelled) {
+                listener.onItemImage(BatchJob.this, this, bitmap);
+            }
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        public Uri getUri() {
+            return uri;
+        }
+
+        public boolean isDone() {
+            return done;
+        }
+
+        @Nullable
+        public OcrResult getResult() {
+            return task.getResult();
+        }
+
+        @NonNull
+        public String getText() {
+            OcrResult result = task.getResult();
+            return result != null ? result.getText() : "";
+        }
+
+        public long getDecodeMs() {
+            return task.getDecodeMs();
+        }
+
+        public long getPreprocessMs() {
+            return task.getPreprocessMs();
+        }
+
+        public long getRecognizeMs() {
+            return task.getRecognizeMs();
+        }
+
+        /**
+         * @return time from the submission until the text was recognized, including the time
+         * spent waiting between stages
+         */
+        public long getTotalMs() {
+            return task.getTotalMs();
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package io.github.subhamtyagi.ocr.camera;
+
+import android.graphics.ImageFormat;
+import android.media.Image;
+import android.media.ImageReader;
+import android.os.CancellationSignal;
+import android.util.Log;
+
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.github.subhamtyagi.ocr.image.LuminanceImage;
+import io.github.subhamtyagi.ocr.ocr.ImageTextReader;
+import io.github.subhamtyagi.ocr.ocr.OcrResult;
+
+/**
+ * Recognizes the text of camera preview frames delivered by a YUV_420_888 {@link ImageReader}. Only
+ * the latest frame is recognized: frames arriving while the engine is busy are dropped right away.
+ * The luminance plane goes to the engine as 8 bit grayscale, rotated upright while it is copied.
+ */
+public class LiveFrameRecognizer implements ImageReader.OnImageAvailableListener {
+
+    public static final String TAG = "LiveFrameRecognizer";
+
+    public interface Listener {
+        /**
+         * called on the recognition thread
+         *
+         * @param width  width of the upright frame the boxes of the result refer to
+         * @param height height of the upright frame
+         */
+        void onFrameRecognized(OcrResult result, int width, int height);
+    }
+
+    private final ImageTextReader reader;
+    private final int rotation;
+    private final Listener listener;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final AtomicBoolean busy = new AtomicBoolean();
+    private final CancellationSignal signal = new CancellationSignal();
+    private volatile boolean closed;
+
+    /**
+     * only written while no recognition is running, so a single buffer is enough
+     */
+    private byte[] luminance;
+
+    private final AtomicLong frameCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicLong recognizedCount = new AtomicLong();
+    private volatile long lastLatencyMs;
+
+    /**
+     * @param rotation clockwise rotation in degree which makes the frames upright, a multiple of 90
+     */
+    public LiveFrameRecognizer(ImageTextReader reader, int rotation, Listener listener) {
+        this.reader = reader;
+        this.rotation = ((rotation % 360) + 360) % 360;
+        this.listener = listener;
+    }
+
+    @Override
+    public void onImageAvailable(ImageReader imageReader) {
+        Image image = imageReader.acquireLatestImage();
+        if (image == null) return;
+        int width;
+        int height;
+        try {
+            frameCount.incrementAndGet();
+            if (closed || image.getFormat() != ImageFormat.YUV_420_888 || !busy.compareAndSet(false, true)) {
+                droppedCount.incrementAndGet();
+                return;
+            }
+            LuminanceImage frame = LuminanceImage.fromYPlane(image);
+            luminance = frame.copyTo(luminance, rotation);
+            width = frame.getWidth(rotation);
+            height = frame.getHeight(rotation);
+        } finally {
+            // the camera can fill the image again while the copy is being recognized
+            image.close();
+        }
+        long start = System.currentTimeMillis();
+        try {
+            executor.execute(() -> {
+                try {
+                    OcrResult result = reader.getResultFromLuminance(luminance, width, height, width, signal);
+                    lastLatencyMs = System.currentTimeMillis() - start;
+                    recognizedCount.incrementAndGet();
+                    if (!closed) {
+                        listener.onFrameRecognized(result, width, height);
+                    }
+                } finally {
+                    busy.set(false);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            busy.set(false);
+        }
+    }
+
+    /**
+     * Stop the recognition in progress, frames delivered afterwards are dropped.
+     */
+    public void close() {
+        closed = true;
+        signal.cancel();
+        executor.shutdownNow();
+        Log.d(TAG, getStats());
+    }
+
+    public long getFrameCount() {
+        return frameCount.get();
+    }
+
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    public long getRecognizedCount() {
+        return recognizedCount.get();
+    }
+
+    /**
+     * @return time from the arrival of the last recognized frame to its result
+     */
+    public long getLastLatencyMs() {
+        return lastLatencyMs;
+    }
+
+    public String getStats() {
+        return String.format(Locale.US, "%d frames, %d dropped, %d recognized, last %d ms",
+                frameCount.get(), droppedCount.get(), recognizedCount.get(), lastLatencyMs);
+    }
+}
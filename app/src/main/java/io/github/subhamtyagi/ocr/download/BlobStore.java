@@ -0,0 +1,153 @@
+package io.github.subhamtyagi.ocr.download;
+
+import android.system.ErrnoException;
+import android.system.Os;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.util.Set;
+
+/**
+ * Content addressed storage of training data: every distinct file is kept once, named by its
+ * SHA-256, and shows up in the tessdata directory of each data type as a hard link to it. Where
+ * the file system has no hard links a symbolic link is used, where it has neither the file stays
+ * a plain copy.
+ * <p>
+ * Its own lock serializes the changes to the blobs, so files are adopted without holding the lock
+ * of the {@link TrainingDataStore}.
+ */
+class BlobStore {
+
+    public static final String TAG = "BlobStore";
+
+    static final String STORAGE_HARD_LINK = "hard";
+    static final String STORAGE_SYMBOLIC_LINK = "symbolic";
+    static final String STORAGE_COPY = "copy";
+
+    private static final String BLOB_SUFFIX = ".blob";
+    private static final String LINK_SUFFIX = ".link";
+
+    private final File dir;
+
+    BlobStore(File dir) {
+        this.dir = dir;
+        if (!dir.mkdirs() && !dir.isDirectory()) {
+            Log.e(TAG, "Could not create " + dir);
+        }
+    }
+
+    File getBlob(String sha256) {
+        return new File(dir, sha256 + BLOB_SUFFIX);
+    }
+
+    boolean contains(String sha256) {
+        return getBlob(sha256).isFile();
+    }
+
+    /**
+     * Move the file into the store, or drop it if the same content is stored already, and put a
+     * link to the blob in its place.
+     *
+     * @return how the file refers to the blob, one of the STORAGE constants
+     */
+    synchronized String adopt(File file, String sha256) {
+        File blob = getBlob(sha256);
+        if (blob.isFile()) {
+            String storage = link(blob, file);
+            return storage != null ? storage : STORAGE_COPY;
+        }
+        try {
+            // the file stays in place the whole time, an engine may be loading it
+            Os.link(file.getAbsolutePath(), blob.getAbsolutePath());
+            return STORAGE_HARD_LINK;
+        } catch (ErrnoException e) {
+            Log.w(TAG, "adopt: " + e.getLocalizedMessage());
+        }
+        if (!file.renameTo(blob)) {
+            return STORAGE_COPY;
+        }
+        String storage = link(blob, file);
+        if (storage == null) {
+            // no links on this file system, put the file back
+            blob.renameTo(file);
+            return STORAGE_COPY;
+        }
+        return storage;
+    }
+
+    /**
+     * Make the view refer to the stored blob, replacing whatever file is there.
+     *
+     * @return how the view refers to the blob, null if the blob is missing or links are not supported
+     */
+    @Nullable
+    synchronized String link(String sha256, File view) {
+        File blob = getBlob(sha256);
+        return blob.isFile() ? link(blob, view) : null;
+    }
+
+    /**
+     * Delete the blob, the links to it must be gone already
+     */
+    synchronized void delete(String sha256) {
+        getBlob(sha256).delete();
+    }
+
+    /**
+     * @return bytes freed by deleting the blobs none of the given hashes refer to
+     */
+    synchronized long deleteUnreferenced(Set<String> referenced) {
+        File[] blobs = dir.listFiles((d, name) -> name.endsWith(BLOB_SUFFIX));
+        if (blobs == null) return 0;
+        long freed = 0;
+        for (File blob : blobs) {
+            String sha256 = blob.getName().substring(0, blob.getName().length() - BLOB_SUFFIX.length());
+            if (referenced.contains(sha256)) continue;
+            long length = blob.length();
+            if (blob.delete()) freed += length;
+        }
+        return freed;
+    }
+
+    /**
+     * @return bytes taken by the stored blobs
+     */
+    long getSize() {
+        File[] blobs = dir.listFiles((d, name) -> name.endsWith(BLOB_SUFFIX));
+        if (blobs == null) return 0;
+        long size = 0;
+        for (File blob : blobs) {
+            size += blob.length();
+        }
+        return size;
+    }
+
+    /**
+     * link next to the view and rename over it, tesseract never sees a missing file
+     */
+    @Nullable
+    private static String link(File blob, File view) {
+        File temp = new File(view.getPath() + LINK_SUFFIX);
+        temp.delete();
+        String storage;
+        try {
+            Os.link(blob.getAbsolutePath(), temp.getAbsolutePath());
+            storage = STORAGE_HARD_LINK;
+        } catch (ErrnoException e) {
+            try {
+                Os.symlink(blob.getAbsolutePath(), temp.getAbsolutePath());
+                storage = STORAGE_SYMBOLIC_LINK;
+            } catch (ErrnoException e2) {
+                Log.w(TAG, "link: " + e.getLocalizedMessage() + ", " + e2.getLocalizedMessage());
+                return null;
+            }
+        }
+        if (!temp.renameTo(view)) {
+            temp.delete();
+            return null;
+        }
+        return storage;
+    }
+}
@@ -0,0 +1,441 @@
+package io.github.subhamtyagi.ocr.download;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.github.subhamtyagi.ocr.utils.Constants;
+
+/**
+ * Downloads the training data of several languages at the same time. Every file is written to a
+ * {@code .part} file next to its destination and renamed once complete, so a broken download never
+ * looks like training data. An interrupted download is resumed with an HTTP Range request, by the
+ * next attempt or the next download of the language. The request carries the ETag or Last-Modified
+ * of the part in If-Range, so if the file on the server changed it is sent whole instead of being
+ * appended to the old bytes.
+ */
+public class TrainingDataDownloader {
+
+    public static final String TAG = "TrainingDataDownloader";
+
+    public static final String PART_SUFFIX = ".part";
+
+    /**
+     * next to a part, holds the ETag or Last-Modified of the file it is the start of
+     */
+    public static final String VALIDATOR_SUFFIX = ".part.validator";
+
+    private static final int MAX_PARALLEL_DOWNLOADS = 3;
+    private static final int MAX_ATTEMPTS = 3;
+    private static final int MAX_REDIRECTS = 5;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int CONNECT_TIMEOUT_MS = 15_000;
+    private static final int READ_TIMEOUT_MS = 30_000;
+    private static final int HTTP_TEMPORARY_REDIRECT = 307;
+    private static final int HTTP_PERMANENT_REDIRECT = 308;
+    private static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
+
+    /**
+     * progress events are sent at most this often
+     */
+    public static final long PROGRESS_INTERVAL_MS = 250;
+
+    /**
+     * opens the connection of a url, replaced to download from a local stand-in server
+     */
+    public interface ConnectionFactory {
+        HttpURLConnection open(URL url) throws IOException;
+    }
+
+    /**
+     * maps training data type and language code to the url of its file
+     */
+    public interface UrlProvider {
+        @Nullable
+        String getUrl(String dataType, String language);
+    }
+
+    public interface Listener {
+        /**
+         * called on a download thread, at most every {@link #PROGRESS_INTERVAL_MS}
+         *
+         * @param total bytes of every file whose size is known so far
+         */
+        void onProgress(long downloaded, long total);
+
+        /**
+         * called on a download thread once every file is done, failed or the download was cancelled
+         *
+         * @param failed language codes which could not be downloaded
+         */
+        void onFinished(List<String> failed, boolean cancelled);
+    }
+
+    private final ConnectionFactory connectionFactory;
+    private final UrlProvider urlProvider;
+    private final int parallelDownloads;
+
+    public TrainingDataDownloader() {
+        this(url -> (HttpURLConnection) url.openConnection(), TrainingDataDownloader::getDownloadUrl, MAX_PARALLEL_DOWNLOADS);
+    }
+
+    public TrainingDataDownloader(ConnectionFactory connectionFactory, UrlProvider urlProvider, int parallelDownloads) {
+        this.connectionFactory = connectionFactory;
+        this.urlProvider = urlProvider;
+        this.parallelDownloads = Math.max(1, parallelDownloads);
+    }
+
+    /**
+     * @return the url of the training data on github
+     */
+    public static String getDownloadUrl(String dataType, String lang) {
+        switch (dataType) {
+            case "best":
+                return lang.equals("akk") ? Constants.TESSERACT_DATA_DOWNLOAD_URL_AKK_BEST : lang.equals("eqo") ? Constants.TESSERACT_DATA_DOWNLOAD_URL_EQU : String.format(Constants.TESSERACT_DATA_DOWNLOAD_URL_BEST, lang);
+            case "standard":
+                return lang.equals("akk") ? Constants.TESSERACT_DATA_DOWNLOAD_URL_AKK_STANDARD : lang.equals("eqo") ? Constants.TESSERACT_DATA_DOWNLOAD_URL_EQU : String.format(Constants.TESSERACT_DATA_DOWNLOAD_URL_STANDARD, lang);
+            default: // Assuming "fast" is the default
+                return lang.equals("akk") ? Constants.TESSERACT_DATA_DOWNLOAD_URL_AKK_FAST : lang.equals("eqo") ? Constants.TESSERACT_DATA_DOWNLOAD_URL_EQU : String.format(Constants.TESSERACT_DATA_DOWNLOAD_URL_FAST, lang);
+        }
+    }
+
+    /**
+     * @return the file the training data of the language is stored in
+     */
+    public static File getTrainingDataFile(File tessDataDir, String language) {
+        return new File(tessDataDir, String.format(Constants.LANGUAGE_CODE, language));
+    }
+
+    /**
+     * Ask the server for the sizes of the files without downloading them. Blocks on the network.
+     *
+     * @return total bytes of the files, -1 if the size of one of them is unknown
+     */
+    public long fetchSize(String dataType, Collection<String> languages) {
+        long total = 0;
+        for (String language : languages) {
+            String url = urlProvider.getUrl(dataType, language);
+            if (url == null) return -1;
+            try {
+                HttpURLConnection conn = connect(url, "HEAD", 0, null);
+                try {
+                    long size = conn.getResponseCode() == HttpURLConnection.HTTP_OK ? getContentLength(conn) : -1;
+                    if (size < 0) return -1;
+                    total += size;
+                } finally {
+                    conn.disconnect();
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "fetchSize: " + e.getLocalizedMessage());
+                return -1;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Start downloading the languages into the tessdata directory.
+     *
+     * @return handle to cancel the download, the files downloaded so far are kept for resuming
+     */
+    public Download download(String dataType, Collection<String> languages, File tessDataDir, Listener listener) {
+        Download download = new Download(dataType, new ArrayList<>(languages), tessDataDir, listener);
+        download.start();
+        return download;
+    }
+
+    public class Download {
+        private final String dataType;
+        private final List<String> languages;
+        private final File tessDataDir;
+        private final Listener listener;
+
+        private final ExecutorService executor;
+        private final List<String> failed = Collections.synchronizedList(new ArrayList<>());
+        private final AtomicInteger remaining;
+        private final AtomicBoolean cancelled = new AtomicBoolean();
+
+        private final Map<String, Long> sizes = new ConcurrentHashMap<>();
+        private final AtomicLong downloaded = new AtomicLong();
+        private final AtomicLong lastProgressTime = new AtomicLong();
+
+        Download(String dataType, List<String> languages, File tessDataDir, Listener listener) {
+            this.dataType = dataType;
+            this.languages = languages;
+            this.tessDataDir = tessDataDir;
+            this.listener = listener;
+            this.remaining = new AtomicInteger(languages.size());
+            this.executor = Executors.newFixedThreadPool(Math.min(parallelDownloads, Math.max(1, languages.size())));
+        }
+
+        private void start() {
+            if (languages.isEmpty()) {
+                executor.shutdown();
+                listener.onFinished(Collections.emptyList(), false);
+                return;
+            }
+            for (String language : languages) {
+                executor.execute(new LanguageTask(language));
+            }
+            executor.shutdown();
+        }
+
+        /**
+         * Stop every transfer, {@link Listener#onFinished} is still called once they stopped.
+         */
+        public void cancel() {
+            if (!cancelled.compareAndSet(false, true)) return;
+            // interrupts the transfers running, the languages still queued never run so they finish here
+            for (Runnable queued : executor.shutdownNow()) {
+                finish(((LanguageTask) queued).language, false);
+            }
+        }
+
+        public boolean isCancelled() {
+            return cancelled.get();
+        }
+
+        private void run(String language) {
+            boolean success = false;
+            try {
+                success = !cancelled.get() && downloadLanguage(language);
+            } finally {
+                finish(language, success);
+            }
+        }
+
+        private void finish(String language, boolean success) {
+            if (!success) failed.add(language);
+            if (remaining.decrementAndGet() == 0) {
+                publishProgress(true);
+                listener.onFinished(new ArrayList<>(failed), cancelled.get());
+            }
+        }
+
+        private boolean downloadLanguage(String language) {
+            String url = urlProvider.getUrl(dataType, language);
+            if (url == null) return false;
+            File destination = getTrainingDataFile(tessDataDir, language);
+            File part = new File(tessDataDir, destination.getName() + PART_SUFFIX);
+            File validator = new File(tessDataDir, destination.getName() + VALIDATOR_SUFFIX);
+            for (int attempt = 1; attempt <= MAX_ATTEMPTS && !isStopped(); attempt++) {
+                try {
+                    transfer(language, url, part, validator);
+                    if (isStopped()) return false;
+                    if (!part.renameTo(destination)) {
+                        throw new IOException("Could not rename " + part + " to " + destination);
+                    }
+                    validator.delete();
+                    Log.d(TAG, String.format(Locale.US, "%s: %d bytes in attempt %d", language, destination.length(), attempt));
+                    return true;
+                } catch (IOException e) {
+                    Log.e(TAG, language + ": attempt " + attempt + " failed: " + e.getLocalizedMessage());
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Download the file into part, resuming from the bytes already in it if the file on the
+         * server still matches the validator stored with them.
+         */
+        private void transfer(String language, String url, File part, File validator) throws IOException {
+            String ifRange = readValidator(validator);
+            long offset = ifRange != null ? part.length() : 0;
+            HttpURLConnection conn = connect(url, "GET", offset, ifRange);
+            try {
+                int responseCode = conn.getResponseCode();
+                if (responseCode == HTTP_RANGE_NOT_SATISFIABLE) {
+                    // the part is stale or bigger than the file, start over
+                    part.delete();
+                    validator.delete();
+                    throw new IOException("Range " + offset + "- not satisfiable");
+                }
+                boolean append = offset > 0 && responseCode == HttpURLConnection.HTTP_PARTIAL;
+                if (!append && responseCode != HttpURLConnection.HTTP_OK) {
+                    throw new IOException("HTTP " + responseCode);
+                }
+                if (!append) {
+                    // the whole file is sent, the bytes of the part are dropped
+                    offset = 0;
+                    writeValidator(validator, conn);
+                }
+                long contentLength = getContentLength(conn);
+                long size = contentLength >= 0 ? offset + contentLength : -1;
+                if (size >= 0) {
+                    sizes.put(language, size);
+                    if (part.getParentFile() != null && part.getParentFile().getUsableSpace() < size - offset) {
+                        throw new IOException("Not enough space for " + (size - offset) + " bytes");
+                    }
+                }
+                downloaded.addAndGet(offset);
+
+                long written = offset;
+                try (InputStream input = conn.getInputStream();
+                     FileOutputStream output = new FileOutputStream(part, append)) {
+                    byte[] buffer = new byte[BUFFER_SIZE];
+                    int count;
+                    while ((count = input.read(buffer)) != -1) {
+                        if (isStopped()) return;
+                        output.write(buffer, 0, count);
+                        written += count;
+                        downloaded.addAndGet(count);
+                        publishProgress(false);
+                    }
+                    output.getFD().sync();
+                } catch (IOException e) {
+                    // the bytes written are kept for the next attempt, which counts them again
+                    downloaded.addAndGet(-written);
+                    throw e;
+                }
+                if (size >= 0 && written != size) {
+                    downloaded.addAndGet(-written);
+                    throw new IOException("Incomplete download: " + written + " of " + size + " bytes");
+                }
+            } finally {
+                conn.disconnect();
+            }
+        }
+
+        private boolean isStopped() {
+            return cancelled.get() || Thread.currentThread().isInterrupted();
+        }
+
+        private void publishProgress(boolean force) {
+            long now = System.currentTimeMillis();
+            long last = lastProgressTime.get();
+            if (!force && (now - last < PROGRESS_INTERVAL_MS || !lastProgressTime.compareAndSet(last, now))) {
+                return;
+            }
+            long total = 0;
+            for (long size : sizes.values()) {
+                total += size;
+            }
+            listener.onProgress(downloaded.get(), total);
+        }
+
+        private final class LanguageTask implements Runnable {
+            final String language;
+
+            LanguageTask(String language) {
+                this.language = language;
+            }
+
+            @Override
+            public void run() {
+                Download.this.run(language);
+            }
+        }
+    }
+
+    /**
+     * open the url following redirects across hosts, which HttpURLConnection does not
+     */
+    private HttpURLConnection connect(String url, String method, long offset, @Nullable String ifRange) throws IOException {
+        for (int redirects = 0; redirects <= MAX_REDIRECTS; redirects++) {
+            HttpURLConnection conn = connectionFactory.open(new URL(url));
+            conn.setRequestMethod(method);
+            conn.setInstanceFollowRedirects(false);
+            conn.setConnectTimeout(CONNECT_TIMEOUT_MS);
+            conn.setReadTimeout(READ_TIMEOUT_MS);
+            if (offset > 0) {
+                conn.setRequestProperty("Range", "bytes=" + offset + "-");
+                if (ifRange != null) {
+                    conn.setRequestProperty("If-Range", ifRange);
+                }
+            }
+            int responseCode = conn.getResponseCode();
+            if (!isRedirect(responseCode)) {
+                return conn;
+            }
+            String location = conn.getHeaderField("Location");
+            conn.disconnect();
+            if (location == null) {
+                throw new IOException("Redirect without location from " + url);
+            }
+            // Handle relative URLs
+            url = new URL(new URL(url), location).toExternalForm();
+        }
+        throw new IOException("Too many redirects");
+    }
+
+    /**
+     * @return the ETag or Last-Modified the part was downloaded with, null if the part can't be resumed
+     */
+    @Nullable
+    private static String readValidator(File validator) {
+        if (!validator.isFile()) return null;
+        try (FileInputStream input = new FileInputStream(validator)) {
+            byte[] bytes = new byte[(int) Math.min(validator.length(), 1024)];
+            int read = 0;
+            while (read < bytes.length) {
+                int count = input.read(bytes, read, bytes.length - read);
+                if (count < 0) break;
+                read += count;
+            }
+            String value = new String(bytes, 0, read, StandardCharsets.UTF_8).trim();
+            return value.isEmpty() ? null : value;
+        } catch (IOException e) {
+            Log.e(TAG, "readValidator: " + e.getLocalizedMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Store what identifies the version of the file being downloaded. If-Range only takes a strong
+     * ETag, without one the Last-Modified date is used and without both the part is not resumed.
+     */
+    private static void writeValidator(File validator, HttpURLConnection conn) throws IOException {
+        String value = conn.getHeaderField("ETag");
+        if (value == null || value.startsWith("W/")) {
+            value = conn.getHeaderField("Last-Modified");
+        }
+        if (value == null) {
+            validator.delete();
+            return;
+        }
+        try (FileOutputStream output = new FileOutputStream(validator)) {
+            output.write(value.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static boolean isRedirect(int responseCode) {
+        return responseCode == HttpURLConnection.HTTP_MOVED_PERM
+                || responseCode == HttpURLConnection.HTTP_MOVED_TEMP
+                || responseCode == HttpURLConnection.HTTP_SEE_OTHER
+                || responseCode == HTTP_TEMPORARY_REDIRECT
+                || responseCode == HTTP_PERMANENT_REDIRECT;
+    }
+
+    private static long getContentLength(@NonNull HttpURLConnection conn) {
+        String value = conn.getHeaderField("Content-Length");
+        if (value == null) return -1;
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
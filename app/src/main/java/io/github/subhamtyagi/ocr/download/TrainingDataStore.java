@@ -0,0 +1,777 @@
+package io.github.subhamtyagi.ocr.download;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps a manifest of the installed training data: size and SHA-256 of every language and data
+ * type. A file is hashed once right after its download, afterwards asking whether a language is
+ * installed only reads the manifest instead of touching the file system.
+ * <p>
+ * The files themselves live once per distinct content in a {@link BlobStore}, the tessdata
+ * directories of the data types only hold links to them. Both are in internal storage, the
+ * emulated external storage supports neither hard nor symbolic links. Training data left in the
+ * external files directory by older versions is copied over in the background, but used from
+ * there until the next start: an engine may be loading the old files while they are copied.
+ */
+public class TrainingDataStore {
+
+    public static final String TAG = "TrainingDataStore";
+
+    public static final String[] DATA_TYPES = {"best", "fast", "standard"};
+
+    private static final String MANIFEST_NAME = "training_data_manifest.json";
+    private static final String TESSDATA = "tessdata";
+    private static final String BLOB_DIR = "tessdata_blobs";
+    private static final String MIGRATE_SUFFIX = ".migrate";
+
+    /**
+     * downloads left unfinished this long are not worth resuming
+     */
+    private static final long STALE_PART_AGE_MS = TimeUnit.DAYS.toMillis(7);
+    /**
+     * data of another type than the selected one is deleted once unused this long
+     */
+    private static final long STALE_VARIANT_AGE_MS = TimeUnit.DAYS.toMillis(30);
+    /**
+     * kept free on the storage besides the downloaded files
+     */
+    private static final long FREE_SPACE_MARGIN = 20L * 1024 * 1024;
+    /**
+     * files are hashed in mapped windows of this size
+     */
+    private static final long HASH_WINDOW_SIZE = 8L * 1024 * 1024;
+
+    private volatile static TrainingDataStore mInstance;
+
+    private final Map<String, Entry> entries = new HashMap<>();
+    private final Map<String, File> dataDirs = new HashMap<>();
+    /**
+     * the internal data directories of the data types still used from external storage
+     */
+    private final Map<String, File> pendingMigrations = new HashMap<>();
+    /**
+     * the external data directories of the data types moved to internal storage this start, their
+     * files are deleted by cleanUp
+     */
+    private final Map<String, File> legacyLeftovers = new HashMap<>();
+    private File manifestFile;
+    @Nullable
+    private File legacyBlobDir;
+    private BlobStore blobStore;
+
+    private TrainingDataStore() {
+    }
+
+    public static TrainingDataStore getInstance() {
+        if (null == mInstance) {
+            synchronized (TrainingDataStore.class) {
+                if (null == mInstance) {
+                    mInstance = new TrainingDataStore();
+                }
+            }
+        }
+        return mInstance;
+    }
+
+    /**
+     * Load the manifest, use only first time. Without a manifest the training data files already
+     * present are adopted as they are, until {@link #confirmAdopted} checks them with the server.
+     *
+     * @param context any context
+     */
+    public synchronized void init(Context context) {
+        if (manifestFile != null) return;
+        File baseDir = context.getNoBackupFilesDir();
+        for (String dataType : DATA_TYPES) {
+            File dataDir = new File(baseDir, dataType);
+            File tessDataDir = new File(dataDir, TESSDATA);
+            if (!tessDataDir.mkdirs() && !tessDataDir.isDirectory()) continue;
+            File legacyDir = context.getExternalFilesDir(dataType);
+            File[] legacyFiles = legacyDir != null ? listTrainingData(new File(legacyDir, TESSDATA)) : new File[0];
+            if (legacyFiles.length == 0) {
+                dataDirs.put(dataType, dataDir);
+            } else if (isCopied(legacyFiles, tessDataDir)) {
+                // copied by the last run, no engine was initialized yet so the old files are unused
+                dataDirs.put(dataType, dataDir);
+                legacyLeftovers.put(dataType, legacyDir);
+            } else {
+                // still in use from there, copied by cleanUp
+                dataDirs.put(dataType, legacyDir);
+                pendingMigrations.put(dataType, dataDir);
+            }
+        }
+        // next to the tessdata directories, hard links do not cross file systems
+        blobStore = new BlobStore(new File(baseDir, BLOB_DIR));
+        File externalDir = context.getExternalFilesDir(null);
+        if (externalDir != null) legacyBlobDir = new File(externalDir, BLOB_DIR);
+        manifestFile = new File(context.getFilesDir(), MANIFEST_NAME);
+        if (manifestFile.exists()) {
+            load();
+            if (!legacyLeftovers.isEmpty()) {
+                for (Entry entry : entries.values()) {
+                    // plain files again, deduplicate links them to the blob store
+                    if (legacyLeftovers.containsKey(entry.dataType)) entry.storage = null;
+                }
+                save();
+            }
+        } else {
+            adoptExistingFiles();
+            save();
+        }
+    }
+
+    /**
+     * @return whether every file is in the directory with the same size, a copy is renamed to its
+     * name only once complete
+     */
+    private static boolean isCopied(File[] files, File dir) {
+        for (File file : files) {
+            File copy = new File(dir, file.getName());
+            if (!copy.isFile() || copy.length() != file.length()) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the directory tesseract is initialized with, the parent of its tessdata directory
+     */
+    @Nullable
+    public synchronized File getDataDir(String dataType) {
+        return dataDirs.get(dataType);
+    }
+
+    @Nullable
+    public synchronized File getTessDataDir(String dataType) {
+        File dataDir = dataDirs.get(dataType);
+        return dataDir != null ? new File(dataDir, TESSDATA) : null;
+    }
+
+    /**
+     * @return whether the manifest lists the training data, a manifest read only
+     */
+    public synchronized boolean isInstalled(String dataType, String language) {
+        return entries.containsKey(key(dataType, language));
+    }
+
+    /**
+     * @return the languages not installed for the data type
+     */
+    public synchronized List<String> getMissing(String dataType, Collection<String> languages) {
+        List<String> missing = new ArrayList<>();
+        for (String language : languages) {
+            if (!isInstalled(dataType, language)) missing.add(language);
+        }
+        return missing;
+    }
+
+    /**
+     * @return size of the installed training data, 0 if it is not installed
+     */
+    public synchronized long getInstalledBytes(String dataType, Collection<String> languages) {
+        long bytes = 0;
+        for (String language : languages) {
+            Entry entry = entries.get(key(dataType, language));
+            if (entry != null) bytes += entry.size;
+        }
+        return bytes;
+    }
+
+    /**
+     * @return bytes which can be written to the storage of the data type
+     */
+    public synchronized long getUsableSpace(String dataType) {
+        File tessDataDir = getTessDataDir(dataType);
+        return tessDataDir != null ? tessDataDir.getUsableSpace() : 0;
+    }
+
+    /**
+     * @param downloadBytes size of the files to download
+     * @return free space still needed for the download, 0 if it fits
+     */
+    public long getMissingSpace(String dataType, long downloadBytes) {
+        return Math.max(0, downloadBytes + FREE_SPACE_MARGIN - getUsableSpace(dataType));
+    }
+
+    /**
+     * Hash a freshly downloaded file, move it to the blob store and add it to the manifest. Call on
+     * a worker thread.
+     *
+     * @param url where the file was downloaded from, to find it again for the other data types
+     * @return false if the file is missing or could not be read
+     */
+    public boolean add(String dataType, String language, @Nullable String url) {
+        File file = getFile(dataType, language);
+        if (file == null || !file.isFile()) return false;
+        String sha256;
+        try {
+            sha256 = sha256(file);
+        } catch (IOException e) {
+            Log.e(TAG, "add: " + e.getLocalizedMessage());
+            return false;
+        }
+        long size = file.length();
+        String storage = blobStore != null ? blobStore.adopt(file, sha256) : null;
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            storage = checkStorage(storage, sha256);
+            Entry previous = entries.get(key(dataType, language));
+            entries.put(key(dataType, language), new Entry(dataType, language, size, sha256, url, storage, now));
+            if (previous != null) releaseBlob(previous);
+            save();
+        }
+        return true;
+    }
+
+    /**
+     * Install the training data without downloading it if the same file was downloaded for
+     * another data type already, i.e. the equation data is the same for every type.
+     *
+     * @return true if the language is installed now
+     */
+    public synchronized boolean linkSameSource(String dataType, String language, String url) {
+        File view = getFile(dataType, language);
+        if (blobStore == null || view == null) return false;
+        for (Entry entry : entries.values()) {
+            if (!url.equals(entry.url) || entry.sha256 == null) continue;
+            String storage = blobStore.link(entry.sha256, view);
+            if (storage == null) return false;
+            entries.put(key(dataType, language), new Entry(dataType, language, entry.size, entry.sha256, url, storage, System.currentTimeMillis()));
+            save();
+            Log.d(TAG, "linkSameSource: " + key(dataType, language) + " -> " + key(entry.dataType, entry.language));
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Check size and checksum of installed training data. Broken files are deleted and dropped from
+     * the manifest, with every other data type linked to the same content. A file adopted without
+     * a checksum can't be checked, it is left to {@link #confirmAdopted}. Call on a worker thread.
+     *
+     * @return true if the file is intact or can't be checked
+     */
+    public boolean verify(String dataType, String language) {
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(key(dataType, language));
+        }
+        File file = getFile(dataType, language);
+        if (entry == null || file == null) return false;
+        if (entry.sha256 == null) {
+            Log.w(TAG, "verify: " + key(dataType, language) + " has no checksum");
+            return true;
+        }
+        boolean intact = false;
+        if (file.length() == entry.size) {
+            try {
+                intact = entry.sha256.equals(sha256(file));
+            } catch (IOException e) {
+                Log.e(TAG, "verify: " + e.getLocalizedMessage());
+            }
+        }
+        if (!intact) {
+            Log.w(TAG, "verify: " + key(dataType, language) + " is broken");
+            removeSharing(entry);
+        }
+        return intact;
+    }
+
+    /**
+     * The engine could not load the training data: drop it whatever the manifest says, so it is
+     * downloaded again. If its checksum is broken too, the other data types linked to the same
+     * content are dropped as well. Call on a worker thread.
+     */
+    public void discard(String dataType, String language) {
+        verify(dataType, language);
+        remove(dataType, language);
+    }
+
+    /**
+     * Check the files adopted from before the manifest with the size the server reports, the old
+     * downloader could leave a truncated file behind. A file of the right size is hashed and trusted
+     * from then on, one of the wrong size is deleted. Call on a worker thread, blocks on the network.
+     *
+     * @return the number of files deleted
+     */
+    public int confirmAdopted(TrainingDataDownloader downloader) {
+        List<Entry> adopted = new ArrayList<>();
+        synchronized (this) {
+            for (Entry entry : entries.values()) {
+                if (entry.url == null) adopted.add(entry);
+            }
+        }
+        int deleted = 0;
+        for (Entry entry : adopted) {
+            File file = getFile(entry.dataType, entry.language);
+            if (file == null || !file.isFile()) continue;
+            long size = downloader.fetchSize(entry.dataType, Collections.singletonList(entry.language));
+            // offline or the server did not tell, asked again on the next start
+            if (size < 0) continue;
+            String sha256 = null;
+            if (file.length() == size) {
+                try {
+                    sha256 = entry.sha256 != null ? entry.sha256 : sha256(file);
+                } catch (IOException e) {
+                    Log.e(TAG, "confirmAdopted: " + e.getLocalizedMessage());
+                    continue;
+                }
+            }
+            synchronized (this) {
+                if (entries.get(key(entry.dataType, entry.language)) != entry) continue;
+                if (sha256 != null) {
+                    entry.sha256 = sha256;
+                    entry.url = TrainingDataDownloader.getDownloadUrl(entry.dataType, entry.language);
+                    save();
+                } else {
+                    Log.w(TAG, "confirmAdopted: " + key(entry.dataType, entry.language) + " has " + file.length() + " of " + size + " bytes");
+                    remove(entry.dataType, entry.language);
+                    deleted++;
+                }
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * Delete the training data and drop it from the manifest
+     */
+    public synchronized void remove(String dataType, String language) {
+        File file = getFile(dataType, language);
+        if (file != null) file.delete();
+        Entry entry = entries.remove(key(dataType, language));
+        if (entry != null) {
+            releaseBlob(entry);
+            save();
+        }
+    }
+
+    /**
+     * remove the entry and every other one linked to the same blob, the blob itself is broken
+     */
+    private synchronized void removeSharing(Entry broken) {
+        if (broken.sha256 == null || broken.isCopy()) {
+            remove(broken.dataType, broken.language);
+            return;
+        }
+        List<Entry> sharing = new ArrayList<>();
+        for (Entry entry : entries.values()) {
+            if (broken.sha256.equals(entry.sha256) && !entry.isCopy()) sharing.add(entry);
+        }
+        for (Entry entry : sharing) {
+            remove(entry.dataType, entry.language);
+        }
+    }
+
+    /**
+     * delete the blob of the entry if no other entry links to it
+     */
+    private void releaseBlob(Entry released) {
+        if (blobStore == null || released.sha256 == null || released.isCopy()) return;
+        for (Entry entry : entries.values()) {
+            if (released.sha256.equals(entry.sha256) && !entry.isCopy()) return;
+        }
+        blobStore.delete(released.sha256);
+    }
+
+    /**
+     * Record that the engine was initialized with the training data, it is not stale then
+     */
+    public synchronized void markUsed(String dataType, Collection<String> languages) {
+        long now = System.currentTimeMillis();
+        for (String language : languages) {
+            Entry entry = entries.get(key(dataType, language));
+            if (entry != null) entry.lastUsed = now;
+        }
+        save();
+    }
+
+    /**
+     * Move the files installed before the blob store existed into it, so that identical files of
+     * different data types are stored once. Call on a worker thread, files are hashed unlocked.
+     *
+     * @return bytes freed
+     */
+    public long deduplicate() {
+        if (blobStore == null) return 0;
+        List<Entry> pending = new ArrayList<>();
+        synchronized (this) {
+            for (Entry entry : entries.values()) {
+                if (entry.storage == null) pending.add(entry);
+            }
+        }
+        long before = blobStore.getSize() + getPlainBytes();
+        for (Entry entry : pending) {
+            File file = getFile(entry.dataType, entry.language);
+            if (file == null || !file.isFile()) continue;
+            try {
+                String sha256 = entry.sha256 != null ? entry.sha256 : sha256(file);
+                // unlocked, isInstalled on the main thread doesn't wait for the file system
+                String storage = blobStore.adopt(file, sha256);
+                synchronized (this) {
+                    if (entries.get(key(entry.dataType, entry.language)) != entry) continue;
+                    entry.sha256 = sha256;
+                    entry.storage = checkStorage(storage, sha256);
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "deduplicate: " + e.getLocalizedMessage());
+            }
+        }
+        synchronized (this) {
+            if (!pending.isEmpty()) save();
+        }
+        long freed = Math.max(0, before - blobStore.getSize() - getPlainBytes());
+        if (!pending.isEmpty()) Log.d(TAG, "deduplicate: " + pending.size() + " files, freed " + freed + " bytes");
+        return freed;
+    }
+
+    /**
+     * @return the storage of a file adopted unlocked, null to adopt it again if its blob was
+     * released meanwhile
+     */
+    @Nullable
+    private String checkStorage(@Nullable String storage, String sha256) {
+        if (storage == null || BlobStore.STORAGE_COPY.equals(storage) || blobStore.contains(sha256)) {
+            return storage;
+        }
+        return null;
+    }
+
+    /**
+     * Copy the training data left in the external files directory by older versions to internal
+     * storage, where it can be linked to the blob store. The data type keeps using the old files
+     * until the next start, {@link #init} switches over if the copies are complete then. The copies
+     * are hashed, so that {@link #verify} can check the adopted files from then on. The old files of
+     * the data types switched over this start are deleted. Call on a worker thread.
+     */
+    private void migrate() {
+        Map<String, File> pending;
+        Map<String, File> legacyDirs = new HashMap<>();
+        Map<String, File> leftovers;
+        synchronized (this) {
+            pending = new HashMap<>(pendingMigrations);
+            for (String dataType : pending.keySet()) {
+                legacyDirs.put(dataType, dataDirs.get(dataType));
+            }
+            leftovers = new HashMap<>(legacyLeftovers);
+            legacyLeftovers.clear();
+        }
+        for (Map.Entry<String, File> leftover : leftovers.entrySet()) {
+            File tessDataDir = new File(leftover.getValue(), TESSDATA);
+            File[] files = tessDataDir.listFiles();
+            if (files == null) continue;
+            for (File file : files) {
+                file.delete();
+            }
+            tessDataDir.delete();
+            Log.d(TAG, "migrate: deleted " + files.length + " " + leftover.getKey() + " files from external storage");
+        }
+        for (Map.Entry<String, File> migration : pending.entrySet()) {
+            String dataType = migration.getKey();
+            File from = new File(legacyDirs.get(dataType), TESSDATA);
+            File to = new File(migration.getValue(), TESSDATA);
+            File[] files = listTrainingData(from);
+            try {
+                for (File file : files) {
+                    File temp = new File(to, file.getName() + MIGRATE_SUFFIX);
+                    File target = new File(to, file.getName());
+                    copy(file, temp);
+                    if (!temp.renameTo(target)) {
+                        temp.delete();
+                        throw new IOException("Could not rename " + temp);
+                    }
+                    String sha256 = sha256(target);
+                    String language = file.getName().substring(0, file.getName().length() - ".traineddata".length());
+                    synchronized (this) {
+                        Entry entry = entries.get(key(dataType, language));
+                        if (entry != null && entry.sha256 == null && entry.size == target.length()) {
+                            entry.sha256 = sha256;
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "migrate: " + dataType + ": " + e.getLocalizedMessage());
+                continue;
+            }
+            synchronized (this) {
+                save();
+            }
+            Log.d(TAG, "migrate: copied " + files.length + " " + dataType + " files, used from internal storage on the next start");
+        }
+        File[] legacyBlobs;
+        synchronized (this) {
+            legacyBlobs = pendingMigrations.isEmpty() && legacyBlobDir != null ? legacyBlobDir.listFiles() : null;
+        }
+        if (legacyBlobs != null) {
+            // the blobs the old links in external storage referred to
+            for (File blob : legacyBlobs) {
+                blob.delete();
+            }
+            legacyBlobDir.delete();
+        }
+    }
+
+    private static void copy(File from, File to) throws IOException {
+        try (FileInputStream input = new FileInputStream(from);
+             FileOutputStream output = new FileOutputStream(to)) {
+            FileChannel source = input.getChannel();
+            long size = source.size();
+            for (long position = 0; position < size; ) {
+                position += source.transferTo(position, size - position, output.getChannel());
+            }
+            output.getFD().sync();
+        }
+    }
+
+    @NonNull
+    private static File[] listTrainingData(File tessDataDir) {
+        File[] files = tessDataDir.listFiles((dir, name) -> name.endsWith(".traineddata"));
+        return files != null ? files : new File[0];
+    }
+
+    /**
+     * @return bytes of the files not in the blob store
+     */
+    private synchronized long getPlainBytes() {
+        long bytes = 0;
+        for (Entry entry : entries.values()) {
+            if (entry.storage == null || entry.isCopy()) bytes += entry.size;
+        }
+        return bytes;
+    }
+
+    /**
+     * Move the training data left in external storage by older versions to internal storage, then
+     * delete abandoned partial downloads, manifest entries whose file is gone, training data of
+     * other types than the selected one which was not used for a month and the blobs no longer
+     * linked. Call on a worker thread.
+     *
+     * @return bytes freed
+     */
+    public long cleanUp(String selectedDataType) {
+        migrate();
+        long freed = deduplicate();
+        synchronized (this) {
+            return freed + cleanUpLocked(selectedDataType);
+        }
+    }
+
+    private long cleanUpLocked(String selectedDataType) {
+        long now = System.currentTimeMillis();
+        long freed = 0;
+        for (File dataDir : dataDirs.values()) {
+            File[] parts = new File(dataDir, TESSDATA).listFiles((dir, name) -> name.endsWith(TrainingDataDownloader.PART_SUFFIX)
+                    || name.endsWith(TrainingDataDownloader.VALIDATOR_SUFFIX));
+            if (parts == null) continue;
+            for (File part : parts) {
+                long length = part.length();
+                if (now - part.lastModified() > STALE_PART_AGE_MS && part.delete()) {
+                    freed += length;
+                }
+            }
+        }
+        boolean changed = false;
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            File file = getFile(entry.dataType, entry.language);
+            if (file == null || !file.isFile()) {
+                iterator.remove();
+                changed = true;
+            } else if (!entry.dataType.equals(selectedDataType) && now - entry.lastUsed > STALE_VARIANT_AGE_MS) {
+                long length = file.length();
+                if (file.delete()) {
+                    // a link only frees space with the last link, counted when the blob goes
+                    if (entry.storage == null || entry.isCopy()) freed += length;
+                    iterator.remove();
+                    changed = true;
+                }
+            }
+        }
+        if (blobStore != null) {
+            Set<String> referenced = new HashSet<>();
+            for (Entry entry : entries.values()) {
+                if (entry.sha256 != null && !entry.isCopy()) referenced.add(entry.sha256);
+            }
+            freed += blobStore.deleteUnreferenced(referenced);
+        }
+        if (changed) save();
+        if (freed > 0) Log.d(TAG, "cleanUp: freed " + freed + " bytes");
+        return freed;
+    }
+
+    @Nullable
+    private File getFile(String dataType, String language) {
+        File tessDataDir = getTessDataDir(dataType);
+        return tessDataDir != null ? TrainingDataDownloader.getTrainingDataFile(tessDataDir, language) : null;
+    }
+
+    private void adoptExistingFiles() {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, File> dataDir : dataDirs.entrySet()) {
+            for (File file : listTrainingData(new File(dataDir.getValue(), TESSDATA))) {
+                String language = file.getName().substring(0, file.getName().length() - ".traineddata".length());
+                entries.put(key(dataDir.getKey(), language), new Entry(dataDir.getKey(), language, file.length(), null, null, null, now));
+            }
+        }
+        Log.d(TAG, "adopted " + entries.size() + " training data files");
+    }
+
+    private void load() {
+        try (FileInputStream input = new FileInputStream(manifestFile)) {
+            byte[] bytes = new byte[(int) manifestFile.length()];
+            int read = 0;
+            while (read < bytes.length) {
+                int count = input.read(bytes, read, bytes.length - read);
+                if (count < 0) break;
+                read += count;
+            }
+            JSONArray array = new JSONArray(new String(bytes, 0, read, StandardCharsets.UTF_8));
+            for (int i = 0; i < array.length(); i++) {
+                Entry entry = Entry.fromJson(array.getJSONObject(i));
+                entries.put(key(entry.dataType, entry.language), entry);
+            }
+        } catch (IOException | JSONException e) {
+            Log.e(TAG, "load: " + e.getLocalizedMessage());
+            entries.clear();
+            adoptExistingFiles();
+        }
+    }
+
+    /**
+     * write the manifest to a temporary file and rename it, a crash never leaves half a manifest
+     */
+    private void save() {
+        if (manifestFile == null) return;
+        JSONArray array = new JSONArray();
+        try {
+            for (Entry entry : entries.values()) {
+                array.put(entry.toJson());
+            }
+        } catch (JSONException e) {
+            Log.e(TAG, "save: " + e.getLocalizedMessage());
+            return;
+        }
+        File temp = new File(manifestFile.getPath() + ".tmp");
+        try (FileOutputStream output = new FileOutputStream(temp)) {
+            output.write(array.toString().getBytes(StandardCharsets.UTF_8));
+            output.getFD().sync();
+        } catch (IOException e) {
+            Log.e(TAG, "save: " + e.getLocalizedMessage());
+            return;
+        }
+        if (!temp.renameTo(manifestFile)) {
+            Log.e(TAG, "save: could not rename " + temp);
+        }
+    }
+
+    /**
+     * hash the file through memory mapped windows, no copy of it goes through the java heap
+     */
+    @NonNull
+    static String sha256(File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        try (FileInputStream input = new FileInputStream(file); FileChannel channel = input.getChannel()) {
+            long size = channel.size();
+            for (long position = 0; position < size; position += HASH_WINDOW_SIZE) {
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(HASH_WINDOW_SIZE, size - position));
+                digest.update(window);
+            }
+        }
+        StringBuilder builder = new StringBuilder();
+        for (byte b : digest.digest()) {
+            builder.append(String.format(Locale.US, "%02x", b));
+        }
+        return builder.toString();
+    }
+
+    private static String key(String dataType, String language) {
+        return dataType + "/" + language;
+    }
+
+    private static class Entry {
+        final String dataType;
+        final String language;
+        final long size;
+        @Nullable
+        String sha256;
+        /**
+         * where the file was downloaded from, null for a file adopted and not confirmed by the server
+         */
+        @Nullable
+        String url;
+        /**
+         * how the file refers to its blob, null if it was not moved to the blob store yet
+         */
+        @Nullable
+        String storage;
+        long lastUsed;
+
+        Entry(String dataType, String language, long size, @Nullable String sha256, @Nullable String url, @Nullable String storage, long lastUsed) {
+            this.dataType = dataType;
+            this.language = language;
+            this.size = size;
+            this.sha256 = sha256;
+            this.url = url;
+            this.storage = storage;
+            this.lastUsed = lastUsed;
+        }
+
+        boolean isCopy() {
+            return BlobStore.STORAGE_COPY.equals(storage);
+        }
+
+        JSONObject toJson() throws JSONException {
+            JSONObject json = new JSONObject();
+            json.put("type", dataType);
+            json.put("language", language);
+            json.put("size", size);
+            if (sha256 != null) json.put("sha256", sha256);
+            if (url != null) json.put("url", url);
+            if (storage != null) json.put("storage", storage);
+            json.put("lastUsed", lastUsed);
+            return json;
+        }
+
+        static Entry fromJson(JSONObject json) throws JSONException {
+            return new Entry(json.getString("type"), json.getString("language"), json.getLong("size"),
+                    json.has("sha256") ? json.getString("sha256") : null,
+                    json.has("url") ? json.getString("url") : null,
+                    json.has("storage") ? json.getString("storage") : null,
+                    json.optLong("lastUsed"));
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package io.github.subhamtyagi.ocr.history;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+/**
+ * Schema of the scan history: the scans in an append-only table and an external content FTS4
+ * index over their text, kept in sync by triggers.
+ */
+class HistoryDatabase extends SQLiteOpenHelper {
+
+    private static final String NAME = "history.db";
+    private static final int VERSION = 1;
+
+    static final String TABLE_SCANS = "scans";
+    static final String TABLE_FTS = "scans_fts";
+
+    static final String COLUMN_ID = "id";
+    static final String COLUMN_CREATED_AT = "created_at";
+    static final String COLUMN_TEXT = "text";
+    static final String COLUMN_LANGUAGES = "languages";
+    static final String COLUMN_CONFIDENCE = "confidence";
+    static final String COLUMN_DURATION_MS = "duration_ms";
+    static final String COLUMN_THUMBNAIL = "thumbnail";
+
+    HistoryDatabase(Context context) {
+        super(context.getApplicationContext(), NAME, null, VERSION);
+    }
+
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        // readers of the history list never wait for a scan being stored
+        db.enableWriteAheadLogging();
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_SCANS + " ("
+                + COLUMN_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + COLUMN_CREATED_AT + " INTEGER NOT NULL, "
+                + COLUMN_TEXT + " TEXT NOT NULL, "
+                + COLUMN_LANGUAGES + " TEXT, "
+                + COLUMN_CONFIDENCE + " INTEGER, "
+                + COLUMN_DURATION_MS + " INTEGER, "
+                + COLUMN_THUMBNAIL + " TEXT)");
+        db.execSQL("CREATE INDEX scans_created_at ON " + TABLE_SCANS + " (" + COLUMN_CREATED_AT + ")");
+        db.execSQL("CREATE VIRTUAL TABLE " + TABLE_FTS + " USING fts4(content=\"" + TABLE_SCANS + "\", " + COLUMN_TEXT + ")");
+        db.execSQL("CREATE TRIGGER scans_ai AFTER INSERT ON " + TABLE_SCANS + " BEGIN "
+                + "INSERT INTO " + TABLE_FTS + " (docid, " + COLUMN_TEXT + ") VALUES (new." + COLUMN_ID + ", new." + COLUMN_TEXT + "); END");
+        db.execSQL("CREATE TRIGGER scans_bd BEFORE DELETE ON " + TABLE_SCANS + " BEGIN "
+                + "DELETE FROM " + TABLE_FTS + " WHERE docid = old." + COLUMN_ID + "; END");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+    }
+}
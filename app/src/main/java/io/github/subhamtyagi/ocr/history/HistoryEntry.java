@@ -0,0 +1,73 @@
+package io.github.subhamtyagi.ocr.history;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * One recognized scan in the history. Entries read for a list only hold the start of the text,
+ * {@link HistoryStore#getText(long)} returns all of it.
+ */
+public class HistoryEntry {
+
+    private final long id;
+    private final long createdAt;
+    private final String text;
+    private final String languages;
+    private final int confidence;
+    private final long durationMs;
+    @Nullable
+    private final String thumbnail;
+
+    /**
+     * a new entry, the id is assigned when it is stored
+     */
+    public HistoryEntry(String text, String languages, int confidence, long durationMs, @Nullable String thumbnail) {
+        this(0, System.currentTimeMillis(), text, languages, confidence, durationMs, thumbnail);
+    }
+
+    HistoryEntry(long id, long createdAt, String text, String languages, int confidence, long durationMs, @Nullable String thumbnail) {
+        this.id = id;
+        this.createdAt = createdAt;
+        this.text = text;
+        this.languages = languages;
+        this.confidence = confidence;
+        this.durationMs = durationMs;
+        this.thumbnail = thumbnail;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    @NonNull
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * @return the language codes joined by '+', as for tesseract
+     */
+    public String getLanguages() {
+        return languages;
+    }
+
+    public int getConfidence() {
+        return confidence;
+    }
+
+    public long getDurationMs() {
+        return durationMs;
+    }
+
+    /**
+     * @return key of the thumbnail of the scanned image, null if none was kept
+     */
+    @Nullable
+    public String getThumbnail() {
+        return thumbnail;
+    }
+}
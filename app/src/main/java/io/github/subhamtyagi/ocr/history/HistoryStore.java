@@ -0,0 +1,227 @@
+package io.github.subhamtyagi.ocr.history;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import io.github.subhamtyagi.ocr.utils.Constants;
+import io.github.subhamtyagi.ocr.utils.SpUtil;
+
+import static io.github.subhamtyagi.ocr.history.HistoryDatabase.COLUMN_CONFIDENCE;
+import static io.github.subhamtyagi.ocr.history.HistoryDatabase.COLUMN_CREATED_AT;
+import static io.github.subhamtyagi.ocr.history.HistoryDatabase.COLUMN_DURATION_MS;
+import static io.github.subhamtyagi.ocr.history.HistoryDatabase.COLUMN_ID;
+import static io.github.subhamtyagi.ocr.history.HistoryDatabase.COLUMN_LANGUAGES;
+import static io.github.subhamtyagi.ocr.history.HistoryDatabase.COLUMN_TEXT;
+import static io.github.subhamtyagi.ocr.history.HistoryDatabase.COLUMN_THUMBNAIL;
+import static io.github.subhamtyagi.ocr.history.HistoryDatabase.TABLE_FTS;
+import static io.github.subhamtyagi.ocr.history.HistoryDatabase.TABLE_SCANS;
+
+/**
+ * Every recognized scan, appended to a SQLite table with a full-text index over the text. Lists
+ * are read page by page with the start of each text only, so the history can grow to tens of
+ * thousands of scans without being loaded into memory. Old scans are dropped by {@link #compact}.
+ */
+public class HistoryStore {
+
+    public static final String TAG = "HistoryStore";
+
+    /**
+     * characters of the text read for a list entry
+     */
+    public static final int PREVIEW_LENGTH = 200;
+
+    /**
+     * scans kept at most, the oldest ones are dropped first
+     */
+    private static final int MAX_ENTRIES = 50_000;
+    private static final long MAX_AGE_MS = TimeUnit.DAYS.toMillis(365);
+
+    private volatile static HistoryStore mInstance;
+
+    /**
+     * writes are appended in order off the caller's thread
+     */
+    private final ExecutorService writer = Executors.newSingleThreadExecutor();
+    private HistoryDatabase database;
+
+    private HistoryStore() {
+    }
+
+    public static HistoryStore getInstance() {
+        if (null == mInstance) {
+            synchronized (HistoryStore.class) {
+                if (null == mInstance) {
+                    mInstance = new HistoryStore();
+                }
+            }
+        }
+        return mInstance;
+    }
+
+    /**
+     * Open the database and drop the scans beyond the retention, use only first time
+     *
+     * @param context any context
+     */
+    public synchronized void init(Context context) {
+        if (database != null) return;
+        database = new HistoryDatabase(context);
+        SpUtil sp = SpUtil.getInstance();
+        if (sp.contains(Constants.KEY_LAST_USE_IMAGE_TEXT)) {
+            // the single last text kept before there was a history
+            String lastText = sp.getString(Constants.KEY_LAST_USE_IMAGE_TEXT, "");
+            sp.remove(Constants.KEY_LAST_USE_IMAGE_TEXT);
+            if (!lastText.isEmpty()) add(new HistoryEntry(lastText, "", 0, 0, null));
+        }
+        writer.execute(() -> compact(MAX_ENTRIES, MAX_AGE_MS));
+    }
+
+    /**
+     * Append the scan, it is written on a background thread.
+     */
+    public void add(HistoryEntry entry) {
+        writer.execute(() -> {
+            ContentValues values = new ContentValues();
+            values.put(COLUMN_CREATED_AT, entry.getCreatedAt());
+            values.put(COLUMN_TEXT, entry.getText());
+            values.put(COLUMN_LANGUAGES, entry.getLanguages());
+            values.put(COLUMN_CONFIDENCE, entry.getConfidence());
+            values.put(COLUMN_DURATION_MS, entry.getDurationMs());
+            values.put(COLUMN_THUMBNAIL, entry.getThumbnail());
+            try {
+                database.getWritableDatabase().insert(TABLE_SCANS, null, values);
+            } catch (SQLiteException e) {
+                Log.e(TAG, "add: " + e.getLocalizedMessage());
+            }
+        });
+    }
+
+    /**
+     * Read one page of scans, newest first. Pass the id of the last entry of a page to get the
+     * next one; unlike an offset this stays fast deep into a long history.
+     *
+     * @param query  words the text must contain, each also matching as a prefix; null or empty for all scans
+     * @param before only scans with a lower id, {@link Long#MAX_VALUE} for the first page
+     * @return the scans with the start of their text
+     */
+    @WorkerThread
+    public List<HistoryEntry> getPage(@Nullable String query, long before, int limit) {
+        String columns = "s." + COLUMN_ID + ", s." + COLUMN_CREATED_AT + ", substr(s." + COLUMN_TEXT + ", 1, " + PREVIEW_LENGTH + "), s."
+                + COLUMN_LANGUAGES + ", s." + COLUMN_CONFIDENCE + ", s." + COLUMN_DURATION_MS + ", s." + COLUMN_THUMBNAIL;
+        String match = toMatchQuery(query);
+        String sql;
+        String[] args;
+        if (match == null) {
+            sql = "SELECT " + columns + " FROM " + TABLE_SCANS + " s WHERE s." + COLUMN_ID + " < ? ORDER BY s." + COLUMN_ID + " DESC LIMIT ?";
+            args = new String[]{String.valueOf(before), String.valueOf(limit)};
+        } else {
+            sql = "SELECT " + columns + " FROM " + TABLE_FTS + " f JOIN " + TABLE_SCANS + " s ON s." + COLUMN_ID + " = f.docid"
+                    + " WHERE " + TABLE_FTS + " MATCH ? AND s." + COLUMN_ID + " < ? ORDER BY s." + COLUMN_ID + " DESC LIMIT ?";
+            args = new String[]{match, String.valueOf(before), String.valueOf(limit)};
+        }
+        List<HistoryEntry> entries = new ArrayList<>(limit);
+        try (Cursor cursor = database.getReadableDatabase().rawQuery(sql, args)) {
+            while (cursor.moveToNext()) {
+                entries.add(new HistoryEntry(cursor.getLong(0), cursor.getLong(1), cursor.getString(2), cursor.getString(3),
+                        cursor.getInt(4), cursor.getLong(5), cursor.isNull(6) ? null : cursor.getString(6)));
+            }
+        } catch (SQLiteException e) {
+            Log.e(TAG, "getPage: " + e.getLocalizedMessage());
+        }
+        return entries;
+    }
+
+    /**
+     * @return the whole text of the scan, null if it is gone
+     */
+    @Nullable
+    @WorkerThread
+    public String getText(long id) {
+        try (Cursor cursor = database.getReadableDatabase().query(TABLE_SCANS, new String[]{COLUMN_TEXT},
+                COLUMN_ID + " = ?", new String[]{String.valueOf(id)}, null, null, null)) {
+            return cursor.moveToFirst() ? cursor.getString(0) : null;
+        } catch (SQLiteException e) {
+            Log.e(TAG, "getText: " + e.getLocalizedMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Drop the scans older than the age and the oldest ones beyond the count, then merge the
+     * segments of the full-text index.
+     *
+     * @return scans dropped
+     */
+    @WorkerThread
+    public int compact(int maxEntries, long maxAgeMs) {
+        try {
+            SQLiteDatabase db = database.getWritableDatabase();
+            int deleted;
+            db.beginTransaction();
+            try {
+                deleted = db.delete(TABLE_SCANS, COLUMN_CREATED_AT + " < ?",
+                        new String[]{String.valueOf(System.currentTimeMillis() - maxAgeMs)});
+                deleted += db.delete(TABLE_SCANS, COLUMN_ID + " <= (SELECT " + COLUMN_ID + " FROM " + TABLE_SCANS
+                        + " ORDER BY " + COLUMN_ID + " DESC LIMIT 1 OFFSET ?)", new String[]{String.valueOf(maxEntries)});
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            if (deleted > 0) {
+                db.execSQL("INSERT INTO " + TABLE_FTS + "(" + TABLE_FTS + ") VALUES('optimize')");
+                Log.d(TAG, String.format(Locale.US, "compact: dropped %d scans", deleted));
+            }
+            return deleted;
+        } catch (SQLiteException e) {
+            Log.e(TAG, "compact: " + e.getLocalizedMessage());
+            return 0;
+        }
+    }
+
+    /**
+     * Drop every scan
+     */
+    public void clear() {
+        writer.execute(() -> {
+            try {
+                SQLiteDatabase db = database.getWritableDatabase();
+                db.delete(TABLE_SCANS, null, null);
+                db.execSQL("INSERT INTO " + TABLE_FTS + "(" + TABLE_FTS + ") VALUES('optimize')");
+            } catch (SQLiteException e) {
+                Log.e(TAG, "clear: " + e.getLocalizedMessage());
+            }
+        });
+    }
+
+    /**
+     * turn what the user typed into an FTS query: every word quoted and matched as a prefix, so
+     * that operators and quotes in the input can not break the query. FTS4 only takes the prefix
+     * star inside the quotes, {@code "word"*} matches nothing
+     */
+    @Nullable
+    static String toMatchQuery(@Nullable String query) {
+        if (query == null) return null;
+        StringBuilder builder = new StringBuilder();
+        for (String word : query.trim().split("\\s+")) {
+            String cleaned = word.replace("\"", "");
+            if (cleaned.isEmpty()) continue;
+            if (builder.length() > 0) builder.append(' ');
+            builder.append('"').append(cleaned).append("*\"");
+        }
+        return builder.length() > 0 ? builder.toString() : null;
+    }
+}
@@ -0,0 +1,186 @@
+package io.github.subhamtyagi.ocr.image;
+
+import android.content.ContentResolver;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.LruCache;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import com.googlecode.leptonica.android.Pix;
+import com.googlecode.leptonica.android.ReadFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Decodes picked and shared images. The header of each image is read once and remembered, then
+ * the image is decoded at most twice, each time straight to the size it is needed at: in RGB_565
+ * at the resolution for recognition, and sampled down to the screen for display.
+ */
+public class BitmapDecoder {
+
+    public static final String TAG = "BitmapDecoder";
+
+    /**
+     * larger images are sampled down while decoding for recognition
+     */
+    private static final long MAX_OCR_PIXELS = 24L * 1000 * 1000;
+    private static final int HEADER_CACHE_SIZE = 32;
+
+    private final ContentResolver contentResolver;
+    private final LruCache<Uri, Header> headers = new LruCache<>(HEADER_CACHE_SIZE);
+    private final ExecutorService displayExecutor = Executors.newSingleThreadExecutor();
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    public interface Callback {
+        /**
+         * called on the main thread
+         *
+         * @param bitmap the image, null if it could not be decoded
+         */
+        void onDecoded(@Nullable Bitmap bitmap);
+    }
+
+    /**
+     * size and type of an encoded image
+     */
+    public static class Header {
+        public final int width;
+        public final int height;
+        @Nullable
+        public final String mimeType;
+
+        Header(int width, int height, @Nullable String mimeType) {
+            this.width = width;
+            this.height = height;
+            this.mimeType = mimeType;
+        }
+    }
+
+    public BitmapDecoder(ContentResolver contentResolver) {
+        this.contentResolver = contentResolver;
+    }
+
+    /**
+     * @return the size of the image, read from its header only the first time; null if it is not an image
+     */
+    @Nullable
+    @WorkerThread
+    public Header getHeader(Uri uri) {
+        Header header = headers.get(uri);
+        if (header != null) return header;
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        try (InputStream in = contentResolver.openInputStream(uri)) {
+            if (in == null) return null;
+            BitmapFactory.decodeStream(in, null, options);
+        } catch (IOException | SecurityException e) {
+            Log.e(TAG, "getHeader: " + e.getLocalizedMessage());
+            return null;
+        }
+        if (options.outWidth <= 0 || options.outHeight <= 0) return null;
+        header = new Header(options.outWidth, options.outHeight, options.outMimeType);
+        headers.put(uri, header);
+        return header;
+    }
+
+    /**
+     * Decode the image for recognition, in RGB_565 which takes half the memory of ARGB and keeps
+     * more than enough of the colours to find text.
+     *
+     * @return the image, null if it could not be decoded
+     */
+    @Nullable
+    @WorkerThread
+    public Bitmap decodeForOcr(Uri uri) {
+        Header header = getHeader(uri);
+        if (header == null) return null;
+        int sampleSize = 1;
+        while ((long) (header.width / sampleSize) * (header.height / sampleSize) > MAX_OCR_PIXELS) {
+            sampleSize *= 2;
+        }
+        return decode(uri, sampleSize, Bitmap.Config.RGB_565);
+    }
+
+    /**
+     * Decode the image sampled down to about the size it is shown at
+     *
+     * @return the image, null if it could not be decoded
+     */
+    @Nullable
+    @WorkerThread
+    public Bitmap decodeForDisplay(Uri uri, int reqWidth, int reqHeight) {
+        Header header = getHeader(uri);
+        if (header == null) return null;
+        int sampleSize = ImageCache.getSampleSize(header.width, header.height, reqWidth, reqHeight);
+        return decode(uri, sampleSize, Bitmap.Config.ARGB_8888);
+    }
+
+    /**
+     * {@link #decodeForDisplay} on a background thread
+     */
+    public void loadForDisplay(Uri uri, int reqWidth, int reqHeight, Callback callback) {
+        displayExecutor.execute(() -> {
+            Bitmap bitmap = decodeForDisplay(uri, reqWidth, reqHeight);
+            handler.post(() -> callback.onDecoded(bitmap));
+        });
+    }
+
+    public void shutdown() {
+        displayExecutor.shutdownNow();
+    }
+
+    /**
+     * Convert any bitmap to an 8 bit image without an intermediate ARGB copy
+     *
+     * @return image owned by the caller who must recycle it
+     */
+    public static Pix toGrayPix(Bitmap bitmap) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O && bitmap.getConfig() == Bitmap.Config.HARDWARE) {
+            // the pixels of hardware bitmaps can not be read directly
+            Bitmap copy = bitmap.copy(Bitmap.Config.RGB_565, false);
+            Pix pix = toGrayPix(copy);
+            copy.recycle();
+            return pix;
+        }
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        byte[] gray = new byte[width * height];
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            bitmap.getPixels(row, 0, width, 0, y, width, 1);
+            int offset = y * width;
+            for (int x = 0; x < width; x++) {
+                int color = row[x];
+                gray[offset + x] = (byte) ((((color >> 16) & 0xff) * 77 + ((color >> 8) & 0xff) * 150 + (color & 0xff) * 29) >> 8);
+            }
+        }
+        Pix pix = ReadFile.readBytes8(gray, width, height);
+        if (pix == null) {
+            throw new IllegalStateException("Could not create a " + width + "x" + height + " image");
+        }
+        return pix;
+    }
+
+    @Nullable
+    private Bitmap decode(Uri uri, int sampleSize, Bitmap.Config config) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = sampleSize;
+        options.inPreferredConfig = config;
+        try (InputStream in = contentResolver.openInputStream(uri)) {
+            return in != null ? BitmapFactory.decodeStream(in, null, options) : null;
+        } catch (IOException | SecurityException e) {
+            Log.e(TAG, "decode: " + e.getLocalizedMessage());
+            return null;
+        }
+    }
+}
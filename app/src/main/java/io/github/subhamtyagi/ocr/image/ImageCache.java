@@ -0,0 +1,341 @@
+package io.github.subhamtyagi.ocr.image;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.LruCache;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The scanned images, each kept as a display sized JPEG and a thumbnail in a size bounded disk
+ * cache where the least recently used files are dropped first. Recently shown images stay decoded
+ * in memory. Images are added without waiting for the disk, and read back downsampled to the size
+ * they are shown at.
+ */
+public class ImageCache {
+
+    public static final String TAG = "ImageCache";
+
+    /**
+     * longest side of the stored images, more than any screen shows
+     */
+    private static final int MAX_IMAGE_SIZE = 2048;
+    private static final int THUMBNAIL_SIZE = 192;
+    private static final int IMAGE_QUALITY = 90;
+    private static final int THUMBNAIL_QUALITY = 80;
+    private static final long MAX_DISK_BYTES = 64L * 1024 * 1024;
+
+    private static final String DIR_NAME = "image_cache";
+    private static final String IMAGE_SUFFIX = ".jpg";
+    private static final String THUMBNAIL_SUFFIX = "_thumb.jpg";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private volatile static ImageCache mInstance;
+
+    private final AtomicInteger keyCounter = new AtomicInteger();
+    /**
+     * disk writes, in the order the images are added
+     */
+    private final ExecutorService writer = Executors.newSingleThreadExecutor();
+    private final ExecutorService reader = Executors.newSingleThreadExecutor();
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    /**
+     * file name to length, least recently used first
+     */
+    private final LinkedHashMap<String, Long> index = new LinkedHashMap<>(64, 0.75f, true);
+    private final CountDownLatch indexRead = new CountDownLatch(1);
+    private long diskBytes;
+    private LruCache<String, Bitmap> memory;
+    private File dir;
+
+    public interface Callback {
+        /**
+         * called on the main thread
+         *
+         * @param bitmap the image, null if it is not cached
+         */
+        void onLoaded(@Nullable Bitmap bitmap);
+    }
+
+    private ImageCache() {
+    }
+
+    public static ImageCache getInstance() {
+        if (null == mInstance) {
+            synchronized (ImageCache.class) {
+                if (null == mInstance) {
+                    mInstance = new ImageCache();
+                }
+            }
+        }
+        return mInstance;
+    }
+
+    /**
+     * Set up the cache and read what is on the disk, use only first time
+     *
+     * @param context any context
+     */
+    public synchronized void init(Context context) {
+        if (dir != null) return;
+        dir = new File(context.getFilesDir(), DIR_NAME);
+        if (!dir.mkdirs() && !dir.isDirectory()) {
+            Log.e(TAG, "Could not create " + dir);
+        }
+        int memoryBytes = (int) Math.min(Runtime.getRuntime().maxMemory() / 8, Integer.MAX_VALUE);
+        memory = new LruCache<String, Bitmap>(memoryBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getByteCount();
+            }
+        };
+        writer.execute(this::readIndex);
+    }
+
+    /**
+     * @return a new key to add an image under
+     */
+    public String newKey() {
+        return String.format(Locale.US, "%x_%x", System.currentTimeMillis(), keyCounter.incrementAndGet());
+    }
+
+    /**
+     * Add the image and a thumbnail of it. The bitmap is copied, so the caller may recycle it as
+     * soon as this returns; the files are written on a background thread.
+     */
+    @WorkerThread
+    public void put(String key, Bitmap bitmap) {
+        Bitmap image = scaleToFit(bitmap, MAX_IMAGE_SIZE, true);
+        Bitmap thumbnail = scaleToFit(image, THUMBNAIL_SIZE, false);
+        memory.put(key, image);
+        memory.put(key + THUMBNAIL_SUFFIX, thumbnail);
+        writer.execute(() -> {
+            write(key + IMAGE_SUFFIX, image, IMAGE_QUALITY);
+            write(key + THUMBNAIL_SUFFIX, thumbnail, THUMBNAIL_QUALITY);
+        });
+    }
+
+    /**
+     * Add only a thumbnail of the image, for scans whose image is not shown again. The bitmap is
+     * copied, so the caller may recycle it as soon as this returns.
+     */
+    @WorkerThread
+    public void putThumbnail(String key, Bitmap bitmap) {
+        Bitmap thumbnail = scaleToFit(bitmap, THUMBNAIL_SIZE, true);
+        memory.put(key + THUMBNAIL_SUFFIX, thumbnail);
+        writer.execute(() -> write(key + THUMBNAIL_SUFFIX, thumbnail, THUMBNAIL_QUALITY));
+    }
+
+    /**
+     * @return the image if it is decoded in memory, null otherwise
+     */
+    @Nullable
+    public Bitmap getFromMemory(String key) {
+        return memory.get(key);
+    }
+
+    /**
+     * @return the thumbnail if it is decoded in memory, null otherwise
+     */
+    @Nullable
+    public Bitmap getThumbnailFromMemory(String key) {
+        return memory.get(key + THUMBNAIL_SUFFIX);
+    }
+
+    /**
+     * Read the image, decoded no smaller than the size it is shown at
+     *
+     * @return the image, null if it is not cached
+     */
+    @Nullable
+    @WorkerThread
+    public Bitmap getImage(String key, int reqWidth, int reqHeight) {
+        Bitmap bitmap = memory.get(key);
+        if (bitmap != null) return bitmap;
+        bitmap = decode(key + IMAGE_SUFFIX, reqWidth, reqHeight);
+        if (bitmap != null) memory.put(key, bitmap);
+        return bitmap;
+    }
+
+    /**
+     * Read the thumbnail of the image, made from the image if its own file was dropped
+     *
+     * @return the thumbnail, null if neither is cached
+     */
+    @Nullable
+    @WorkerThread
+    public Bitmap getThumbnail(String key) {
+        String thumbnailKey = key + THUMBNAIL_SUFFIX;
+        Bitmap bitmap = memory.get(thumbnailKey);
+        if (bitmap != null) return bitmap;
+        bitmap = decode(thumbnailKey, THUMBNAIL_SIZE, THUMBNAIL_SIZE);
+        if (bitmap == null) {
+            Bitmap sampled = decode(key + IMAGE_SUFFIX, THUMBNAIL_SIZE, THUMBNAIL_SIZE);
+            if (sampled == null) return null;
+            bitmap = scaleToFit(sampled, THUMBNAIL_SIZE, false);
+            Bitmap thumbnail = bitmap;
+            writer.execute(() -> write(thumbnailKey, thumbnail, THUMBNAIL_QUALITY));
+        }
+        memory.put(thumbnailKey, bitmap);
+        return bitmap;
+    }
+
+    /**
+     * {@link #getImage} on a background thread
+     */
+    public void loadImage(String key, int reqWidth, int reqHeight, Callback callback) {
+        reader.execute(() -> {
+            Bitmap bitmap = getImage(key, reqWidth, reqHeight);
+            handler.post(() -> callback.onLoaded(bitmap));
+        });
+    }
+
+    /**
+     * {@link #getThumbnail} on a background thread
+     */
+    public void loadThumbnail(String key, Callback callback) {
+        reader.execute(() -> {
+            Bitmap bitmap = getThumbnail(key);
+            handler.post(() -> callback.onLoaded(bitmap));
+        });
+    }
+
+    /**
+     * Drop every image from memory and disk
+     */
+    public void clear() {
+        memory.evictAll();
+        writer.execute(() -> {
+            synchronized (index) {
+                for (String name : index.keySet()) {
+                    new File(dir, name).delete();
+                }
+                index.clear();
+                diskBytes = 0;
+            }
+        });
+    }
+
+    /**
+     * the files on disk, oldest use first, as left by the last run
+     */
+    private void readIndex() {
+        File[] files = dir.listFiles();
+        if (files == null) files = new File[0];
+        Arrays.sort(files, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        synchronized (index) {
+            for (File file : files) {
+                if (file.getName().endsWith(TEMP_SUFFIX)) {
+                    file.delete();
+                    continue;
+                }
+                index.put(file.getName(), file.length());
+                diskBytes += file.length();
+            }
+        }
+        indexRead.countDown();
+        trim();
+    }
+
+    private void write(String name, Bitmap bitmap, int quality) {
+        File file = new File(dir, name);
+        File temp = new File(dir, name + TEMP_SUFFIX);
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            bitmap.compress(Bitmap.CompressFormat.JPEG, quality, out);
+        } catch (IOException e) {
+            Log.e(TAG, "write: " + e.getLocalizedMessage());
+            temp.delete();
+            return;
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            return;
+        }
+        synchronized (index) {
+            Long previous = index.put(name, file.length());
+            diskBytes += file.length() - (previous != null ? previous : 0);
+        }
+        trim();
+    }
+
+    /**
+     * drop the least recently used files until the cache fits its size
+     */
+    private void trim() {
+        synchronized (index) {
+            Iterator<Map.Entry<String, Long>> iterator = index.entrySet().iterator();
+            while (diskBytes > MAX_DISK_BYTES && iterator.hasNext()) {
+                Map.Entry<String, Long> entry = iterator.next();
+                new File(dir, entry.getKey()).delete();
+                diskBytes -= entry.getValue();
+                iterator.remove();
+            }
+        }
+    }
+
+    @Nullable
+    private Bitmap decode(String name, int reqWidth, int reqHeight) {
+        File file = new File(dir, name);
+        try {
+            indexRead.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        synchronized (index) {
+            if (index.get(name) == null) return null;
+        }
+        // keep the order of use across runs
+        file.setLastModified(System.currentTimeMillis());
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(file.getPath(), options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) return null;
+        options.inSampleSize = getSampleSize(options.outWidth, options.outHeight, reqWidth, reqHeight);
+        options.inJustDecodeBounds = false;
+        return BitmapFactory.decodeFile(file.getPath(), options);
+    }
+
+    /**
+     * @return the largest power of two the image can be shrunk by and still cover the requested size
+     */
+    public static int getSampleSize(int width, int height, int reqWidth, int reqHeight) {
+        int sampleSize = 1;
+        if (reqWidth <= 0 || reqHeight <= 0) return sampleSize;
+        while (width / (sampleSize * 2) >= reqWidth && height / (sampleSize * 2) >= reqHeight) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /**
+     * @param copy return a copy even if the bitmap fits already
+     */
+    private static Bitmap scaleToFit(Bitmap bitmap, int maxSize, boolean copy) {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        if (width <= maxSize && height <= maxSize) {
+            return copy ? bitmap.copy(bitmap.getConfig() != null ? bitmap.getConfig() : Bitmap.Config.ARGB_8888, false) : bitmap;
+        }
+        float scale = (float) maxSize / Math.max(width, height);
+        return Bitmap.createScaledBitmap(bitmap, Math.max(1, Math.round(width * scale)), Math.max(1, Math.round(height * scale)), true);
+    }
+}
@@ -0,0 +1,72 @@
+package io.github.subhamtyagi.ocr.image;
+
+import android.graphics.Bitmap;
+
+import androidx.annotation.NonNull;
+
+import java.util.Locale;
+
+/**
+ * Hash of the size and every pixel of an image: two images hash the same only if they are the same
+ * pixels. A rescaled or recompressed copy hashes differently, on purpose, since pages of the same
+ * layout look alike to any perceptual hash and would share a result they don't have.
+ */
+public class ImageHash {
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final int width;
+    private final int height;
+    private final long content;
+
+    private ImageHash(int width, int height, long content) {
+        this.width = width;
+        this.height = height;
+        this.content = content;
+    }
+
+    /**
+     * @param bitmap any image, it is not modified
+     */
+    public static ImageHash of(Bitmap bitmap) {
+        return new ImageHash(bitmap.getWidth(), bitmap.getHeight(), hashContent(bitmap));
+    }
+
+    /**
+     * FNV-1a of the size and every pixel, read row by row so the image is never copied whole
+     */
+    private static long hashContent(Bitmap bitmap) {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        long hash = (FNV_OFFSET_BASIS ^ width) * FNV_PRIME;
+        hash = (hash ^ height) * FNV_PRIME;
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            bitmap.getPixels(row, 0, width, 0, y, width, 1);
+            for (int pixel : row) {
+                hash = (hash ^ pixel) * FNV_PRIME;
+            }
+        }
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof ImageHash)) return false;
+        ImageHash other = (ImageHash) o;
+        return width == other.width && height == other.height && content == other.content;
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (content ^ (content >>> 32));
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "%dx%d-%016x", width, height, content);
+    }
+}
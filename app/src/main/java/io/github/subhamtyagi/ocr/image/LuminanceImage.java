@@ -0,0 +1,144 @@
+package io.github.subhamtyagi.ocr.image;
+
+import android.graphics.ImageFormat;
+import android.media.Image;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.googlecode.leptonica.android.Pix;
+import com.googlecode.leptonica.android.ReadFile;
+
+import java.nio.ByteBuffer;
+
+/**
+ * An 8 bit grayscale image backed by a possibly direct {@link ByteBuffer} with row padding, i.e.
+ * the luminance plane of a YUV_420_888 camera {@link Image}. Wrapping does not copy, the pixels
+ * are copied once, rotated upright and without padding, when they are handed to leptonica.
+ */
+public class LuminanceImage {
+
+    private final ByteBuffer buffer;
+    private final int width;
+    private final int height;
+    private final int rowStride;
+    private final int pixelStride;
+
+    /**
+     * @param rowStride   bytes from the start of one row to the start of the next
+     * @param pixelStride bytes from one pixel to the next in a row
+     */
+    public LuminanceImage(ByteBuffer buffer, int width, int height, int rowStride, int pixelStride) {
+        if (rowStride < (width - 1) * pixelStride + 1) {
+            throw new IllegalArgumentException("Row stride " + rowStride + " is too small for width " + width);
+        }
+        this.buffer = buffer;
+        this.width = width;
+        this.height = height;
+        this.rowStride = rowStride;
+        this.pixelStride = pixelStride;
+    }
+
+    /**
+     * Wrap the luminance plane of a YUV_420_888 image, only valid until the image is closed.
+     */
+    public static LuminanceImage fromYPlane(Image image) {
+        if (image.getFormat() != ImageFormat.YUV_420_888) {
+            throw new IllegalArgumentException("Not a YUV_420_888 image: " + image.getFormat());
+        }
+        Image.Plane plane = image.getPlanes()[0];
+        return new LuminanceImage(plane.getBuffer(), image.getWidth(), image.getHeight(),
+                plane.getRowStride(), plane.getPixelStride());
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @param rotation clockwise rotation in degree, a multiple of 90
+     * @return width of the image once rotated
+     */
+    public int getWidth(int rotation) {
+        return isSideways(rotation) ? height : width;
+    }
+
+    /**
+     * @param rotation clockwise rotation in degree, a multiple of 90
+     * @return height of the image once rotated
+     */
+    public int getHeight(int rotation) {
+        return isSideways(rotation) ? width : height;
+    }
+
+    /**
+     * Copy the pixels rotated and without row padding.
+     *
+     * @param target   reused if it has exactly one byte per pixel, otherwise a new array is made
+     * @param rotation clockwise rotation in degree, a multiple of 90
+     * @return the array holding the pixels, {@link #getWidth(int)} bytes per row
+     */
+    @NonNull
+    public byte[] copyTo(@Nullable byte[] target, int rotation) {
+        rotation = normalize(rotation);
+        if (target == null || target.length != width * height) {
+            target = new byte[width * height];
+        }
+        // the position of a shared buffer is left untouched
+        ByteBuffer source = buffer.duplicate();
+        int rowLength = (width - 1) * pixelStride + 1;
+        byte[] row = rotation == 0 && pixelStride == 1 ? null : new byte[rowLength];
+        for (int y = 0; y < height; y++) {
+            source.position(y * rowStride);
+            if (row == null) {
+                source.get(target, y * width, width);
+                continue;
+            }
+            source.get(row, 0, rowLength);
+            for (int x = 0; x < width; x++) {
+                byte value = row[x * pixelStride];
+                switch (rotation) {
+                    case 90:
+                        target[x * height + (height - 1 - y)] = value;
+                        break;
+                    case 180:
+                        target[(height - 1 - y) * width + (width - 1 - x)] = value;
+                        break;
+                    case 270:
+                        target[(width - 1 - x) * height + y] = value;
+                        break;
+                    default:
+                        target[y * width + x] = value;
+                }
+            }
+        }
+        return target;
+    }
+
+    /**
+     * @param rotation clockwise rotation in degree, a multiple of 90
+     * @return 8 bit image owned by the caller who must recycle it
+     */
+    @NonNull
+    public Pix toPix(int rotation) {
+        byte[] pixels = copyTo(null, rotation);
+        Pix pix = ReadFile.readBytes8(pixels, getWidth(rotation), getHeight(rotation));
+        if (pix == null) {
+            throw new IllegalStateException("Could not create a " + getWidth(rotation) + "x" + getHeight(rotation) + " image");
+        }
+        return pix;
+    }
+
+    private static boolean isSideways(int rotation) {
+        rotation = normalize(rotation);
+        return rotation == 90 || rotation == 270;
+    }
+
+    private static int normalize(int rotation) {
+        return ((rotation % 360) + 360) % 360;
+    }
+}
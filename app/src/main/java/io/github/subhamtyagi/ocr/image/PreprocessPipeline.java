@@ -0,0 +1,118 @@
+package io.github.subhamtyagi.ocr.image;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.googlecode.leptonica.android.AdaptiveMap;
+import com.googlecode.leptonica.android.Binarize;
+import com.googlecode.leptonica.android.Enhance;
+import com.googlecode.leptonica.android.Pix;
+import com.googlecode.leptonica.android.Rotate;
+import com.googlecode.leptonica.android.Skew;
+
+import io.github.subhamtyagi.ocr.utils.Constants;
+import io.github.subhamtyagi.ocr.utils.SpUtil;
+
+/**
+ * The image enhancement steps selected in the settings, composed once and applied to every image.
+ * Each step frees the image of the previous step as soon as it is done and the result is a
+ * {@link Pix} which can be handed to the engine directly.
+ */
+public class PreprocessPipeline {
+
+    public static final String TAG = "PreprocessPipeline";
+
+    /**
+     * skew angles in degree below this are not worth a rotation
+     */
+    private static final float MIN_DESKEW_ANGLE = 0.1f;
+
+    private final boolean contrast;
+    private final boolean unsharpMasking;
+    private final boolean otsuThreshold;
+    private final boolean deskew;
+
+    public PreprocessPipeline(boolean contrast, boolean unsharpMasking, boolean otsuThreshold, boolean deskew) {
+        this.contrast = contrast;
+        this.unsharpMasking = unsharpMasking;
+        this.otsuThreshold = otsuThreshold;
+        this.deskew = deskew;
+    }
+
+    /**
+     * @return the pipeline for the image enhancement settings
+     */
+    public static PreprocessPipeline fromPreferences() {
+        SpUtil sp = SpUtil.getInstance();
+        return new PreprocessPipeline(
+                sp.getBoolean(Constants.KEY_CONTRAST, true),
+                sp.getBoolean(Constants.KEY_UN_SHARP_MASKING, true),
+                sp.getBoolean(Constants.KEY_OTSU_THRESHOLD, true),
+                sp.getBoolean(Constants.KEY_FIND_SKEW_AND_DESKEW, true));
+    }
+
+    /**
+     * Run the enabled steps on the bitmap, the bitmap itself is not modified.
+     *
+     * @return 8 bit or, after the Otsu threshold, 1 bit image owned by the caller who must recycle it
+     */
+    @NonNull
+    public Pix process(Bitmap bitmap) {
+        long start = System.currentTimeMillis();
+        Pix pix = process8(BitmapDecoder.toGrayPix(bitmap));
+        Log.d(TAG, "process: " + bitmap.getWidth() + "x" + bitmap.getHeight() + " in " + (System.currentTimeMillis() - start) + " ms");
+        return pix;
+    }
+
+    /**
+     * Run the enabled steps on an 8 bit image.
+     *
+     * @param pix consumed by this call, it must not be used or recycled by the caller afterwards
+     * @return image owned by the caller who must recycle it
+     */
+    @NonNull
+    public Pix process8(Pix pix) {
+        if (contrast) {
+            pix = replace(pix, AdaptiveMap.pixContrastNorm(pix));
+        }
+        if (unsharpMasking) {
+            pix = replace(pix, Enhance.unsharpMasking(pix));
+        }
+        if (otsuThreshold) {
+            pix = replace(pix, Binarize.otsuAdaptiveThreshold(pix));
+        }
+        if (deskew) {
+            float skewAngle = Skew.findSkew(pix);
+            if (Math.abs(skewAngle) >= MIN_DESKEW_ANGLE) {
+                pix = replace(pix, Rotate.rotate(pix, skewAngle));
+            }
+        }
+        return pix;
+    }
+
+    public boolean isIdentity() {
+        return !contrast && !unsharpMasking && !otsuThreshold && !deskew;
+    }
+
+    /**
+     * @return the enabled steps, equal for pipelines producing the same image
+     */
+    public String getFingerprint() {
+        return (contrast ? "c" : "") + (unsharpMasking ? "u" : "") + (otsuThreshold ? "o" : "") + (deskew ? "d" : "");
+    }
+
+
+    /**
+     * @return the output of a step, freeing its input; the input if the step failed
+     */
+    private static Pix replace(Pix input, @Nullable Pix output) {
+        if (output == null || output == input) {
+            return input;
+        }
+        input.recycle();
+        return output;
+    }
+}
@@ -0,0 +1,268 @@
+package io.github.subhamtyagi.ocr.image;
+
+import android.util.Log;
+
+import com.googlecode.leptonica.android.Pix;
+import com.googlecode.leptonica.android.Scale;
+import com.googlecode.leptonica.android.WriteFile;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Rescales images so that their text has the x-height tesseract reads best, about 20 to 30 pixels.
+ * Large print photographed at full resolution is shrunk, which makes it both faster and more
+ * accurate to recognize; small print is enlarged a little.
+ * <p>
+ * The x-height is estimated on a small copy of the image: it is binarized with the Otsu threshold,
+ * the connected components are labelled row by row, and the most common height of the components
+ * shaped like characters is taken, since most lower case letters have no ascender or descender.
+ */
+public class ResolutionNormalizer {
+
+    public static final String TAG = "ResolutionNormalizer";
+
+    public static final int MIN_X_HEIGHT = 20;
+    public static final int MAX_X_HEIGHT = 30;
+    private static final int TARGET_X_HEIGHT = 25;
+
+    /**
+     * longest side of the copy the x-height is measured on
+     */
+    private static final int ANALYSIS_SIZE = 1600;
+    /**
+     * x-heights below this are too small to measure on the copy
+     */
+    private static final int MIN_MEASURABLE_X_HEIGHT = 5;
+    /**
+     * fewer components than this are not text worth measuring
+     */
+    private static final int MIN_COMPONENTS = 20;
+
+    private static final float MAX_UPSCALE = 2f;
+    private static final long MAX_UPSCALED_PIXELS = 16L * 1000 * 1000;
+    private static final int MIN_SIZE = 600;
+
+    private ResolutionNormalizer() {
+    }
+
+    /**
+     * @param pix 8 bit image, consumed by this call when it is rescaled
+     * @return the image rescaled for recognition, or the pix itself if it needs no rescale
+     */
+    public static Pix normalize(Pix pix) {
+        long start = System.currentTimeMillis();
+        float scale = getScale(pix);
+        if (scale == 1f) return pix;
+        Pix scaled = Scale.scale(pix, scale);
+        if (scaled == null) return pix;
+        Log.d(TAG, String.format(Locale.US, "normalize: %dx%d -> %dx%d in %d ms", pix.getWidth(), pix.getHeight(),
+                scaled.getWidth(), scaled.getHeight(), System.currentTimeMillis() - start));
+        pix.recycle();
+        return scaled;
+    }
+
+    /**
+     * @param pix 8 bit image, it is not modified
+     * @return factor bringing the text of the image to the preferred x-height, 1 if it is there
+     * already or no text could be measured
+     */
+    public static float getScale(Pix pix) {
+        int width = pix.getWidth();
+        int height = pix.getHeight();
+        float analysisScale = Math.min(1f, (float) ANALYSIS_SIZE / Math.max(width, height));
+        Pix small = analysisScale < 1f ? Scale.scale(pix, analysisScale) : pix;
+        if (small == null) return 1f;
+        int analysisWidth = small.getWidth();
+        int analysisHeight = small.getHeight();
+        byte[] gray = new byte[analysisWidth * analysisHeight];
+        WriteFile.writeBytes8(small, gray);
+        if (small != pix) {
+            small.recycle();
+        }
+        // the copy is rounded to whole pixels
+        analysisScale = (float) analysisWidth / width;
+
+        int xHeight = estimateXHeight(gray, analysisWidth, analysisHeight);
+        if (xHeight < MIN_MEASURABLE_X_HEIGHT) {
+            return 1f;
+        }
+        float fullXHeight = xHeight / analysisScale;
+        if (fullXHeight >= MIN_X_HEIGHT && fullXHeight <= MAX_X_HEIGHT) {
+            return 1f;
+        }
+        float scale = TARGET_X_HEIGHT / fullXHeight;
+        if (scale > 1f) {
+            scale = Math.min(scale, MAX_UPSCALE);
+            scale = Math.min(scale, (float) Math.sqrt((double) MAX_UPSCALED_PIXELS / ((long) width * height)));
+            scale = Math.max(scale, 1f);
+        } else {
+            scale = Math.max(scale, Math.min(1f, (float) MIN_SIZE / Math.min(width, height)));
+        }
+        Log.d(TAG, String.format(Locale.US, "x-height %.1f px, scale %.2f", fullXHeight, scale));
+        return scale;
+    }
+
+    /**
+     * @param gray 8 bit image without padding
+     * @return most common height of the character shaped components, 0 if there is too little text
+     */
+    public static int estimateXHeight(byte[] gray, int width, int height) {
+        int threshold = getOtsuThreshold(gray);
+        int dark = 0;
+        for (byte value : gray) {
+            if ((value & 0xff) <= threshold) dark++;
+        }
+        // text is the minority of the pixels, light text on a dark background is inverted
+        boolean darkText = dark <= gray.length / 2;
+
+        Components components = new Components();
+        int[] previous = new int[width];
+        int[] current = new int[width];
+        for (int y = 0; y < height; y++) {
+            int row = y * width;
+            for (int x = 0; x < width; x++) {
+                boolean isText = ((gray[row + x] & 0xff) <= threshold) == darkText;
+                if (!isText) {
+                    current[x] = 0;
+                    continue;
+                }
+                // 8-connected neighbours already visited: left, and the three above
+                int label = x > 0 ? current[x - 1] : 0;
+                label = components.join(label, y > 0 && x > 0 ? previous[x - 1] : 0);
+                label = components.join(label, y > 0 ? previous[x] : 0);
+                label = components.join(label, y > 0 && x < width - 1 ? previous[x + 1] : 0);
+                if (label == 0) {
+                    label = components.create();
+                }
+                components.extend(label, x, y);
+                current[x] = label;
+            }
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return components.getModeHeight(height / 4);
+    }
+
+    private static int getOtsuThreshold(byte[] gray) {
+        int[] histogram = new int[256];
+        for (byte value : gray) {
+            histogram[value & 0xff]++;
+        }
+        long sum = 0;
+        for (int i = 0; i < 256; i++) {
+            sum += (long) i * histogram[i];
+        }
+        long sumBackground = 0;
+        int weightBackground = 0;
+        double best = -1;
+        int threshold = 127;
+        for (int i = 0; i < 256; i++) {
+            weightBackground += histogram[i];
+            if (weightBackground == 0) continue;
+            int weightForeground = gray.length - weightBackground;
+            if (weightForeground == 0) break;
+            sumBackground += (long) i * histogram[i];
+            double meanBackground = (double) sumBackground / weightBackground;
+            double meanForeground = (double) (sum - sumBackground) / weightForeground;
+            double variance = (double) weightBackground * weightForeground * (meanBackground - meanForeground) * (meanBackground - meanForeground);
+            if (variance > best) {
+                best = variance;
+                threshold = i;
+            }
+        }
+        return threshold;
+    }
+
+    /**
+     * bounding boxes of the labels, merged through a union find as labels turn out to touch
+     */
+    private static class Components {
+        private int[] parent = new int[1024];
+        private int[] minX = new int[1024];
+        private int[] maxX = new int[1024];
+        private int[] minY = new int[1024];
+        private int[] maxY = new int[1024];
+        private int count;
+
+        int create() {
+            int label = ++count;
+            if (label >= parent.length) {
+                int size = parent.length * 2;
+                parent = Arrays.copyOf(parent, size);
+                minX = Arrays.copyOf(minX, size);
+                maxX = Arrays.copyOf(maxX, size);
+                minY = Arrays.copyOf(minY, size);
+                maxY = Arrays.copyOf(maxY, size);
+            }
+            parent[label] = label;
+            minX[label] = Integer.MAX_VALUE;
+            minY[label] = Integer.MAX_VALUE;
+            maxX[label] = -1;
+            maxY[label] = -1;
+            return label;
+        }
+
+        int find(int label) {
+            while (parent[label] != label) {
+                parent[label] = parent[parent[label]];
+                label = parent[label];
+            }
+            return label;
+        }
+
+        /**
+         * @return the root of both labels, either one may be 0 for none
+         */
+        int join(int a, int b) {
+            if (a == 0) return b == 0 ? 0 : find(b);
+            if (b == 0) return find(a);
+            int rootA = find(a);
+            int rootB = find(b);
+            if (rootA == rootB) return rootA;
+            parent[rootB] = rootA;
+            minX[rootA] = Math.min(minX[rootA], minX[rootB]);
+            maxX[rootA] = Math.max(maxX[rootA], maxX[rootB]);
+            minY[rootA] = Math.min(minY[rootA], minY[rootB]);
+            maxY[rootA] = Math.max(maxY[rootA], maxY[rootB]);
+            return rootA;
+        }
+
+        void extend(int label, int x, int y) {
+            minX[label] = Math.min(minX[label], x);
+            maxX[label] = Math.max(maxX[label], x);
+            minY[label] = Math.min(minY[label], y);
+            maxY[label] = Math.max(maxY[label], y);
+        }
+
+        /**
+         * @return the most common height, smoothed over neighbouring heights, of the components
+         * which could be characters; 0 if there are too few
+         */
+        int getModeHeight(int maxHeight) {
+            int[] histogram = new int[maxHeight + 2];
+            int characters = 0;
+            for (int label = 1; label <= count; label++) {
+                if (parent[label] != label) continue;
+                int w = maxX[label] - minX[label] + 1;
+                int h = maxY[label] - minY[label] + 1;
+                // specks, rules and pictures are not characters
+                if (h < 3 || h > maxHeight || w > h * 3 || h > w * 10) continue;
+                histogram[h]++;
+                characters++;
+            }
+            if (characters < MIN_COMPONENTS) return 0;
+            int mode = 0;
+            int best = 0;
+            for (int h = 1; h <= maxHeight; h++) {
+                int smoothed = histogram[h - 1] + histogram[h] + histogram[h + 1];
+                if (smoothed > best) {
+                    best = smoothed;
+                    mode = h;
+                }
+            }
+            return mode;
+        }
+    }
+}
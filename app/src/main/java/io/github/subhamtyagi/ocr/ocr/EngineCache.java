@@ -0,0 +1,258 @@
+package io.github.subhamtyagi.ocr.ocr;
+
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import io.github.subhamtyagi.ocr.utils.Constants;
+import io.github.subhamtyagi.ocr.utils.Language;
+
+/**
+ * A process wide LRU cache of initialized {@link ImageTextReader}s, so that returning from the
+ * settings or switching between recently used languages does not load the training data again.
+ * <p>
+ * Readers are keyed by the sorted language codes, the training data type, the page segmentation
+ * mode, a hash of the tesseract parameters, the directory the training data is read from and the
+ * number of engines in the pool. The cache is bounded by an estimate of the native
+ * memory held by the engines; least recently used readers are torn down first.
+ */
+public class EngineCache {
+
+    public static final String TAG = "EngineCache";
+
+    /**
+     * fraction of the device memory the cached engines may take
+     */
+    private static final int MEMORY_BUDGET_DIVISOR = 8;
+    private static final long DEFAULT_MEMORY_BUDGET = 256L * 1024 * 1024;
+
+    private volatile static EngineCache mInstance;
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(4, 0.75f, true);
+    private long memoryBudget = DEFAULT_MEMORY_BUDGET;
+    private int hits;
+    private int misses;
+
+    private EngineCache() {
+    }
+
+    public static EngineCache getInstance() {
+        if (null == mInstance) {
+            synchronized (EngineCache.class) {
+                if (null == mInstance) {
+                    mInstance = new EngineCache();
+                }
+            }
+        }
+        return mInstance;
+    }
+
+    /**
+     * Derive the memory budget from the device memory, use only first time
+     *
+     * @param context any context
+     */
+    public synchronized void init(Context context) {
+        ActivityManager activityManager = (ActivityManager) context.getApplicationContext().getSystemService(Context.ACTIVITY_SERVICE);
+        if (activityManager != null) {
+            ActivityManager.MemoryInfo memoryInfo = new ActivityManager.MemoryInfo();
+            activityManager.getMemoryInfo(memoryInfo);
+            memoryBudget = Math.max(DEFAULT_MEMORY_BUDGET, memoryInfo.totalMem / MEMORY_BUDGET_DIVISOR);
+        }
+    }
+
+    /**
+     * Build the cache key of an engine configuration
+     *
+     * @param languages      languages selected by the user
+     * @param dataType       best, standard or fast
+     * @param pageSegMode    page segmentation mode
+     * @param parameters     tesseract parameters
+     * @param isParameterSet whether the parameters are applied to the engine at all
+     * @param dataDir        the parent of the tessdata directory the engines are initialized with
+     * @param poolSize       number of engines the reader may create
+     */
+    @NonNull
+    public static String createKey(Set<Language> languages, String dataType, int pageSegMode, Map<String, String> parameters,
+                                   boolean isParameterSet, @Nullable File dataDir, int poolSize) {
+        String codes = languages.stream().map(Language::getCode).sorted().collect(Collectors.joining("+"));
+        int parameterHash = isParameterSet ? new TreeMap<>(parameters).toString().hashCode() : 0;
+        String path = dataDir != null ? dataDir.getAbsolutePath() : "";
+        return codes + "|" + dataType + "|" + pageSegMode + "|" + Integer.toHexString(parameterHash) + "|" + path + "|" + poolSize;
+    }
+
+    /**
+     * Estimate of the memory a single engine needs: the size of its training data files
+     *
+     * @param tessDataDir the tessdata directory of the data type
+     */
+    public static long estimateEngineBytes(File tessDataDir, Set<Language> languages) {
+        long bytes = 0;
+        for (Language language : languages) {
+            bytes += new File(tessDataDir, String.format(Constants.LANGUAGE_CODE, language.getCode())).length();
+        }
+        return bytes;
+    }
+
+    /**
+     * Return the cached reader for the key or create it with the loader. Readers which fail to
+     * initialize are not cached.
+     *
+     * @param key         from {@link #createKey}
+     * @param engineBytes from {@link #estimateEngineBytes}
+     * @param loader      creates a new reader, called on the current thread
+     */
+    @Nullable
+    public ImageTextReader obtain(String key, long engineBytes, Supplier<ImageTextReader> loader) {
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                hits++;
+                Log.d(TAG, "hit " + key + " (" + hits + " hits, " + misses + " misses)");
+                return entry.reader;
+            }
+            misses++;
+        }
+        long start = System.currentTimeMillis();
+        ImageTextReader reader = loader.get();
+        if (reader == null || !reader.isSuccess()) {
+            return reader;
+        }
+        Log.d(TAG, "loaded " + key + " in " + (System.currentTimeMillis() - start) + " ms");
+        reader.setCacheKey(key);
+        List<ImageTextReader> evicted;
+        synchronized (this) {
+            Entry previous = entries.put(key, new Entry(reader, engineBytes));
+            evicted = trimToBudget(key);
+            if (previous != null) {
+                evicted.add(previous.reader);
+            }
+        }
+        tearDown(evicted);
+        return reader;
+    }
+
+    /**
+     * @return the cached reader for the key, null if it is not loaded; never loads one
+     */
+    @Nullable
+    public synchronized ImageTextReader peek(String key) {
+        Entry entry = entries.get(key);
+        return entry != null ? entry.reader : null;
+    }
+
+    /**
+     * Remove a reader, i.e. because its training data turned out to be broken
+     */
+    public void remove(String key) {
+        Entry entry;
+        synchronized (this) {
+            entry = entries.remove(key);
+        }
+        if (entry != null) {
+            entry.reader.tearDownEverything();
+        }
+    }
+
+    /**
+     * Tear down every cached reader
+     */
+    public void clear() {
+        List<ImageTextReader> evicted = new ArrayList<>();
+        synchronized (this) {
+            for (Entry entry : entries.values()) {
+                evicted.add(entry.reader);
+            }
+            entries.clear();
+        }
+        tearDown(evicted);
+    }
+
+    /**
+     * Release engines when the system runs low on memory, the most recently used reader is kept
+     * until the app is about to be killed.
+     *
+     * @param level from {@link ComponentCallbacks2#onTrimMemory(int)}
+     */
+    public void onTrimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_COMPLETE) {
+            clear();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            List<ImageTextReader> evicted = new ArrayList<>();
+            synchronized (this) {
+                Iterator<Entry> iterator = entries.values().iterator();
+                while (entries.size() > 1 && iterator.hasNext()) {
+                    evicted.add(iterator.next().reader);
+                    iterator.remove();
+                }
+            }
+            tearDown(evicted);
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * evict least recently used readers, never the one just stored under keep
+     */
+    private List<ImageTextReader> trimToBudget(String keep) {
+        List<ImageTextReader> evicted = new ArrayList<>();
+        long total = 0;
+        for (Entry entry : entries.values()) {
+            total += entry.estimateBytes();
+        }
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (total > memoryBudget && iterator.hasNext()) {
+            Map.Entry<String, Entry> eldest = iterator.next();
+            if (eldest.getKey().equals(keep)) continue;
+            Log.d(TAG, "evict " + eldest.getKey());
+            total -= eldest.getValue().estimateBytes();
+            evicted.add(eldest.getValue().reader);
+            iterator.remove();
+        }
+        return evicted;
+    }
+
+    private static void tearDown(List<ImageTextReader> readers) {
+        for (ImageTextReader reader : readers) {
+            reader.tearDownEverything();
+        }
+    }
+
+    private static class Entry {
+        final ImageTextReader reader;
+        final long engineBytes;
+
+        Entry(ImageTextReader reader, long engineBytes) {
+            this.reader = reader;
+            this.engineBytes = engineBytes;
+        }
+
+        long estimateBytes() {
+            return engineBytes * Math.max(1, reader.getEngineCount());
+        }
+    }
+}
@@ -1,14 +1,24 @@
 package io.github.subhamtyagi.ocr.ocr;
 
 import android.graphics.Bitmap;
+import android.os.CancellationSignal;
+import android.util.Log;
 
+import androidx.annotation.Nullable;
+
+import com.googlecode.leptonica.android.Pix;
+import com.googlecode.tesseract.android.ResultIterator;
 import com.googlecode.tesseract.android.TessBaseAPI;
 
+import java.util.Collections;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
-import io.github.subhamtyagi.ocr.utils.Constants;
 import io.github.subhamtyagi.ocr.utils.Language;
 
 
@@ -18,6 +28,11 @@ import io.github.subhamtyagi.ocr.utils.Language;
 public class ImageTextReader {
 
     public static final String TAG = "ImageTextReader";
+    public static final String SCAN_FAILED_ERROR = "Scan Failed: WTF: Must be reported to developer!";
+    static final String SCAN_FAILED_NO_TEXT = "Scan Failed: Couldn't read the image\nProblem may be related to Tesseract or no Text on Image!";
+    public static final String SCAN_FAILED_INTERRUPTED = "Scan Failed: Interrupted while waiting for the OCR engine";
+    public static final String SCAN_FAILED_NO_ENGINE = "Scan Failed: OCR engine is not available";
+    public static final String SCAN_CANCELLED = "Scan Cancelled";
     private boolean success;
 
     public boolean isSuccess() {
@@ -30,36 +45,44 @@ public class ImageTextReader {
 
 
     /**
-     * TessBaseAPI instance
+     * Pool of TessBaseAPI instances, each image is recognized by a leased engine
+     */
+    private final OcrEnginePool pool;
+
+    /**
+     * splits large images into blocks recognized in parallel, created on first use
+     */
+    private TiledRecognizer tiledRecognizer;
+
+    /**
+     * the {@link EngineCache} key, it names the languages and settings of the engines
      */
-    private static volatile TessBaseAPI api;
-    //  private static volatile TesseractImageTextReader INSTANCE;
+    private volatile String cacheKey;
+
+    private ImageTextReader(OcrEnginePool pool) {
+        this.pool = pool;
+    }
 
     /**
-     * initialize and train the tesseract engine
+     * initialize and train the tesseract engines
      *
      * @param path      a path to training data
      * @param languages language code i.e. selected by user
+     * @param poolSize  number of engines which may recognize images in parallel
      * @return the instance of this class for later use
      */
-    public static ImageTextReader getInstance(String path, Set<Language> languages, int pageSegMode, Map<String, String> parameters, boolean isParameterSet, TessBaseAPI.ProgressNotifier progressNotifier) {
+    public static ImageTextReader getInstance(String path, Set<Language> languages, int pageSegMode, Map<String, String> parameters, boolean isParameterSet, int poolSize, TessBaseAPI.ProgressNotifier progressNotifier) {
         try {
-            ImageTextReader imageTextReader = new ImageTextReader();
-            api = new TessBaseAPI(progressNotifier);
-            boolean s = api.init(path, languages
+            OcrEnginePool pool = new OcrEnginePool(path, languages
                     .stream()
                     .map(Language::getCode)
-                    .collect(Collectors.joining("+")));
-            api.setPageSegMode(pageSegMode);
-            imageTextReader.setSuccess(s);
-            if (isParameterSet)
-                for (Map.Entry<String, String> entry : parameters.entrySet()) {
-                    String key = entry.getKey();
-                    String value = entry.getValue();
-                    if (!key.equals(Constants.KEY_OCR_PSM_MODE)) {
-                        api.setVariable(key, value);
-                    }
-                }
+                    .collect(Collectors.joining("+")),
+                    pageSegMode,
+                    isParameterSet ? parameters : Collections.emptyMap(),
+                    poolSize);
+            pool.setProgressNotifier(progressNotifier);
+            ImageTextReader imageTextReader = new ImageTextReader(pool);
+            imageTextReader.setSuccess(pool.warmUp());
             return imageTextReader;
         } catch (Exception e) {
             return null;
@@ -68,54 +91,253 @@ public class ImageTextReader {
     }
 
     /**
-     * get the text from bitmap
+     * get the text from bitmap, blocks while every engine of the pool is busy
+     *
+     * @param bitmap a image
+     * @return text on image with the boxes and confidences of its words
+     */
+    public OcrResult getResultFromBitmap(Bitmap bitmap) {
+        return getResultFromBitmap(bitmap, null);
+    }
+
+    /**
+     * @param signal stops the engine recognizing this image when cancelled
+     */
+    public OcrResult getResultFromBitmap(Bitmap bitmap, @Nullable CancellationSignal signal) {
+        return recognizeOnEngine(api -> api.setImage(bitmap), bitmap.getWidth(), bitmap.getHeight(), signal);
+    }
+
+    /**
+     * get the text from an 8 or 1 bit image without converting it to a bitmap first, blocks while
+     * every engine of the pool is busy
+     *
+     * @param pix a image, still owned by the caller
+     * @return text on image with the boxes and confidences of its words
+     */
+    public OcrResult getResultFromPix(Pix pix) {
+        return recognizeOnEngine(api -> api.setImage(pix), pix.getWidth(), pix.getHeight(), null);
+    }
+
+    /**
+     * get the text from an 8 bit grayscale image, i.e. the luminance plane of a camera frame, without
+     * converting it to a bitmap first
+     *
+     * @param luminance one byte per pixel, each row starts at a multiple of rowStride
+     * @param signal    stops the engine recognizing this image when cancelled
+     * @return text on image with the boxes and confidences of its words
+     */
+    public OcrResult getResultFromLuminance(byte[] luminance, int width, int height, int rowStride, @Nullable CancellationSignal signal) {
+        return recognizeOnEngine(api -> api.setImage(luminance, width, height, 1, rowStride), width, height, signal);
+    }
+
+    /**
+     * get the text from bitmap, large images with more than one text block are split into blocks
+     * which are recognized in parallel by the engines of the pool
      *
      * @param bitmap a image
-     * @return text on image
+     * @return text on image with the boxes and confidences of its words
+     */
+    public OcrResult getResultFromBitmapTiled(Bitmap bitmap) {
+        return getResultFromBitmapTiled(bitmap, null);
+    }
+
+    /**
+     * @param signal stops every engine recognizing a block of this image when cancelled
+     */
+    public OcrResult getResultFromBitmapTiled(Bitmap bitmap, @Nullable CancellationSignal signal) {
+        if (!isWorthTiling(bitmap.getWidth(), bitmap.getHeight())) {
+            return getResultFromBitmap(bitmap, signal);
+        }
+        OcrResult result = recognizeTiled(() -> getTiledRecognizer().recognize(bitmap, signal));
+        return result != null ? result : getResultFromBitmap(bitmap, signal);
+    }
+
+    /**
+     * tiled counterpart of {@link #getResultFromPix(Pix)}
+     *
+     * @param pix a image, still owned by the caller
+     */
+    public OcrResult getResultFromPixTiled(Pix pix) {
+        return getResultFromPixTiled(pix, null);
+    }
+
+    private OcrResult getResultFromPixTiled(Pix pix, @Nullable CancellationSignal signal) {
+        if (!isWorthTiling(pix.getWidth(), pix.getHeight())) {
+            return recognizeOnEngine(api -> api.setImage(pix), pix.getWidth(), pix.getHeight(), signal);
+        }
+        OcrResult result = recognizeTiled(() -> getTiledRecognizer().recognize(pix, signal));
+        return result != null ? result : recognizeOnEngine(api -> api.setImage(pix), pix.getWidth(), pix.getHeight(), signal);
+    }
+
+    /**
+     * get the text from a image handed over to this reader. The pix is recycled as soon as the
+     * engine holds its own reference to it, so a preprocessed 8 or 1 bit image is never expanded
+     * back to ARGB and no copy outlives the call.
+     *
+     * @param pix   a image owned by this call, it must not be used by the caller afterwards
+     * @param tiled whether large images may be split into blocks recognized in parallel
+     * @return text on image with the boxes and confidences of its words
+     */
+    public OcrResult getResultFromOwnedPix(Pix pix, boolean tiled) {
+        return getResultFromOwnedPix(pix, tiled, null);
+    }
+
+    /**
+     * @param signal stops the engines recognizing this image when cancelled
+     */
+    public OcrResult getResultFromOwnedPix(Pix pix, boolean tiled, @Nullable CancellationSignal signal) {
+        if (tiled && isWorthTiling(pix.getWidth(), pix.getHeight())) {
+            try {
+                return getResultFromPixTiled(pix, signal);
+            } finally {
+                pix.recycle();
+            }
+        }
+        int width = pix.getWidth();
+        int height = pix.getHeight();
+        AtomicBoolean recycled = new AtomicBoolean();
+        try {
+            return recognizeOnEngine(api -> {
+                api.setImage(pix);
+                // the engine keeps its own reference, the pixels are freed when it is cleared
+                pix.recycle();
+                recycled.set(true);
+            }, width, height, signal);
+        } finally {
+            if (!recycled.get()) pix.recycle();
+        }
+    }
+
+    private boolean isWorthTiling(int width, int height) {
+        return pool.getSize() > 1 && (long) width * height >= TiledRecognizer.MIN_TILED_PIXELS;
+    }
+
+    /**
+     * @return the result, or null if the image should be recognized in one call instead
+     */
+    private OcrResult recognizeTiled(Callable<OcrResult> tiled) {
+        OcrResult result;
+        try {
+            result = tiled.call();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return OcrResult.failure(SCAN_FAILED_INTERRUPTED);
+        } catch (Exception e) {
+            return OcrResult.failure(SCAN_FAILED_ERROR);
+        }
+        if (result == null) {
+            return null;
+        }
+        return result.isEmpty() && result.isSuccess() ? OcrResult.failure(SCAN_FAILED_NO_TEXT) : result;
+    }
+
+    /**
+     * lease an engine, set the image on it and recognize it
      */
-    public String getTextFromBitmap(Bitmap bitmap) {
-        api.setImage(bitmap);
-        String textOnImage;
+    private OcrResult recognizeOnEngine(Consumer<TessBaseAPI> setImage, int width, int height, @Nullable CancellationSignal signal) {
+        if (signal != null && signal.isCanceled()) {
+            return OcrResult.failure(SCAN_CANCELLED);
+        }
+        TessBaseAPI api;
+        try {
+            api = pool.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return OcrResult.failure(SCAN_FAILED_INTERRUPTED);
+        }
+        if (api == null) {
+            return OcrResult.failure(SCAN_FAILED_NO_ENGINE);
+        }
+        OcrResult result;
+        long start = System.currentTimeMillis();
         try {
-            //textOnImage = api.getUTF8Text();
-            textOnImage = api.getHOCRText(1);
+            if (signal != null) {
+                // called right away if the job was cancelled while waiting for the engine
+                signal.setOnCancelListener(api::stop);
+            }
+            setImage.accept(api);
+            result = recognize(api, width, height);
+            if (signal != null && signal.isCanceled()) {
+                // a stopped engine returns whatever it recognized so far
+                return OcrResult.failure(SCAN_CANCELLED);
+            }
+            Log.d(TAG, String.format(Locale.US, "single: %.1f MP, total %d ms",
+                    width * height / 1e6, System.currentTimeMillis() - start));
         } catch (Exception e) {
-            return "Scan Failed: WTF: Must be reported to developer!";
+            return OcrResult.failure(SCAN_FAILED_ERROR);
+        } finally {
+            if (signal != null) {
+                signal.setOnCancelListener(null);
+            }
+            pool.release(api);
         }
-        if (textOnImage.isEmpty()) {
-            return "Scan Failed: Couldn't read the image\nProblem may be related to Tesseract or no Text on Image!";
-        } else return textOnImage;
+        return result;
+    }
 
+    /**
+     * run the recognition on the image already set on the engine and read the result in one pass
+     */
+    static OcrResult recognize(TessBaseAPI api, int width, int height) {
+        api.getUTF8Text();
+        ResultIterator iterator = api.getResultIterator();
+        if (iterator == null) {
+            return OcrResult.failure(SCAN_FAILED_NO_TEXT);
+        }
+        try {
+            OcrResult result = new OcrResult(Collections.singletonList(OcrResult.readPage(iterator, width, height)));
+            return result.isEmpty() ? OcrResult.failure(SCAN_FAILED_NO_TEXT) : result;
+        } finally {
+            iterator.delete();
+        }
+    }
+
+    private synchronized TiledRecognizer getTiledRecognizer() {
+        if (tiledRecognizer == null) {
+            tiledRecognizer = new TiledRecognizer(pool);
+        }
+        return tiledRecognizer;
     }
 
     /**
-     * stop the image TEXT reader
+     * stop every image TEXT reader of the pool
      */
     public void stop() {
-        api.stop();
+        pool.stopAll();
     }
 
     /**
-     * find the confidence or
-     *
-     * @return confidence
+     * @return number of engines initialized by the pool
      */
-    public int getAccuracy() {
-        return api.meanConfidence();
+    public int getEngineCount() {
+        return pool.getCreatedCount();
     }
 
     /**
-     * Closes down tesseract and free up all memory.
+     * @return the key the reader is cached under, null if it was not obtained from the {@link EngineCache}
      */
-    public void tearDownEverything() {
-        api.recycle();
+    @Nullable
+    public String getCacheKey() {
+        return cacheKey;
+    }
+
+    void setCacheKey(String cacheKey) {
+        this.cacheKey = cacheKey;
+    }
+
+    public void setProgressNotifier(TessBaseAPI.ProgressNotifier progressNotifier) {
+        pool.setProgressNotifier(progressNotifier);
     }
 
     /**
-     * Frees up recognition results and any stored image data,
+     * Closes down tesseract and free up all memory.
      */
-    public void clearPreviousImage() {
-        api.clear();
+    public void tearDownEverything() {
+        synchronized (this) {
+            if (tiledRecognizer != null) {
+                tiledRecognizer.shutdown();
+            }
+        }
+        pool.close();
     }
 
 }
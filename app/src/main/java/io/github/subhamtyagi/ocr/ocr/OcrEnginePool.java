@@ -0,0 +1,222 @@
+package io.github.subhamtyagi.ocr.ocr;
+
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import com.googlecode.tesseract.android.TessBaseAPI;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.github.subhamtyagi.ocr.utils.Constants;
+
+/**
+ * A pool of initialized tesseract engines which share the same language, page segmentation mode and
+ * parameters. Engines are created lazily up to the pool size and leased to worker threads; when
+ * every engine is busy {@link #acquire()} blocks until one is released.
+ */
+public class OcrEnginePool implements TessBaseAPI.ProgressNotifier {
+
+    public static final String TAG = "OcrEnginePool";
+    private static final long CLOSE_CHECK_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+
+    private final String path;
+    private final String languages;
+    private final int pageSegMode;
+    private final Map<String, String> parameters;
+    private final int size;
+
+    private final BlockingQueue<TessBaseAPI> idleEngines = new LinkedBlockingQueue<>();
+    private final Set<TessBaseAPI> leasedEngines = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    private final AtomicInteger createdEngines = new AtomicInteger();
+
+    private volatile boolean closed;
+    private volatile TessBaseAPI.ProgressNotifier progressNotifier;
+
+    /**
+     * @param path        a path to training data
+     * @param languages   tesseract language string i.e. eng+hin
+     * @param pageSegMode page segmentation mode of every engine
+     * @param parameters  tesseract variables applied to every engine, may be empty
+     * @param size        maximum number of engines kept by this pool
+     */
+    public OcrEnginePool(String path, String languages, int pageSegMode, Map<String, String> parameters, int size) {
+        this.path = path;
+        this.languages = languages;
+        this.pageSegMode = pageSegMode;
+        this.parameters = new HashMap<>(parameters);
+        this.size = Math.max(1, size);
+    }
+
+    /**
+     * Creates the first engine eagerly so that a broken training data file is detected before the
+     * first image is submitted.
+     *
+     * @return true if the engine could be initialized
+     */
+    public boolean warmUp() {
+        if (!createdEngines.compareAndSet(0, 1)) {
+            return true;
+        }
+        TessBaseAPI api = createEngine();
+        if (api == null) {
+            createdEngines.decrementAndGet();
+            return false;
+        }
+        idleEngines.offer(api);
+        return true;
+    }
+
+    /**
+     * Lease an engine, waiting as long as necessary for one to become free.
+     *
+     * @return an engine, or null if the pool is closed or no engine could be initialized
+     */
+    @Nullable
+    public TessBaseAPI acquire() throws InterruptedException {
+        return acquire(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Lease an engine, waiting up to the given time for one to become free.
+     *
+     * @return an engine, or null if the time elapsed, the pool is closed or no engine could be
+     * initialized
+     */
+    @Nullable
+    public TessBaseAPI acquire(long timeout, TimeUnit unit) throws InterruptedException {
+        if (closed) return null;
+        TessBaseAPI api = idleEngines.poll();
+        if (api == null) {
+            api = tryCreateEngine();
+        }
+        long remaining = unit.toNanos(timeout);
+        while (api == null) {
+            // wake up periodically so that waiters notice a pool closed under them
+            if (closed || remaining <= 0 || createdEngines.get() == 0) return null;
+            long waitStart = System.nanoTime();
+            api = idleEngines.poll(Math.min(remaining, CLOSE_CHECK_INTERVAL_NANOS), TimeUnit.NANOSECONDS);
+            remaining -= System.nanoTime() - waitStart;
+        }
+        if (closed) {
+            api.recycle();
+            return null;
+        }
+        leasedEngines.add(api);
+        return api;
+    }
+
+    /**
+     * Return a leased engine to the pool. Any image and result held by the engine are cleared.
+     */
+    public void release(TessBaseAPI api) {
+        if (api == null || !leasedEngines.remove(api)) return;
+        if (closed) {
+            api.recycle();
+            return;
+        }
+        api.clear();
+        idleEngines.offer(api);
+    }
+
+    /**
+     * Ask every leased engine to stop the recognition in progress.
+     */
+    public void stopAll() {
+        for (TessBaseAPI api : leasedEngines) {
+            api.stop();
+        }
+    }
+
+    /**
+     * Closes down every idle engine and free up all memory. Leased engines are recycled as soon as
+     * they are released.
+     */
+    public void close() {
+        closed = true;
+        TessBaseAPI api;
+        while ((api = idleEngines.poll()) != null) {
+            api.recycle();
+        }
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @return number of engines initialized so far
+     */
+    public int getCreatedCount() {
+        return createdEngines.get();
+    }
+
+    public int getIdleCount() {
+        return idleEngines.size();
+    }
+
+    public int getLeasedCount() {
+        return leasedEngines.size();
+    }
+
+    public void setProgressNotifier(@Nullable TessBaseAPI.ProgressNotifier progressNotifier) {
+        this.progressNotifier = progressNotifier;
+    }
+
+    @Override
+    public void onProgressValues(TessBaseAPI.ProgressValues progressValues) {
+        TessBaseAPI.ProgressNotifier notifier = progressNotifier;
+        if (notifier != null) {
+            notifier.onProgressValues(progressValues);
+        }
+    }
+
+    @Nullable
+    private TessBaseAPI tryCreateEngine() {
+        while (true) {
+            int created = createdEngines.get();
+            if (created >= size) return null;
+            if (createdEngines.compareAndSet(created, created + 1)) break;
+        }
+        TessBaseAPI api = createEngine();
+        if (api == null) {
+            createdEngines.decrementAndGet();
+        }
+        return api;
+    }
+
+    @Nullable
+    private TessBaseAPI createEngine() {
+        TessBaseAPI api = new TessBaseAPI(this);
+        try {
+            if (!api.init(path, languages)) {
+                api.recycle();
+                return null;
+            }
+            api.setPageSegMode(pageSegMode);
+            for (Map.Entry<String, String> entry : parameters.entrySet()) {
+                String key = entry.getKey();
+                if (!key.equals(Constants.KEY_OCR_PSM_MODE)) {
+                    api.setVariable(key, entry.getValue());
+                }
+            }
+            return api;
+        } catch (Exception e) {
+            Log.e(TAG, "createEngine: " + e.getLocalizedMessage());
+            api.recycle();
+            return null;
+        }
+    }
+}
@@ -0,0 +1,306 @@
+package io.github.subhamtyagi.ocr.ocr;
+
+import android.graphics.Rect;
+import android.text.TextUtils;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.googlecode.tesseract.android.ResultIterator;
+import com.googlecode.tesseract.android.TessBaseAPI;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Result of a recognition: pages made of blocks, lines and words, each with its bounding box and
+ * confidence. Plain text, hOCR and TSV are views of this model which are computed on first use.
+ */
+public class OcrResult {
+
+    private final List<Page> pages;
+    private final String error;
+
+    private String text;
+    private String hOCR;
+    private String tsv;
+
+    public OcrResult(List<Page> pages) {
+        this.pages = Collections.unmodifiableList(pages);
+        this.error = null;
+    }
+
+    private OcrResult(String error) {
+        this.pages = Collections.emptyList();
+        this.error = error;
+    }
+
+    /**
+     * @param error message shown to the user in place of the text
+     */
+    public static OcrResult failure(String error) {
+        return new OcrResult(error);
+    }
+
+    /**
+     * Fill the model from the result iterator of a recognized image in a single pass over its
+     * words. A word starts a new line or block when the bounding box of its line or block differs
+     * from the one of the previous word.
+     *
+     * @param iterator positioned anywhere, it is rewound but not deleted
+     * @param width    width of the recognized image
+     * @param height   height of the recognized image
+     */
+    static Page readPage(ResultIterator iterator, int width, int height) {
+        List<Block> blocks = new ArrayList<>();
+        List<Line> lines = new ArrayList<>();
+        List<Word> words = new ArrayList<>();
+        Rect blockBox = null, lineBox = null;
+        float blockConfidence = 0, lineConfidence = 0;
+
+        iterator.begin();
+        do {
+            String word = iterator.getUTF8Text(TessBaseAPI.PageIteratorLevel.RIL_WORD);
+            if (word == null || word.trim().isEmpty()) continue;
+
+            Rect currentBlock = iterator.getBoundingRect(TessBaseAPI.PageIteratorLevel.RIL_BLOCK);
+            Rect currentLine = iterator.getBoundingRect(TessBaseAPI.PageIteratorLevel.RIL_TEXTLINE);
+            if (!currentLine.equals(lineBox) || !currentBlock.equals(blockBox)) {
+                addIfNotEmpty(lines, lineBox, lineConfidence, words);
+                words = new ArrayList<>();
+                lineBox = currentLine;
+                lineConfidence = iterator.confidence(TessBaseAPI.PageIteratorLevel.RIL_TEXTLINE);
+            }
+            if (!currentBlock.equals(blockBox)) {
+                if (blockBox != null && !lines.isEmpty()) {
+                    blocks.add(new Block(blockBox, blockConfidence, lines));
+                }
+                lines = new ArrayList<>();
+                blockBox = currentBlock;
+                blockConfidence = iterator.confidence(TessBaseAPI.PageIteratorLevel.RIL_BLOCK);
+            }
+            words.add(new Word(word.trim(),
+                    iterator.getBoundingRect(TessBaseAPI.PageIteratorLevel.RIL_WORD),
+                    iterator.confidence(TessBaseAPI.PageIteratorLevel.RIL_WORD)));
+        } while (iterator.next(TessBaseAPI.PageIteratorLevel.RIL_WORD));
+
+        addIfNotEmpty(lines, lineBox, lineConfidence, words);
+        if (blockBox != null && !lines.isEmpty()) {
+            blocks.add(new Block(blockBox, blockConfidence, lines));
+        }
+        return new Page(new Rect(0, 0, width, height), blocks);
+    }
+
+    private static void addIfNotEmpty(List<Line> lines, Rect lineBox, float confidence, List<Word> words) {
+        if (lineBox != null && !words.isEmpty()) {
+            lines.add(new Line(lineBox, confidence, words));
+        }
+    }
+
+    public boolean isSuccess() {
+        return error == null;
+    }
+
+    @Nullable
+    public String getError() {
+        return error;
+    }
+
+    public List<Page> getPages() {
+        return pages;
+    }
+
+    public boolean isEmpty() {
+        for (Page page : pages) {
+            if (!page.blocks.isEmpty()) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return mean confidence of all words, 0 if nothing was recognized
+     */
+    public int getConfidence() {
+        float sum = 0;
+        int count = 0;
+        for (Page page : pages) {
+            for (Block block : page.blocks) {
+                for (Line line : block.lines) {
+                    for (Word word : line.words) {
+                        sum += word.confidence;
+                        count++;
+                    }
+                }
+            }
+        }
+        return count == 0 ? 0 : Math.round(sum / count);
+    }
+
+    /**
+     * @return words separated by spaces, lines by new lines and blocks by an empty line; the error
+     * message if the recognition failed
+     */
+    @NonNull
+    public synchronized String getText() {
+        if (error != null) return error;
+        if (text == null) {
+            StringBuilder builder = new StringBuilder();
+            for (Page page : pages) {
+                for (Block block : page.blocks) {
+                    if (builder.length() > 0) builder.append("\n\n");
+                    for (int l = 0; l < block.lines.size(); l++) {
+                        if (l > 0) builder.append('\n');
+                        List<Word> words = block.lines.get(l).words;
+                        for (int w = 0; w < words.size(); w++) {
+                            if (w > 0) builder.append(' ');
+                            builder.append(words.get(w).text);
+                        }
+                    }
+                }
+            }
+            text = builder.toString();
+        }
+        return text;
+    }
+
+    @NonNull
+    public synchronized String getHOCR() {
+        if (hOCR == null) {
+            StringBuilder builder = new StringBuilder();
+            for (int p = 0; p < pages.size(); p++) {
+                Page page = pages.get(p);
+                String pageId = String.valueOf(p + 1);
+                builder.append("<div class='ocr_page' id='page_").append(pageId).append("' title='bbox ").append(bbox(page.box)).append("'>\n");
+                for (int b = 0; b < page.blocks.size(); b++) {
+                    Block block = page.blocks.get(b);
+                    String blockId = pageId + "_" + (b + 1);
+                    builder.append(" <div class='ocr_carea' id='block_").append(blockId).append("' title='bbox ").append(bbox(block.box)).append("'>\n");
+                    builder.append("  <p class='ocr_par' id='par_").append(blockId).append("' title='bbox ").append(bbox(block.box)).append("'>\n");
+                    for (int l = 0; l < block.lines.size(); l++) {
+                        Line line = block.lines.get(l);
+                        String lineId = blockId + "_" + (l + 1);
+                        builder.append("   <span class='ocr_line' id='line_").append(lineId).append("' title='bbox ").append(bbox(line.box)).append("'>");
+                        for (int w = 0; w < line.words.size(); w++) {
+                            Word word = line.words.get(w);
+                            builder.append("<span class='ocrx_word' id='word_").append(lineId).append('_').append(w + 1)
+                                    .append("' title='bbox ").append(bbox(word.box)).append("; x_wconf ").append(Math.round(word.confidence)).append("'>")
+                                    .append(TextUtils.htmlEncode(word.text)).append("</span> ");
+                        }
+                        builder.append("</span>\n");
+                    }
+                    builder.append("  </p>\n </div>\n");
+                }
+                builder.append("</div>\n");
+            }
+            hOCR = builder.toString();
+        }
+        return hOCR;
+    }
+
+    /**
+     * @return the words in tesseract's tab separated format
+     */
+    @NonNull
+    public synchronized String getTsv() {
+        if (tsv == null) {
+            StringBuilder builder = new StringBuilder("level\tpage_num\tblock_num\tpar_num\tline_num\tword_num\tleft\ttop\twidth\theight\tconf\ttext\n");
+            for (int p = 0; p < pages.size(); p++) {
+                Page page = pages.get(p);
+                for (int b = 0; b < page.blocks.size(); b++) {
+                    Block block = page.blocks.get(b);
+                    for (int l = 0; l < block.lines.size(); l++) {
+                        Line line = block.lines.get(l);
+                        for (int w = 0; w < line.words.size(); w++) {
+                            Word word = line.words.get(w);
+                            builder.append(5).append('\t').append(p + 1).append('\t').append(b + 1).append('\t').append(1).append('\t')
+                                    .append(l + 1).append('\t').append(w + 1).append('\t')
+                                    .append(word.box.left).append('\t').append(word.box.top).append('\t')
+                                    .append(word.box.width()).append('\t').append(word.box.height()).append('\t')
+                                    .append(Math.round(word.confidence)).append('\t').append(word.text).append('\n');
+                        }
+                    }
+                }
+            }
+            tsv = builder.toString();
+        }
+        return tsv;
+    }
+
+    private static String bbox(Rect box) {
+        return box.left + " " + box.top + " " + box.right + " " + box.bottom;
+    }
+
+    /**
+     * common part of every element: bounding box in image coordinates and confidence in percent
+     */
+    public static class Element {
+        final Rect box;
+        final float confidence;
+
+        Element(Rect box, float confidence) {
+            this.box = box;
+            this.confidence = confidence;
+        }
+
+        public Rect getBox() {
+            return new Rect(box);
+        }
+
+        public float getConfidence() {
+            return confidence;
+        }
+    }
+
+    public static class Page extends Element {
+        final List<Block> blocks;
+
+        public Page(Rect box, List<Block> blocks) {
+            super(box, 0);
+            this.blocks = Collections.unmodifiableList(blocks);
+        }
+
+        public List<Block> getBlocks() {
+            return blocks;
+        }
+    }
+
+    public static class Block extends Element {
+        final List<Line> lines;
+
+        public Block(Rect box, float confidence, List<Line> lines) {
+            super(box, confidence);
+            this.lines = Collections.unmodifiableList(lines);
+        }
+
+        public List<Line> getLines() {
+            return lines;
+        }
+    }
+
+    public static class Line extends Element {
+        final List<Word> words;
+
+        public Line(Rect box, float confidence, List<Word> words) {
+            super(box, confidence);
+            this.words = Collections.unmodifiableList(words);
+        }
+
+        public List<Word> getWords() {
+            return words;
+        }
+    }
+
+    public static class Word extends Element {
+        final String text;
+
+        public Word(String text, Rect box, float confidence) {
+            super(box, confidence);
+            this.text = text;
+        }
+
+        public String getText() {
+            return text;
+        }
+    }
+}
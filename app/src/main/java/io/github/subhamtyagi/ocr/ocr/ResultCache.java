@@ -0,0 +1,115 @@
+package io.github.subhamtyagi.ocr.ocr;
+
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+
+import io.github.subhamtyagi.ocr.image.ImageHash;
+
+/**
+ * Recent recognition results, looked up by the {@link ImageHash} of the image and a fingerprint
+ * of everything that changes the text: languages, page segmentation mode, parameters and
+ * preprocessing. Recognizing the same image again with the same settings, i.e. on refresh or when
+ * it is shared once more, returns the stored result instead of running tesseract. The least
+ * recently used result is dropped first. Only an identical image gets a stored result, the hash
+ * covers every pixel.
+ */
+public class ResultCache {
+
+    public static final String TAG = "ResultCache";
+
+    private static final int CAPACITY = 32;
+
+    private volatile static ResultCache mInstance;
+
+    private final LinkedHashMap<String, OcrResult> entries = new LinkedHashMap<>(CAPACITY, 0.75f, true);
+    private boolean enabled;
+    private long hits;
+    private long misses;
+
+    private ResultCache() {
+    }
+
+    public static ResultCache getInstance() {
+        if (null == mInstance) {
+            synchronized (ResultCache.class) {
+                if (null == mInstance) {
+                    mInstance = new ResultCache();
+                }
+            }
+        }
+        return mInstance;
+    }
+
+    /**
+     * @param enabled false to never reuse a result and drop the stored ones
+     */
+    public synchronized void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        if (!enabled) {
+            entries.clear();
+        }
+    }
+
+    public synchronized boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return the result of the same image recognized with the same fingerprint, null if there is none
+     */
+    @Nullable
+    public synchronized OcrResult get(ImageHash hash, String fingerprint) {
+        if (!enabled) return null;
+        OcrResult result = entries.get(createKey(hash, fingerprint));
+        if (result == null) {
+            misses++;
+            Log.d(TAG, String.format(Locale.US, "miss (hit ratio %.2f)", getHitRatio()));
+            return null;
+        }
+        hits++;
+        Log.d(TAG, String.format(Locale.US, "hit (hit ratio %.2f)", getHitRatio()));
+        return result;
+    }
+
+    /**
+     * Keep a successful result, failures are never stored
+     */
+    public synchronized void put(ImageHash hash, String fingerprint, OcrResult result) {
+        if (!enabled || !result.isSuccess()) return;
+        entries.put(createKey(hash, fingerprint), result);
+        Iterator<String> iterator = entries.keySet().iterator();
+        while (entries.size() > CAPACITY && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    /**
+     * @return share of the lookups that returned a result, 0 before the first lookup
+     */
+    public synchronized float getHitRatio() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0 : (float) hits / lookups;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    private static String createKey(ImageHash hash, String fingerprint) {
+        return fingerprint + "|" + hash;
+    }
+}
@@ -0,0 +1,297 @@
+package io.github.subhamtyagi.ocr.ocr;
+
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+import android.os.CancellationSignal;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import com.googlecode.leptonica.android.Pix;
+import com.googlecode.leptonica.android.Pixa;
+import com.googlecode.leptonica.android.ReadFile;
+import com.googlecode.tesseract.android.ResultIterator;
+import com.googlecode.tesseract.android.TessBaseAPI;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Recognizes a large image by splitting it into the text blocks found by a layout analysis pass and
+ * recognizing the blocks in parallel on the engines of an {@link OcrEnginePool}.
+ */
+class TiledRecognizer {
+
+    public static final String TAG = "TiledRecognizer";
+
+    /**
+     * images smaller than this are recognized in one call, tiling does not pay off
+     */
+    static final int MIN_TILED_PIXELS = 2_000_000;
+
+    /**
+     * pixels added around each block so that glyphs on the block border are not clipped
+     */
+    private static final int TILE_MARGIN = 8;
+
+    /**
+     * two tiles or lines are the same if they overlap by this fraction of the smaller one
+     */
+    private static final float DUPLICATE_OVERLAP = 0.5f;
+
+    private final OcrEnginePool pool;
+    private final ExecutorService executor;
+
+    TiledRecognizer(OcrEnginePool pool) {
+        this.pool = pool;
+        this.executor = Executors.newFixedThreadPool(pool.getSize());
+    }
+
+    /**
+     * @return the merged result of all tiles, or null if the image has less than two blocks and
+     * should be recognized in one call
+     */
+    @Nullable
+    OcrResult recognize(Bitmap bitmap, @Nullable CancellationSignal signal) throws InterruptedException {
+        Pix pix;
+        if (bitmap.getConfig() == Bitmap.Config.ARGB_8888) {
+            pix = ReadFile.readBitmap(bitmap);
+        } else {
+            Bitmap argb = bitmap.copy(Bitmap.Config.ARGB_8888, false);
+            pix = ReadFile.readBitmap(argb);
+            argb.recycle();
+        }
+        if (pix == null) return null;
+        try {
+            return recognize(pix, signal);
+        } finally {
+            pix.recycle();
+        }
+    }
+
+    /**
+     * @param pix    the image, it is only read and stays owned by the caller
+     * @param signal stops every engine recognizing a tile of this image when cancelled
+     * @return the merged result of all tiles, or null if the image has less than two blocks and
+     * should be recognized in one call
+     */
+    @Nullable
+    OcrResult recognize(Pix pix, @Nullable CancellationSignal signal) throws InterruptedException {
+        long start = System.currentTimeMillis();
+        List<Rect> tiles = findTiles(pix);
+        if (signal != null && signal.isCanceled()) return OcrResult.failure(ImageTextReader.SCAN_CANCELLED);
+        if (tiles == null || tiles.size() < 2) return null;
+        long layoutTime = System.currentTimeMillis() - start;
+
+        Set<TessBaseAPI> engines = Collections.newSetFromMap(new ConcurrentHashMap<>());
+        AtomicBoolean abandoned = new AtomicBoolean();
+        List<Future<OcrResult.Page>> futures = new ArrayList<>(tiles.size());
+        for (Rect tile : tiles) {
+            futures.add(executor.submit(() -> recognizeTile(pix, tile, engines, abandoned)));
+        }
+        if (signal != null) {
+            signal.setOnCancelListener(() -> abandon(abandoned, engines));
+        }
+        List<OcrResult.Line> accepted = new ArrayList<>();
+        List<OcrResult.Block> blocks = new ArrayList<>();
+        try {
+            for (Future<OcrResult.Page> future : futures) {
+                OcrResult.Page page = future.get();
+                if (page == null) continue;
+                for (OcrResult.Block block : page.getBlocks()) {
+                    List<OcrResult.Line> lines = new ArrayList<>();
+                    for (OcrResult.Line line : block.getLines()) {
+                        if (!isDuplicate(accepted, line)) lines.add(line);
+                    }
+                    if (lines.isEmpty()) continue;
+                    accepted.addAll(lines);
+                    blocks.add(new OcrResult.Block(block.getBox(), block.getConfidence(), lines));
+                }
+            }
+        } catch (CancellationException e) {
+            return OcrResult.failure(ImageTextReader.SCAN_CANCELLED);
+        } catch (ExecutionException e) {
+            Log.e(TAG, "recognize: " + e.getLocalizedMessage());
+            return null;
+        } finally {
+            if (signal != null) {
+                signal.setOnCancelListener(null);
+            }
+            // the caller recycles the pix once this returns, no tile may still be reading it
+            abandon(abandoned, engines);
+            awaitAll(futures);
+        }
+        if (signal != null && signal.isCanceled()) {
+            return OcrResult.failure(ImageTextReader.SCAN_CANCELLED);
+        }
+        Log.d(TAG, String.format(Locale.US, "tiled: %.1f MP, %d tiles, layout %d ms, total %d ms",
+                pix.getWidth() * pix.getHeight() / 1e6, tiles.size(), layoutTime, System.currentTimeMillis() - start));
+        Rect pageBox = new Rect(0, 0, pix.getWidth(), pix.getHeight());
+        return new OcrResult(Collections.singletonList(new OcrResult.Page(pageBox, blocks)));
+    }
+
+    void shutdown() {
+        // tiles which never started would leave their recognize() waiting forever
+        for (Runnable queued : executor.shutdownNow()) {
+            if (queued instanceof Future) ((Future<?>) queued).cancel(false);
+        }
+    }
+
+    /**
+     * make the tiles not started yet return at once and stop the engines recognizing the others
+     */
+    private static void abandon(AtomicBoolean abandoned, Set<TessBaseAPI> engines) {
+        abandoned.set(true);
+        for (TessBaseAPI api : engines) {
+            api.stop();
+        }
+    }
+
+    /**
+     * wait until every tile is done with the image, whatever the outcome
+     */
+    private static void awaitAll(List<? extends Future<?>> futures) {
+        boolean interrupted = false;
+        for (Future<?> future : futures) {
+            while (true) {
+                try {
+                    future.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (CancellationException | ExecutionException e) {
+                    break;
+                }
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    /**
+     * cheap layout pass: find the text blocks without recognizing them, grow them by a margin and
+     * merge the ones which overlap, sorted in reading order
+     */
+    @Nullable
+    private List<Rect> findTiles(Pix pix) throws InterruptedException {
+        TessBaseAPI api = pool.acquire();
+        if (api == null) return null;
+        List<Rect> blocks;
+        try {
+            api.setImage(pix);
+            Pixa regions = api.getRegions();
+            if (regions == null) return null;
+            blocks = regions.getBoxRects();
+            regions.recycle();
+        } finally {
+            pool.release(api);
+        }
+        Rect bounds = new Rect(0, 0, pix.getWidth(), pix.getHeight());
+        List<Rect> tiles = new ArrayList<>();
+        for (Rect block : blocks) {
+            Rect tile = new Rect(block);
+            tile.inset(-TILE_MARGIN, -TILE_MARGIN);
+            if (!tile.intersect(bounds)) continue;
+            mergeInto(tiles, tile);
+        }
+        return inReadingOrder(tiles);
+    }
+
+    /**
+     * @param engines   the engines busy with tiles of this image, the one leased here is added while
+     *                  it recognizes the tile
+     * @param abandoned set once the result of the image is no longer wanted
+     * @return the blocks of the tile in image coordinates, null if nothing was recognized
+     */
+    @Nullable
+    private OcrResult.Page recognizeTile(Pix pix, Rect tile, Set<TessBaseAPI> engines,
+                                         AtomicBoolean abandoned) throws InterruptedException {
+        if (abandoned.get()) return null;
+        TessBaseAPI api = pool.acquire();
+        if (api == null) return null;
+        engines.add(api);
+        try {
+            // checked after joining the engines so that abandon() either is seen here or stops the engine
+            if (abandoned.get()) return null;
+            api.setImage(pix);
+            api.setRectangle(tile);
+            api.getUTF8Text();
+            ResultIterator iterator = api.getResultIterator();
+            if (iterator == null) return null;
+            try {
+                return OcrResult.readPage(iterator, pix.getWidth(), pix.getHeight());
+            } finally {
+                iterator.delete();
+            }
+        } finally {
+            engines.remove(api);
+            pool.release(api);
+        }
+    }
+
+    /**
+     * add the tile, swallowing every tile it overlaps with and growing it to cover them
+     */
+    private static void mergeInto(List<Rect> tiles, Rect tile) {
+        boolean merged = true;
+        while (merged) {
+            merged = false;
+            for (int i = 0; i < tiles.size(); i++) {
+                if (overlap(tiles.get(i), tile) >= DUPLICATE_OVERLAP) {
+                    tile.union(tiles.remove(i));
+                    merged = true;
+                    break;
+                }
+            }
+        }
+        tiles.add(tile);
+    }
+
+    private static boolean isDuplicate(List<OcrResult.Line> accepted, OcrResult.Line line) {
+        for (OcrResult.Line other : accepted) {
+            if (overlap(other.box, line.box) >= DUPLICATE_OVERLAP) return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return intersection area divided by the area of the smaller rectangle
+     */
+    private static float overlap(Rect a, Rect b) {
+        Rect intersection = new Rect();
+        if (!intersection.setIntersect(a, b)) return 0;
+        long smaller = Math.min((long) a.width() * a.height(), (long) b.width() * b.height());
+        if (smaller <= 0) return 0;
+        return (float) intersection.width() * intersection.height() / smaller;
+    }
+
+    /**
+     * top to bottom; rectangles starting within half the height of the first rectangle of a band
+     * belong to that band and are ordered left to right
+     */
+    private static List<Rect> inReadingOrder(List<Rect> tiles) {
+        tiles.sort(Comparator.comparingInt(r -> r.top));
+        List<Rect> ordered = new ArrayList<>(tiles.size());
+        int bandStart = 0;
+        for (int i = 1; i <= tiles.size(); i++) {
+            Rect first = tiles.get(bandStart);
+            if (i == tiles.size() || tiles.get(i).top - first.top > first.height() / 2) {
+                List<Rect> band = new ArrayList<>(tiles.subList(bandStart, i));
+                band.sort(Comparator.comparingInt(r -> r.left));
+                ordered.addAll(band);
+                bandStart = i;
+            }
+        }
+        return ordered;
+    }
+}
@@ -0,0 +1,80 @@
+package io.github.subhamtyagi.ocr.pipeline;
+
+import androidx.annotation.Nullable;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import io.github.subhamtyagi.ocr.ocr.OcrResult;
+
+/**
+ * Handle of an image submitted to the {@link OcrService}. Cancelling it stops the engines working
+ * on the image right away instead of waiting for the recognition to finish.
+ */
+public class OcrJob implements Future<OcrResult> {
+
+    private final OcrTask task;
+    @Nullable
+    private final String key;
+
+    OcrJob(OcrTask task, @Nullable String key) {
+        this.task = task;
+        this.key = key;
+    }
+
+    public OcrTask getTask() {
+        return task;
+    }
+
+    /**
+     * @return the key of the jobs superseding each other, null if the job is never coalesced
+     */
+    @Nullable
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * @param mayInterruptIfRunning ignored, a running recognition is always stopped
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        if (isDone()) return false;
+        task.cancel();
+        return true;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return task.isCancelled();
+    }
+
+    @Override
+    public boolean isDone() {
+        return task.recognized.getCount() == 0;
+    }
+
+    @Override
+    public OcrResult get() throws InterruptedException {
+        task.recognized.await();
+        return getResult();
+    }
+
+    @Override
+    public OcrResult get(long timeout, TimeUnit unit) throws InterruptedException, TimeoutException {
+        if (!task.recognized.await(timeout, unit)) {
+            throw new TimeoutException();
+        }
+        return getResult();
+    }
+
+    private OcrResult getResult() {
+        if (task.isCancelled()) throw new CancellationException();
+        OcrResult result = task.getResult();
+        // dropped by a pipeline which was shut down
+        if (result == null) throw new CancellationException();
+        return result;
+    }
+}
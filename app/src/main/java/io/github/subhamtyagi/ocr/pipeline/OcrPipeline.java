@@ -0,0 +1,352 @@
+package io.github.subhamtyagi.ocr.pipeline;
+
+import android.content.ContentResolver;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import com.googlecode.leptonica.android.Pix;
+import com.googlecode.leptonica.android.WriteFile;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Supplier;
+
+import io.github.subhamtyagi.ocr.image.BitmapDecoder;
+import io.github.subhamtyagi.ocr.image.ImageHash;
+import io.github.subhamtyagi.ocr.image.PreprocessPipeline;
+import io.github.subhamtyagi.ocr.image.ResolutionNormalizer;
+import io.github.subhamtyagi.ocr.ocr.ImageTextReader;
+import io.github.subhamtyagi.ocr.ocr.OcrResult;
+import io.github.subhamtyagi.ocr.ocr.ResultCache;
+
+/**
+ * decode → preprocess → recognize → postprocess, each stage on its own threads and connected by
+ * bounded queues, so that one image is preprocessed while the one before it is inside tesseract.
+ */
+public class OcrPipeline {
+
+    public static final String TAG = "OcrPipeline";
+
+    /**
+     * images waiting for a stage; small since every waiting image is a full frame in memory
+     */
+    private static final int DECODE_QUEUE_CAPACITY = 4;
+    private static final int NORMALIZE_QUEUE_CAPACITY = 1;
+    private static final int PREPROCESS_QUEUE_CAPACITY = 1;
+    private static final int RECOGNIZE_QUEUE_CAPACITY = 2;
+    private static final int POSTPROCESS_QUEUE_CAPACITY = 2;
+
+    private final BitmapDecoder decoder;
+    private final Supplier<ImageTextReader> readerSupplier;
+    private final Supplier<PreprocessPipeline> preprocessSupplier;
+    private final StagedPipeline<OcrTask> pipeline;
+    @Nullable
+    private volatile ResultCache resultCache;
+    private volatile boolean normalizeResolution;
+
+    /**
+     * engine time and image size of every recognized image, for the time per megapixel
+     */
+    private long totalRecognizeMs;
+    private long totalRecognizedPixels;
+
+    /**
+     * @param readerSupplier     the reader recognizing the images, asked for each image
+     * @param preprocessSupplier the preprocessing of the settings, asked for each image
+     * @param engines            threads of the recognize stage, usually the engine pool size
+     */
+    public OcrPipeline(ContentResolver contentResolver, Supplier<ImageTextReader> readerSupplier,
+                       Supplier<PreprocessPipeline> preprocessSupplier, int engines) {
+        this.decoder = new BitmapDecoder(contentResolver);
+        this.readerSupplier = readerSupplier;
+        this.preprocessSupplier = preprocessSupplier;
+        this.pipeline = new StagedPipeline.Builder<OcrTask>()
+                .addStage("decode", 1, DECODE_QUEUE_CAPACITY, task -> {
+                    decode(task);
+                    lookUpResult(task);
+                    toLuminance(task);
+                })
+                .addStage("normalize", 1, NORMALIZE_QUEUE_CAPACITY, this::normalize)
+                .addStage("preprocess", 1, PREPROCESS_QUEUE_CAPACITY, this::preprocess)
+                .addStage("recognize", engines, RECOGNIZE_QUEUE_CAPACITY, this::recognize)
+                .addStage("postprocess", 1, POSTPROCESS_QUEUE_CAPACITY, this::postprocess)
+                .build(new StagedPipeline.Listener<OcrTask>() {
+                    @Override
+                    public void onDone(OcrTask task) {
+                    }
+
+                    @Override
+                    public void onError(OcrTask task, Exception e) {
+                        Log.e(TAG, "onError: " + e.getLocalizedMessage());
+                        task.fail(e instanceof InterruptedException
+                                ? ImageTextReader.SCAN_FAILED_INTERRUPTED
+                                : ImageTextReader.SCAN_FAILED_ERROR);
+                        notifyRecognized(task);
+                        finish(task);
+                    }
+                });
+    }
+
+    /**
+     * @return the decoder of the images, it also decodes them for display
+     */
+    public BitmapDecoder getDecoder() {
+        return decoder;
+    }
+
+    /**
+     * @param resultCache where results are looked up before an image is recognized, null to always recognize
+     */
+    public void setResultCache(@Nullable ResultCache resultCache) {
+        this.resultCache = resultCache;
+    }
+
+    /**
+     * @param normalizeResolution whether images are rescaled to the x-height tesseract reads best
+     *                            before they are preprocessed, see {@link ResolutionNormalizer}
+     */
+    public void setNormalizeResolution(boolean normalizeResolution) {
+        this.normalizeResolution = normalizeResolution;
+    }
+
+    /**
+     * Follow a change of the engine pool size, so every engine of the reader has an image to work on
+     * and no more images wait inside the reader than it has engines.
+     *
+     * @param engines threads of the recognize stage
+     */
+    public void setEngines(int engines) {
+        pipeline.setThreads("recognize", engines);
+    }
+
+    /**
+     * @return engine time per megapixel of the images recognized so far, 0 before the first one
+     */
+    public synchronized float getRecognizeMsPerMegapixel() {
+        return totalRecognizedPixels == 0 ? 0 : totalRecognizeMs * 1e6f / totalRecognizedPixels;
+    }
+
+    /**
+     * Add an image, waiting while the decode queue is full.
+     */
+    public void submit(OcrTask task) throws InterruptedException {
+        task.submitTime = System.currentTimeMillis();
+        pipeline.submit(task);
+    }
+
+    /**
+     * Add an image if the decode queue has room.
+     */
+    public boolean offer(OcrTask task) {
+        task.submitTime = System.currentTimeMillis();
+        return pipeline.offer(task);
+    }
+
+    /**
+     * @return queue depth and latency of every stage
+     */
+    public List<StagedPipeline.StageStats> getStats() {
+        return pipeline.getStats();
+    }
+
+    public void logStats() {
+        pipeline.logStats();
+    }
+
+    /**
+     * Stop every stage and free the images still waiting, their callbacks are not called.
+     */
+    public void shutdown() {
+        decoder.shutdown();
+        for (OcrTask task : pipeline.shutdownNow()) {
+            task.cancel();
+            task.release();
+        }
+    }
+
+    private void decode(OcrTask task) {
+        if (task.isFinished() || task.bitmap != null) return;
+        long start = System.currentTimeMillis();
+        task.bitmap = decoder.decodeForOcr(task.uri);
+        task.decodeMs = System.currentTimeMillis() - start;
+        if (task.bitmap == null) {
+            task.fail("Could not decode " + task.uri);
+        }
+    }
+
+    /**
+     * Convert the decoded image to the 8 bit image every later stage works on, and free the
+     * bitmap right away if the pipeline decoded it.
+     */
+    private void toLuminance(OcrTask task) {
+        if (task.isFinished() || task.bitmap == null) return;
+        long start = System.currentTimeMillis();
+        task.decodedPixels = (long) task.bitmap.getWidth() * task.bitmap.getHeight();
+        task.pix = BitmapDecoder.toGrayPix(task.bitmap);
+        // the luminance array read from the bitmap is alive until here
+        task.trackImageBytes(task.decodedPixels);
+        if (task.ownsBitmap) {
+            task.bitmap.recycle();
+            task.bitmap = null;
+        }
+        task.decodeMs += System.currentTimeMillis() - start;
+    }
+
+    private void normalize(OcrTask task) {
+        if (task.isFinished() || task.pix == null || !normalizeResolution) return;
+        long start = System.currentTimeMillis();
+        long inputBytes = OcrTask.getBytes(task.pix);
+        Pix normalized = ResolutionNormalizer.normalize(task.pix);
+        if (normalized != task.pix) {
+            task.pix = normalized;
+            task.trackImageBytes(inputBytes);
+        }
+        task.normalizeMs = System.currentTimeMillis() - start;
+    }
+
+    /**
+     * hash the decoded image and take the result of the same image recognized before, the later
+     * stages skip a task with a result
+     */
+    private void lookUpResult(OcrTask task) {
+        ResultCache cache = resultCache;
+        if (task.isFinished() || cache == null || !cache.isEnabled()) return;
+        String fingerprint = getFingerprint(task, task.preprocess);
+        if (fingerprint == null) return;
+        task.hash = ImageHash.of(task.bitmap);
+        OcrResult result = cache.get(task.hash, fingerprint);
+        if (result != null) {
+            task.result = result;
+        }
+    }
+
+    /**
+     * @return what the result of the task depends on besides the image, null if it is not known
+     */
+    @Nullable
+    private String getFingerprint(OcrTask task, boolean preprocess) {
+        ImageTextReader reader = readerSupplier.get();
+        String engineKey = reader != null ? reader.getCacheKey() : null;
+        if (engineKey == null) return null;
+        PreprocessPipeline preprocessPipeline = preprocess ? preprocessSupplier.get() : null;
+        String steps = preprocessPipeline != null ? preprocessPipeline.getFingerprint() : "";
+        return engineKey + "|" + (normalizeResolution ? "n" : "") + steps + "|" + (task.tiled ? "tiled" : "");
+    }
+
+    private void preprocess(OcrTask task) {
+        if (task.isFinished() || task.pix == null) return;
+        PreprocessPipeline preprocessPipeline = task.preprocess ? preprocessSupplier.get() : null;
+        if (preprocessPipeline != null) {
+            long start = System.currentTimeMillis();
+            // every step holds its input and its output, never more than two images at once
+            long inputBytes = OcrTask.getBytes(task.pix);
+            task.pix = preprocessPipeline.process8(task.pix);
+            task.trackImageBytes(inputBytes);
+            task.preprocessMs = System.currentTimeMillis() - start;
+        }
+        if (task.keepDisplayImage) {
+            // shares the pixels, the bitmap is made in postprocess once the text is out
+            task.display = task.pix.clone();
+        }
+    }
+
+    private void recognize(OcrTask task) {
+        if (!task.isFinished()) {
+            ImageTextReader reader = readerSupplier.get();
+            if (reader == null) {
+                task.fail(ImageTextReader.SCAN_FAILED_NO_ENGINE);
+            } else {
+                long start = System.currentTimeMillis();
+                task.recognizedPixels = task.pix != null
+                        ? (long) task.pix.getWidth() * task.pix.getHeight()
+                        : (long) task.bitmap.getWidth() * task.bitmap.getHeight();
+                if (task.pix != null) {
+                    task.result = reader.getResultFromOwnedPix(task.pix, task.tiled, task.signal);
+                    task.pix = null;
+                } else {
+                    task.result = task.tiled
+                            ? reader.getResultFromBitmapTiled(task.bitmap, task.signal)
+                            : reader.getResultFromBitmap(task.bitmap, task.signal);
+                }
+                task.recognizeMs = System.currentTimeMillis() - start;
+                synchronized (this) {
+                    totalRecognizeMs += task.recognizeMs;
+                    totalRecognizedPixels += task.recognizedPixels;
+                }
+                ResultCache cache = resultCache;
+                String fingerprint = getFingerprint(task, task.preprocess);
+                if (cache != null && task.hash != null && fingerprint != null) {
+                    cache.put(task.hash, fingerprint, task.result);
+                }
+            }
+        }
+        notifyRecognized(task);
+    }
+
+    private void postprocess(OcrTask task) {
+        try {
+            if (!task.cancelled && task.keepDisplayImage) {
+                long start = System.currentTimeMillis();
+                if (task.display != null) {
+                    task.displayBitmap = WriteFile.writeBitmap(task.display);
+                    task.display.recycle();
+                    task.display = null;
+                    cacheDisplayResult(task);
+                } else {
+                    task.displayBitmap = task.bitmap;
+                }
+                task.postprocessMs = System.currentTimeMillis() - start;
+            }
+            if (!task.cancelled) {
+                task.callback.onDone(task);
+            }
+        } finally {
+            finish(task);
+        }
+    }
+
+    /**
+     * The display image is exactly what was recognized: refreshing it recognizes it again without
+     * preprocessing, so its result is stored for that too.
+     */
+    private void cacheDisplayResult(OcrTask task) {
+        ResultCache cache = resultCache;
+        if (cache == null || !cache.isEnabled() || task.hash == null || task.result == null) return;
+        String fingerprint = getFingerprint(task, false);
+        if (fingerprint != null) {
+            cache.put(ImageHash.of(task.displayBitmap), fingerprint, task.result);
+        }
+    }
+
+    private static void notifyRecognized(OcrTask task) {
+        if (task.recognizedNotified) return;
+        task.recognizedNotified = true;
+        task.totalMs = System.currentTimeMillis() - task.submitTime;
+        try {
+            if (!task.cancelled) {
+                task.callback.onRecognized(task);
+            }
+        } finally {
+            task.recognized.countDown();
+        }
+    }
+
+    private void finish(OcrTask task) {
+        task.release();
+        Log.d(TAG, String.format(Locale.US, "task: decode %d ms, normalize %d ms, preprocess %d ms, recognize %d ms, postprocess %d ms, total %d ms",
+                task.decodeMs, task.normalizeMs, task.preprocessMs, task.recognizeMs, task.postprocessMs, task.totalMs));
+        if (task.decodedPixels > 0) {
+            Log.d(TAG, String.format(Locale.US, "task: images peaked at %.1f MB for %.1f MP, %.1f bytes per pixel",
+                    task.peakImageBytes / 1048576f, task.decodedPixels / 1e6f, (float) task.peakImageBytes / task.decodedPixels));
+        }
+        if (task.recognizedPixels > 0 && task.decodedPixels != task.recognizedPixels) {
+            // what the engine would have taken at the decoded size, at the average speed so far
+            float removedMegapixels = (task.decodedPixels - task.recognizedPixels) / 1e6f;
+            float msPerMegapixel = getRecognizeMsPerMegapixel();
+            Log.d(TAG, String.format(Locale.US, "normalize: %.1f -> %.1f MP, saved about %.0f ms (%.0f ms/MP, %.0f ms per decoded MP)",
+                    task.decodedPixels / 1e6f, task.recognizedPixels / 1e6f, removedMegapixels * msPerMegapixel - task.normalizeMs,
+                    msPerMegapixel, (removedMegapixels * msPerMegapixel - task.normalizeMs) * 1e6f / task.decodedPixels));
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package io.github.subhamtyagi.ocr.pipeline;
+
+import androidx.annotation.Nullable;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Asynchronous entry point of the {@link OcrPipeline}: every submitted image gets an {@link OcrJob}
+ * handle. Jobs submitted with the same key supersede each other, submitting one cancels the job
+ * still running for that key so that stale work never holds up the latest request.
+ */
+public class OcrService {
+
+    private final OcrPipeline pipeline;
+    private final Map<String, OcrJob> latestJobs = new ConcurrentHashMap<>();
+
+    /**
+     * hands the images over while the decode queue is full, the caller never blocks
+     */
+    private final ExecutorService submitter = Executors.newSingleThreadExecutor();
+
+    public OcrService(OcrPipeline pipeline) {
+        this.pipeline = pipeline;
+    }
+
+    /**
+     * @return the handle of the job, never coalesced with other jobs
+     */
+    public OcrJob submit(OcrTask task) {
+        return submit(null, task);
+    }
+
+    /**
+     * @param key the job still running under this key is cancelled, null to not coalesce
+     * @return the handle of the job
+     */
+    public OcrJob submit(@Nullable String key, OcrTask task) {
+        OcrJob job = new OcrJob(task, key);
+        if (key != null) {
+            OcrJob previous = latestJobs.put(key, job);
+            if (previous != null) {
+                previous.cancel(true);
+            }
+        }
+        if (!pipeline.offer(task)) {
+            try {
+                submitter.execute(() -> {
+                    try {
+                        // superseded while waiting for room
+                        if (!task.isCancelled()) pipeline.submit(task);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        task.cancel();
+                    } catch (IllegalStateException e) {
+                        task.cancel();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                task.cancel();
+            }
+        }
+        return job;
+    }
+
+    /**
+     * @return the latest job submitted under the key, null if there was none
+     */
+    @Nullable
+    public OcrJob getLatestJob(String key) {
+        return latestJobs.get(key);
+    }
+
+    /**
+     * Cancel the job running under the key, if any.
+     *
+     * @return true if a running job was cancelled
+     */
+    public boolean cancel(String key) {
+        OcrJob job = latestJobs.remove(key);
+        return job != null && job.cancel(true);
+    }
+
+    /**
+     * Cancel every job and stop the pipeline.
+     */
+    public void shutdown() {
+        for (OcrJob job : latestJobs.values()) {
+            job.cancel(true);
+        }
+        latestJobs.clear();
+        submitter.shutdownNow();
+        pipeline.shutdown();
+    }
+}
@@ -0,0 +1,241 @@
+package io.github.subhamtyagi.ocr.pipeline;
+
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.os.CancellationSignal;
+
+import androidx.annotation.Nullable;
+
+import com.googlecode.leptonica.android.Pix;
+
+import java.util.concurrent.CountDownLatch;
+
+import io.github.subhamtyagi.ocr.image.ImageHash;
+import io.github.subhamtyagi.ocr.ocr.OcrResult;
+
+/**
+ * One image travelling through the {@link OcrPipeline}, with the intermediate images of the stages
+ * and the time spent in each of them.
+ */
+public class OcrTask {
+
+    public interface Callback {
+        /**
+         * called once the text is recognized, or the task failed, on a worker thread
+         */
+        void onRecognized(OcrTask task);
+
+        /**
+         * called after {@link #onRecognized(OcrTask)} once the image for display is ready, on a
+         * worker thread. The display bitmap is only valid during this call.
+         */
+        void onDone(OcrTask task);
+    }
+
+    @Nullable
+    final Uri uri;
+    final boolean preprocess;
+    final Callback callback;
+    boolean tiled;
+    boolean keepDisplayImage;
+
+    /**
+     * the decoded image, recycled by the pipeline only if it decoded it
+     */
+    Bitmap bitmap;
+    final boolean ownsBitmap;
+    Pix pix;
+    Pix display;
+    /**
+     * of the decoded image, set only while results are cached
+     */
+    ImageHash hash;
+    Bitmap displayBitmap;
+    volatile OcrResult result;
+    volatile boolean recognizedNotified;
+    volatile boolean cancelled;
+    final CancellationSignal signal = new CancellationSignal();
+    /**
+     * released once the result is known, the task was cancelled or the pipeline dropped it
+     */
+    final CountDownLatch recognized = new CountDownLatch(1);
+
+    volatile long submitTime;
+    volatile long decodeMs;
+    volatile long normalizeMs;
+    volatile long preprocessMs;
+    volatile long recognizeMs;
+    volatile long postprocessMs;
+    volatile long totalMs;
+    /**
+     * size of the image as decoded and as handed to the engine
+     */
+    volatile long decodedPixels;
+    volatile long recognizedPixels;
+    /**
+     * the most memory the images of the task took at once, before the engine got the image
+     */
+    volatile long peakImageBytes;
+
+    private OcrTask(@Nullable Uri uri, @Nullable Bitmap bitmap, boolean preprocess, Callback callback) {
+        this.uri = uri;
+        this.bitmap = bitmap;
+        this.ownsBitmap = bitmap == null;
+        this.preprocess = preprocess;
+        this.callback = callback;
+    }
+
+    /**
+     * @param preprocess whether the enhancement steps of the settings are applied first
+     */
+    public static OcrTask forUri(Uri uri, boolean preprocess, Callback callback) {
+        return new OcrTask(uri, null, preprocess, callback);
+    }
+
+    /**
+     * @param bitmap     a image still owned by the caller, it is not modified or recycled
+     * @param preprocess whether the enhancement steps of the settings are applied first
+     */
+    public static OcrTask forBitmap(Bitmap bitmap, boolean preprocess, Callback callback) {
+        return new OcrTask(null, bitmap, preprocess, callback);
+    }
+
+    /**
+     * @param tiled whether large images may be split into blocks recognized in parallel
+     */
+    public void setTiled(boolean tiled) {
+        this.tiled = tiled;
+    }
+
+    /**
+     * @param keepDisplayImage whether a bitmap of the recognized image is made for
+     *                         {@link Callback#onDone(OcrTask)}
+     */
+    public void setKeepDisplayImage(boolean keepDisplayImage) {
+        this.keepDisplayImage = keepDisplayImage;
+    }
+
+    /**
+     * Skip the remaining stages and stop the engines recognizing this image, no callback is called
+     * afterwards.
+     */
+    public void cancel() {
+        cancelled = true;
+        signal.cancel();
+        recognized.countDown();
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    @Nullable
+    public Uri getUri() {
+        return uri;
+    }
+
+    /**
+     * @return the result, null until {@link Callback#onRecognized(OcrTask)}
+     */
+    @Nullable
+    public OcrResult getResult() {
+        return result;
+    }
+
+    /**
+     * @return the recognized image, the preprocessed one if preprocessing was applied; null if
+     * not requested
+     */
+    @Nullable
+    public Bitmap getDisplayBitmap() {
+        return displayBitmap;
+    }
+
+    public long getDecodeMs() {
+        return decodeMs;
+    }
+
+    /**
+     * @return the most memory the images of the task took at once on the way to the engine
+     */
+    public long getPeakImageBytes() {
+        return peakImageBytes;
+    }
+
+    /**
+     * remember the memory of the images held now if it is the most so far
+     *
+     * @param transientBytes memory of an intermediate not held in a field, i.e. a step's input
+     */
+    void trackImageBytes(long transientBytes) {
+        long bytes = transientBytes;
+        if (bitmap != null) {
+            bytes += bitmap.getByteCount();
+        }
+        if (pix != null) {
+            bytes += getBytes(pix);
+        }
+        peakImageBytes = Math.max(peakImageBytes, bytes);
+    }
+
+    static long getBytes(Pix pix) {
+        return (long) pix.getWidth() * pix.getHeight() * pix.getDepth() / 8;
+    }
+
+    public long getNormalizeMs() {
+        return normalizeMs;
+    }
+
+    public long getPreprocessMs() {
+        return preprocessMs;
+    }
+
+    public long getRecognizeMs() {
+        return recognizeMs;
+    }
+
+    public long getPostprocessMs() {
+        return postprocessMs;
+    }
+
+    /**
+     * @return time from the submission until the text was recognized, including the time spent
+     * waiting in the queues
+     */
+    public long getTotalMs() {
+        return totalMs;
+    }
+
+    void fail(String error) {
+        if (result == null) {
+            result = OcrResult.failure(error);
+        }
+    }
+
+    boolean isFinished() {
+        return cancelled || result != null;
+    }
+
+    /**
+     * free every image the pipeline made for this task
+     */
+    void release() {
+        recognized.countDown();
+        if (pix != null) {
+            pix.recycle();
+            pix = null;
+        }
+        if (display != null) {
+            display.recycle();
+            display = null;
+        }
+        if (displayBitmap != null && displayBitmap != bitmap) {
+            displayBitmap.recycle();
+        }
+        displayBitmap = null;
+        if (bitmap != null && ownsBitmap) {
+            bitmap.recycle();
+        }
+        bitmap = null;
+    }
+}
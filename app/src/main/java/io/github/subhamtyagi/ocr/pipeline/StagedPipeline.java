@@ -0,0 +1,333 @@
+package io.github.subhamtyagi.ocr.pipeline;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A chain of stages connected by bounded queues. Every stage has its own worker threads, so an item
+ * in one stage overlaps with the next item in the stage before it. A full queue blocks the stage
+ * feeding it, which bounds the number of items in flight.
+ *
+ * @param <T> the item passed from stage to stage
+ */
+public class StagedPipeline<T> {
+
+    public static final String TAG = "StagedPipeline";
+
+    public interface Step<T> {
+        void process(T item) throws Exception;
+    }
+
+    public interface Listener<T> {
+        /**
+         * called on a worker thread of the last stage
+         */
+        void onDone(T item);
+
+        /**
+         * called on the worker thread of the stage which failed or was interrupted, the item does
+         * not reach the later stages
+         */
+        void onError(T item, Exception e);
+    }
+
+    private final List<Stage> stages;
+    private final Listener<T> listener;
+    private volatile boolean shutdown;
+
+    private StagedPipeline(List<StageSpec<T>> specs, Listener<T> listener) {
+        this.listener = listener;
+        List<Stage> stages = new ArrayList<>(specs.size());
+        for (StageSpec<T> spec : specs) {
+            stages.add(new Stage(spec));
+        }
+        for (int i = 0; i < stages.size() - 1; i++) {
+            stages.get(i).next = stages.get(i + 1);
+        }
+        this.stages = Collections.unmodifiableList(stages);
+        for (Stage stage : stages) {
+            stage.start();
+        }
+    }
+
+    /**
+     * Add an item to the first stage, waiting while its queue is full.
+     */
+    public void submit(T item) throws InterruptedException {
+        if (shutdown) throw new IllegalStateException("pipeline is shut down");
+        stages.get(0).queue.put(item);
+    }
+
+    /**
+     * Add an item to the first stage if its queue has room.
+     *
+     * @return false if the queue is full or the pipeline is shut down
+     */
+    public boolean offer(T item) {
+        return !shutdown && stages.get(0).queue.offer(item);
+    }
+
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    /**
+     * Change the number of worker threads of a stage. New workers start right away, workers over
+     * the number leave once they are done with the item they hold.
+     *
+     * @param name    the name the stage was added with
+     * @param threads worker threads of the stage from now on
+     */
+    public void setThreads(String name, int threads) {
+        for (Stage stage : stages) {
+            if (stage.name.equals(name)) {
+                stage.setThreads(Math.max(1, threads));
+                return;
+            }
+        }
+        throw new IllegalArgumentException("no stage " + name);
+    }
+
+    /**
+     * Interrupt every worker. Items held by a worker are reported to
+     * {@link Listener#onError(Object, Exception)}.
+     *
+     * @return the items still waiting in a queue
+     */
+    public List<T> shutdownNow() {
+        shutdown = true;
+        for (Stage stage : stages) {
+            stage.interrupt();
+        }
+        List<T> pending = new ArrayList<>();
+        for (Stage stage : stages) {
+            stage.queue.drainTo(pending);
+        }
+        return pending;
+    }
+
+    /**
+     * @return queue depth and latency of every stage, in stage order
+     */
+    public List<StageStats> getStats() {
+        List<StageStats> stats = new ArrayList<>(stages.size());
+        for (Stage stage : stages) {
+            stats.add(stage.getStats());
+        }
+        return stats;
+    }
+
+    public void logStats() {
+        for (StageStats stats : getStats()) {
+            Log.d(TAG, stats.toString());
+        }
+    }
+
+    private class Stage {
+        final String name;
+        volatile int threads;
+        final int capacity;
+        final BlockingQueue<T> queue;
+        final Step<T> step;
+        final List<Thread> workers = new ArrayList<>();
+        /**
+         * workers started and not yet left, guarded by the stage
+         */
+        int running;
+        int nextWorker;
+        Stage next;
+
+        final AtomicLong processed = new AtomicLong();
+        final AtomicLong failed = new AtomicLong();
+        final AtomicLong busyNanos = new AtomicLong();
+        final AtomicLong maxNanos = new AtomicLong();
+
+        Stage(StageSpec<T> spec) {
+            this.name = spec.name;
+            this.threads = spec.threads;
+            this.capacity = spec.capacity;
+            this.queue = new ArrayBlockingQueue<>(spec.capacity);
+            this.step = spec.step;
+        }
+
+        void start() {
+            setThreads(threads);
+        }
+
+        synchronized void setThreads(int threads) {
+            this.threads = threads;
+            workers.removeIf(worker -> !worker.isAlive());
+            while (!shutdown && running < threads) {
+                running++;
+                Thread worker = new Thread(this::work, "pipeline-" + name + "-" + nextWorker++);
+                workers.add(worker);
+                worker.start();
+            }
+        }
+
+        synchronized void interrupt() {
+            for (Thread worker : workers) {
+                worker.interrupt();
+            }
+        }
+
+        /**
+         * count the worker out if the stage has more than it should, checked between items
+         */
+        private synchronized boolean leaveIfSurplus() {
+            if (running <= threads) return false;
+            running--;
+            return true;
+        }
+
+        private void work() {
+            boolean countedOut = false;
+            try {
+                countedOut = loop();
+            } finally {
+                if (!countedOut) {
+                    synchronized (this) {
+                        running--;
+                    }
+                }
+            }
+        }
+
+        /**
+         * @return true if the worker left as surplus, counted out already
+         */
+        private boolean loop() {
+            while (!shutdown) {
+                if (leaveIfSurplus()) return true;
+                T item;
+                try {
+                    item = queue.take();
+                } catch (InterruptedException e) {
+                    return false;
+                }
+                long start = System.nanoTime();
+                try {
+                    step.process(item);
+                } catch (Exception e) {
+                    record(start);
+                    failed.incrementAndGet();
+                    listener.onError(item, e);
+                    if (e instanceof InterruptedException) return false;
+                    continue;
+                }
+                record(start);
+                if (shutdown) {
+                    // the queues were already drained, hand the item back instead of losing it
+                    listener.onError(item, new InterruptedException("pipeline is shut down"));
+                    return false;
+                }
+                if (next == null) {
+                    listener.onDone(item);
+                    continue;
+                }
+                try {
+                    next.queue.put(item);
+                } catch (InterruptedException e) {
+                    listener.onError(item, e);
+                    return false;
+                }
+            }
+            return false;
+        }
+
+        private void record(long start) {
+            long nanos = System.nanoTime() - start;
+            processed.incrementAndGet();
+            busyNanos.addAndGet(nanos);
+            long max;
+            while (nanos > (max = maxNanos.get()) && !maxNanos.compareAndSet(max, nanos)) {
+                // retry until the max is updated or no longer smaller
+            }
+        }
+
+        StageStats getStats() {
+            long count = processed.get();
+            return new StageStats(name, threads, queue.size(), capacity, count, failed.get(),
+                    count == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(busyNanos.get() / count),
+                    TimeUnit.NANOSECONDS.toMillis(maxNanos.get()));
+        }
+    }
+
+    /**
+     * Snapshot of one stage: how full its input queue is and how long its step takes
+     */
+    public static class StageStats {
+        public final String name;
+        public final int threads;
+        public final int queueDepth;
+        public final int queueCapacity;
+        public final long processed;
+        public final long failed;
+        public final long meanLatencyMs;
+        public final long maxLatencyMs;
+
+        StageStats(String name, int threads, int queueDepth, int queueCapacity, long processed,
+                   long failed, long meanLatencyMs, long maxLatencyMs) {
+            this.name = name;
+            this.threads = threads;
+            this.queueDepth = queueDepth;
+            this.queueCapacity = queueCapacity;
+            this.processed = processed;
+            this.failed = failed;
+            this.meanLatencyMs = meanLatencyMs;
+            this.maxLatencyMs = maxLatencyMs;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%s: %d threads, queue %d/%d, %d done, %d failed, mean %d ms, max %d ms",
+                    name, threads, queueDepth, queueCapacity, processed, failed, meanLatencyMs, maxLatencyMs);
+        }
+    }
+
+    private static class StageSpec<T> {
+        final String name;
+        final int threads;
+        final int capacity;
+        final Step<T> step;
+
+        StageSpec(String name, int threads, int capacity, Step<T> step) {
+            this.name = name;
+            this.threads = threads;
+            this.capacity = capacity;
+            this.step = step;
+        }
+    }
+
+    public static class Builder<T> {
+        private final List<StageSpec<T>> specs = new ArrayList<>();
+
+        /**
+         * @param threads  worker threads of this stage
+         * @param capacity number of items which may wait for this stage
+         */
+        public Builder<T> addStage(String name, int threads, int capacity, Step<T> step) {
+            specs.add(new StageSpec<>(name, Math.max(1, threads), Math.max(1, capacity), step));
+            return this;
+        }
+
+        /**
+         * @return the pipeline with its worker threads started
+         */
+        public StagedPipeline<T> build(Listener<T> listener) {
+            if (specs.isEmpty()) throw new IllegalStateException("no stage");
+            return new StagedPipeline<>(new ArrayList<>(specs), listener);
+        }
+    }
+}
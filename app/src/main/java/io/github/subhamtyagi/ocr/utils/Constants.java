@@ -25,6 +25,7 @@ public class Constants {
     public static final String KEY_GRAYSCALE_IMAGE_OCR = "grayscale_image_ocr";
     public static final String KEY_LAST_USE_IMAGE_LOCATION = "last_use_image_location";
     public static final String KEY_LAST_USE_IMAGE_TEXT = "last_use_image_text";
+    public static final String KEY_LAST_IMAGE = "last_image";
     public static final String KEY_PERSIST_DATA = "persist_data";
 
     public static final String KEY_LAST_USED_LANGUAGE_1 = "key_language_1";
@@ -38,6 +39,15 @@ public class Constants {
     public static final String KEY_PAGE_SEG_MODE = "key_ocr_psm_mode";
     public static final String KEY_OCR_PSM_MODE = "key_ocr_psm_mode";
     public static final String KEY_ADVANCE_TESS_OPTION = "key_advance_tess_option";
+    public static final String KEY_OCR_ENGINE_POOL_SIZE = "ocr_engine_pool_size";
+    public static final String KEY_TILED_RECOGNITION = "tiled_recognition";
+    public static final String KEY_RESULT_CACHE_ENABLED = "result_cache_enabled";
+    /**
+     * replaced by {@link #KEY_RESULT_CACHE_ENABLED}, read once to carry the choice over
+     */
+    public static final String KEY_RESULT_CACHE_DISTANCE = "result_cache_distance";
+    public static final String KEY_NORMALIZE_RESOLUTION = "normalize_resolution";
+    public static final String KEY_CAPTURE_TEXT_HINT_SHOWN = "capture_text_hint_shown";
 
 
 }
@@ -3,7 +3,6 @@ package io.github.subhamtyagi.ocr.utils;
 import android.annotation.SuppressLint;
 import android.app.Application;
 import android.content.Context;
-import android.graphics.Bitmap;
 import android.net.ConnectivityManager;
 import android.net.Network;
 import android.net.NetworkCapabilities;
@@ -12,16 +11,6 @@ import android.os.Build;
 
 import androidx.annotation.NonNull;
 
-import com.googlecode.leptonica.android.AdaptiveMap;
-import com.googlecode.leptonica.android.Binarize;
-import com.googlecode.leptonica.android.Convert;
-import com.googlecode.leptonica.android.Enhance;
-import com.googlecode.leptonica.android.Pix;
-import com.googlecode.leptonica.android.ReadFile;
-import com.googlecode.leptonica.android.Rotate;
-import com.googlecode.leptonica.android.Skew;
-import com.googlecode.leptonica.android.WriteFile;
-
 import java.util.Collections;
 import java.util.Map;
 import java.util.Set;
@@ -52,53 +41,6 @@ public class Utils {
         return String.format("%.2f MB", mb);
     }
 
-    public static Bitmap preProcessBitmap(Bitmap bitmap) {
-        Pix pix = preparePix(bitmap);
-
-        if (shouldApplyContrast()) {
-            pix = AdaptiveMap.pixContrastNorm(pix);
-        }
-
-        if (shouldApplyUnsharpMasking()) {
-            pix = Enhance.unsharpMasking(pix);
-        }
-
-        if (shouldApplyOtsuThreshold()) {
-            pix = Binarize.otsuAdaptiveThreshold(pix);
-        }
-
-        if (shouldFindAndDeskw()) {
-            pix = rotateToCorrectSkew(pix);
-        }
-
-        return WriteFile.writeBitmap(pix);
-    }
-
-    private static Pix preparePix(Bitmap bitmap) {
-        return Convert.convertTo8(ReadFile.readBitmap(bitmap.copy(Bitmap.Config.ARGB_8888, true)));
-    }
-
-    private static boolean shouldApplyContrast() {
-        return SpUtil.getInstance().getBoolean(Constants.KEY_CONTRAST, true);
-    }
-
-    private static boolean shouldApplyUnsharpMasking() {
-        return SpUtil.getInstance().getBoolean(Constants.KEY_UN_SHARP_MASKING, true);
-    }
-
-    private static boolean shouldApplyOtsuThreshold() {
-        return SpUtil.getInstance().getBoolean(Constants.KEY_OTSU_THRESHOLD, true);
-    }
-
-    private static boolean shouldFindAndDeskw() {
-        return SpUtil.getInstance().getBoolean(Constants.KEY_FIND_SKEW_AND_DESKEW, true);
-    }
-
-    private static Pix rotateToCorrectSkew(Pix pix) {
-        float skewAngle = Skew.findSkew(pix);
-        return Rotate.rotate(pix, skewAngle);
-    }
-
     public static boolean isPreProcessImage() {
         return SpUtil.getInstance().getBoolean(Constants.KEY_GRAYSCALE_IMAGE_OCR, true);
     }
@@ -121,8 +63,59 @@ public class Utils {
         return Integer.parseInt(SpUtil.getInstance().getString(Constants.KEY_PAGE_SEG_MODE, "1"));
     }
 
-    public static void putLastUsedText(String text) {
-        SpUtil.getInstance().putString(Constants.KEY_LAST_USE_IMAGE_TEXT, text);
+    /**
+     * @return number of tesseract engines which may recognize images in parallel, "0" in the
+     * preferences means half of the cores but not more than four engines
+     */
+    public static int getEnginePoolSize() {
+        int size = Integer.parseInt(SpUtil.getInstance().getString(Constants.KEY_OCR_ENGINE_POOL_SIZE, "0"));
+        if (size > 0) {
+            return size;
+        }
+        return Math.max(1, Math.min(Runtime.getRuntime().availableProcessors() / 2, 4));
+    }
+
+    /**
+     * @return key of the last scanned image in the image cache, null if there is none
+     */
+    public static String getLastImage() {
+        return SpUtil.getInstance().getString(Constants.KEY_LAST_IMAGE, null);
+    }
+
+    public static void putLastImage(String key) {
+        SpUtil.getInstance().putString(Constants.KEY_LAST_IMAGE, key);
+    }
+
+    public static boolean isTiledRecognition() {
+        return SpUtil.getInstance().getBoolean(Constants.KEY_TILED_RECOGNITION, false);
+    }
+
+    public static boolean isNormalizeResolution() {
+        return SpUtil.getInstance().getBoolean(Constants.KEY_NORMALIZE_RESOLUTION, true);
+    }
+
+    /**
+     * @return whether the text of an identical image recognized before is reused
+     */
+    public static boolean isResultCacheEnabled() {
+        return SpUtil.getInstance().getBoolean(Constants.KEY_RESULT_CACHE_ENABLED, true);
+    }
+
+    /**
+     * Older versions stored a hash distance for the result cache, -1 meaning never. Turn it into
+     * the switch which replaced it, call once the preferences are initialized.
+     */
+    public static void migrateResultCachePreference() {
+        SpUtil spUtil = SpUtil.getInstance();
+        if (!spUtil.contains(Constants.KEY_RESULT_CACHE_DISTANCE)) return;
+        boolean enabled = true;
+        try {
+            enabled = Integer.parseInt(spUtil.getString(Constants.KEY_RESULT_CACHE_DISTANCE, "0")) >= 0;
+        } catch (NumberFormatException | ClassCastException ignored) {
+            // an unreadable value keeps the default
+        }
+        spUtil.putBoolean(Constants.KEY_RESULT_CACHE_ENABLED, enabled);
+        spUtil.remove(Constants.KEY_RESULT_CACHE_DISTANCE);
     }
 
     public static Map<String, String> getAllParameters() {
@@ -133,10 +126,6 @@ public class Utils {
         return SpUtil.getInstance().getBoolean(Constants.KEY_ADVANCE_TESS_OPTION);
     }
 
-    public static String getLastUsedText() {
-        return SpUtil.getInstance().getString(Constants.KEY_LAST_USE_IMAGE_TEXT, "");
-    }
-
     public static Triple<Set<Language>, Set<Language>, Set<Language>> getLast3UsedLanguage(Context context) {
         return new Triple<>(
                 allLangs(context, SpUtil.getInstance().getStringSet(context.getString(R.string.key_language_for_tesseract_multi), Collections.singleton(DEFAULT_LANGUAGE))),
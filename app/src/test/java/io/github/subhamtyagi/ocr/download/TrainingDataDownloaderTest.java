@@ -0,0 +1,299 @@
+package io.github.subhamtyagi.ocr.download;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TrainingDataDownloaderTest {
+
+    private static final String LANGUAGE = "eng";
+    private static final String ETAG = "\"v2\"";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final byte[] content = newContent(10_000);
+
+    @Test
+    public void download_resumesPartWithRange() throws Exception {
+        File dir = folder.getRoot();
+        write(part(dir), Arrays.copyOf(content, 4_000));
+        write(validator(dir), ETAG.getBytes(StandardCharsets.UTF_8));
+        FakeServer server = new FakeServer(content, ETAG);
+
+        Result result = download(server, dir);
+
+        assertTrue(result.failed.isEmpty());
+        assertFalse(result.cancelled);
+        assertEquals("bytes=4000-", server.requests.get(0).get("Range"));
+        assertEquals(ETAG, server.requests.get(0).get("If-Range"));
+        assertEquals(HttpURLConnection.HTTP_PARTIAL, server.responseCodes.get(0).intValue());
+        assertArrayEquals(content, Files.readAllBytes(destination(dir).toPath()));
+        assertFalse(part(dir).exists());
+        assertFalse(validator(dir).exists());
+    }
+
+    @Test
+    public void download_restartsWhenFileChanged() throws Exception {
+        File dir = folder.getRoot();
+        write(part(dir), newContent(6_000));
+        write(validator(dir), "\"v1\"".getBytes(StandardCharsets.UTF_8));
+        FakeServer server = new FakeServer(content, ETAG);
+
+        Result result = download(server, dir);
+
+        assertTrue(result.failed.isEmpty());
+        assertEquals("bytes=6000-", server.requests.get(0).get("Range"));
+        assertEquals(HttpURLConnection.HTTP_OK, server.responseCodes.get(0).intValue());
+        // the old bytes of the part were dropped, not prepended to the new file
+        assertArrayEquals(content, Files.readAllBytes(destination(dir).toPath()));
+    }
+
+    @Test
+    public void download_withoutValidatorStartsOver() throws Exception {
+        File dir = folder.getRoot();
+        write(part(dir), Arrays.copyOf(content, 4_000));
+        FakeServer server = new FakeServer(content, ETAG);
+
+        Result result = download(server, dir);
+
+        assertTrue(result.failed.isEmpty());
+        assertNull(server.requests.get(0).get("Range"));
+        assertArrayEquals(content, Files.readAllBytes(destination(dir).toPath()));
+    }
+
+    @Test
+    public void cancel_keepsPartForResuming() throws Exception {
+        File dir = folder.getRoot();
+        FakeServer server = new FakeServer(content, ETAG);
+        server.stallAfter = 3_000;
+        ResultListener listener = new ResultListener();
+
+        TrainingDataDownloader.Download download = new TrainingDataDownloader(server, (type, lang) -> "https://example.com/" + lang, 1)
+                .download("best", Collections.singletonList(LANGUAGE), dir, listener);
+        assertTrue(server.stalled.await(5, TimeUnit.SECONDS));
+        download.cancel();
+        Result result = listener.await();
+
+        assertTrue(result.cancelled);
+        assertEquals(Collections.singletonList(LANGUAGE), result.failed);
+        assertFalse(destination(dir).exists());
+        assertArrayEquals(Arrays.copyOf(content, 3_000), Files.readAllBytes(part(dir).toPath()));
+        assertEquals(ETAG, new String(Files.readAllBytes(validator(dir).toPath()), StandardCharsets.UTF_8));
+        assertEquals(1, server.requests.size());
+    }
+
+    private static Result download(FakeServer server, File dir) throws InterruptedException {
+        ResultListener listener = new ResultListener();
+        new TrainingDataDownloader(server, (type, lang) -> "https://example.com/" + lang, 1)
+                .download("best", Collections.singletonList(LANGUAGE), dir, listener);
+        return listener.await();
+    }
+
+    private static File destination(File dir) {
+        return TrainingDataDownloader.getTrainingDataFile(dir, LANGUAGE);
+    }
+
+    private static File part(File dir) {
+        return new File(dir, destination(dir).getName() + TrainingDataDownloader.PART_SUFFIX);
+    }
+
+    private static File validator(File dir) {
+        return new File(dir, destination(dir).getName() + TrainingDataDownloader.VALIDATOR_SUFFIX);
+    }
+
+    private static byte[] newContent(int size) {
+        byte[] bytes = new byte[size];
+        for (int i = 0; i < size; i++) {
+            bytes[i] = (byte) (i * 31 + size);
+        }
+        return bytes;
+    }
+
+    private static void write(File file, byte[] bytes) throws IOException {
+        try (FileOutputStream output = new FileOutputStream(file)) {
+            output.write(bytes);
+        }
+    }
+
+    private static final class Result {
+        final List<String> failed;
+        final boolean cancelled;
+
+        Result(List<String> failed, boolean cancelled) {
+            this.failed = failed;
+            this.cancelled = cancelled;
+        }
+    }
+
+    private static final class ResultListener implements TrainingDataDownloader.Listener {
+        private final CountDownLatch finished = new CountDownLatch(1);
+        private volatile Result result;
+
+        @Override
+        public void onProgress(long downloaded, long total) {
+        }
+
+        @Override
+        public void onFinished(List<String> failed, boolean cancelled) {
+            result = new Result(failed, cancelled);
+            finished.countDown();
+        }
+
+        Result await() throws InterruptedException {
+            assertTrue("download did not finish", finished.await(5, TimeUnit.SECONDS));
+            return result;
+        }
+    }
+
+    /**
+     * serves one file, honouring Range only while If-Range matches its ETag like a real server
+     */
+    private static final class FakeServer implements TrainingDataDownloader.ConnectionFactory {
+        final List<Map<String, String>> requests = Collections.synchronizedList(new ArrayList<>());
+        final List<Integer> responseCodes = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch stalled = new CountDownLatch(1);
+        private final byte[] content;
+        private final String etag;
+
+        /**
+         * bytes sent before the body blocks until the downloading thread is interrupted, -1 never
+         */
+        volatile int stallAfter = -1;
+
+        FakeServer(byte[] content, String etag) {
+            this.content = content;
+            this.etag = etag;
+        }
+
+        @Override
+        public HttpURLConnection open(URL url) {
+            return new FakeConnection(url, this);
+        }
+    }
+
+    private static final class FakeConnection extends HttpURLConnection {
+        private final FakeServer server;
+        private final Map<String, String> headers = new HashMap<>();
+        private int offset = -1;
+
+        FakeConnection(URL url, FakeServer server) {
+            super(url);
+            this.server = server;
+        }
+
+        @Override
+        public int getResponseCode() {
+            if (offset < 0) respond();
+            return responseCode;
+        }
+
+        private void respond() {
+            Map<String, String> request = new HashMap<>();
+            String range = getRequestProperty("Range");
+            String ifRange = getRequestProperty("If-Range");
+            if (range != null) request.put("Range", range);
+            if (ifRange != null) request.put("If-Range", ifRange);
+            server.requests.add(request);
+
+            offset = 0;
+            responseCode = HTTP_OK;
+            if (range != null && (ifRange == null || ifRange.equals(server.etag))) {
+                offset = Integer.parseInt(range.substring("bytes=".length(), range.length() - 1));
+                responseCode = HTTP_PARTIAL;
+            }
+            server.responseCodes.add(responseCode);
+            headers.put("ETag", server.etag);
+            headers.put("Content-Length", String.valueOf(server.content.length - offset));
+        }
+
+        @Override
+        public String getHeaderField(String name) {
+            getResponseCode();
+            return headers.get(name);
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            getResponseCode();
+            InputStream body = new ByteArrayInputStream(server.content, offset, server.content.length - offset);
+            int stallAfter = server.stallAfter;
+            return stallAfter < 0 ? body : new StallingInputStream(body, stallAfter, server.stalled);
+        }
+
+        @Override
+        public void connect() {
+        }
+
+        @Override
+        public void disconnect() {
+        }
+
+        @Override
+        public boolean usingProxy() {
+            return false;
+        }
+    }
+
+    /**
+     * sends the first bytes, then hangs like a dead connection until interrupted
+     */
+    private static final class StallingInputStream extends InputStream {
+        private final InputStream body;
+        private final CountDownLatch stalled;
+        private int remaining;
+
+        StallingInputStream(InputStream body, int stallAfter, CountDownLatch stalled) {
+            this.body = body;
+            this.remaining = stallAfter;
+            this.stalled = stalled;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buffer, int off, int len) throws IOException {
+            if (remaining > 0) {
+                int count = body.read(buffer, off, Math.min(len, remaining));
+                remaining -= count;
+                return count;
+            }
+            stalled.countDown();
+            try {
+                Thread.sleep(Long.MAX_VALUE);
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException("stalled read interrupted");
+            }
+            return -1;
+        }
+    }
+}
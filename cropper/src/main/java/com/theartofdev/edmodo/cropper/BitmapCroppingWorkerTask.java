@@ -15,15 +15,13 @@ package com.theartofdev.edmodo.cropper;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.net.Uri;
-import android.os.AsyncTask;
 
 import java.lang.ref.WeakReference;
 
 /**
  * Task to crop bitmap asynchronously from the UI thread.
  */
-final class BitmapCroppingWorkerTask
-        extends AsyncTask<Void, Void, BitmapCroppingWorkerTask.Result> {
+final class BitmapCroppingWorkerTask extends CropWorkerTask<BitmapCroppingWorkerTask.Result> {
 
     // region: Fields and Consts
 
@@ -37,6 +35,16 @@ final class BitmapCroppingWorkerTask
      */
     private final Bitmap mBitmap;
 
+    /**
+     * the sample size the bitmap to crop was loaded by, the crop points are in the original image
+     */
+    private final int mLoadedSampleSize;
+
+    /**
+     * the power of 2 to scale the crop of the bitmap down by at least
+     */
+    private final int mMinScale;
+
     /**
      * The Android URI of the image to load
      */
@@ -127,6 +135,8 @@ final class BitmapCroppingWorkerTask
             CropImageView cropImageView,
             Bitmap bitmap,
             float[] cropPoints,
+            int loadedSampleSize,
+            int minScale,
             int degreesRotated,
             boolean fixAspectRatio,
             int aspectRatioX,
@@ -140,10 +150,13 @@ final class BitmapCroppingWorkerTask
             Bitmap.CompressFormat saveCompressFormat,
             int saveCompressQuality) {
 
+        super(CropTaskScheduler.PRIORITY_CROP);
         mCropImageViewReference = new WeakReference<>(cropImageView);
         mContext = cropImageView.getContext();
         mBitmap = bitmap;
         mCropPoints = cropPoints;
+        mLoadedSampleSize = loadedSampleSize;
+        mMinScale = minScale;
         mUri = null;
         mDegreesRotated = degreesRotated;
         mFixAspectRatio = fixAspectRatio;
@@ -180,6 +193,7 @@ final class BitmapCroppingWorkerTask
             Bitmap.CompressFormat saveCompressFormat,
             int saveCompressQuality) {
 
+        super(CropTaskScheduler.PRIORITY_CROP);
         mCropImageViewReference = new WeakReference<>(cropImageView);
         mContext = cropImageView.getContext();
         mUri = uri;
@@ -199,6 +213,8 @@ final class BitmapCroppingWorkerTask
         mSaveCompressFormat = saveCompressFormat;
         mSaveCompressQuality = saveCompressQuality;
         mBitmap = null;
+        mLoadedSampleSize = 1;
+        mMinScale = 1;
     }
 
     /**
@@ -209,16 +225,16 @@ final class BitmapCroppingWorkerTask
     }
 
     /**
-     * Crop image in background.
+     * Crop image in background, checking for cancel between crop, resize and save.
      *
-     * @param params ignored
-     * @return the decoded bitmap data
+     * @return the decoded bitmap data, null if cancelled
      */
     @Override
-    protected BitmapCroppingWorkerTask.Result doInBackground(Void... params) {
+    protected BitmapCroppingWorkerTask.Result doInBackground() {
         try {
             if (!isCancelled()) {
 
+                long start = System.currentTimeMillis();
                 BitmapUtils.BitmapSampled bitmapSampled;
                 if (mUri != null) {
                     bitmapSampled =
@@ -239,8 +255,11 @@ final class BitmapCroppingWorkerTask
                 } else if (mBitmap != null) {
                     bitmapSampled =
                             BitmapUtils.cropBitmapObjectHandleOOM(
+                                    mContext,
                                     mBitmap,
                                     mCropPoints,
+                                    mLoadedSampleSize,
+                                    mMinScale,
                                     mDegreesRotated,
                                     mFixAspectRatio,
                                     mAspectRatioX,
@@ -250,18 +269,27 @@ final class BitmapCroppingWorkerTask
                 } else {
                     return new Result((Bitmap) null, 1);
                 }
+                CropPlanner.logCropTime(mUri == null, start);
+
+                if (isCancelled()) {
+                    recycle(bitmapSampled.bitmap);
+                    return null;
+                }
 
                 Bitmap bitmap =
                         BitmapUtils.resizeBitmap(bitmapSampled.bitmap, mReqWidth, mReqHeight, mReqSizeOptions);
 
+                if (isCancelled()) {
+                    recycle(bitmap);
+                    return null;
+                }
+
                 if (mSaveUri == null) {
                     return new Result(bitmap, bitmapSampled.sampleSize);
                 } else {
                     BitmapUtils.writeBitmapToUri(
                             mContext, bitmap, mSaveUri, mSaveCompressFormat, mSaveCompressQuality);
-                    if (bitmap != null) {
-                        bitmap.recycle();
-                    }
+                    recycle(bitmap);
                     return new Result(mSaveUri, bitmapSampled.sampleSize);
                 }
             }
@@ -294,6 +322,12 @@ final class BitmapCroppingWorkerTask
         }
     }
 
+    private static void recycle(Bitmap bitmap) {
+        if (bitmap != null) {
+            bitmap.recycle();
+        }
+    }
+
     // region: Inner class: Result
 
     /**
@@ -15,7 +15,6 @@ package com.theartofdev.edmodo.cropper;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.net.Uri;
-import android.os.AsyncTask;
 import android.util.DisplayMetrics;
 
 import java.lang.ref.WeakReference;
@@ -23,7 +22,7 @@ import java.lang.ref.WeakReference;
 /**
  * Task to load bitmap asynchronously from the UI thread.
  */
-final class BitmapLoadingWorkerTask extends AsyncTask<Void, Void, BitmapLoadingWorkerTask.Result> {
+final class BitmapLoadingWorkerTask extends CropWorkerTask<BitmapLoadingWorkerTask.Result> {
 
     // region: Fields and Consts
 
@@ -54,6 +53,7 @@ final class BitmapLoadingWorkerTask extends AsyncTask<Void, Void, BitmapLoadingW
     // endregion
 
     public BitmapLoadingWorkerTask(CropImageView cropImageView, Uri uri) {
+        super(CropTaskScheduler.PRIORITY_LOAD);
         mUri = uri;
         mCropImageViewReference = new WeakReference<>(cropImageView);
 
@@ -73,27 +73,33 @@ final class BitmapLoadingWorkerTask extends AsyncTask<Void, Void, BitmapLoadingW
     }
 
     /**
-     * Decode image in background.
+     * Decode image in background, checking for cancel between decode and rotate.
      *
-     * @param params ignored
-     * @return the decoded bitmap data
+     * @return the decoded bitmap data, null if cancelled
      */
     @Override
-    protected Result doInBackground(Void... params) {
+    protected Result doInBackground() {
         try {
             if (!isCancelled()) {
 
                 BitmapUtils.BitmapSampled decodeResult =
                         BitmapUtils.decodeSampledBitmap(mContext, mUri, mWidth, mHeight);
 
-                if (!isCancelled()) {
+                if (isCancelled()) {
+                    decodeResult.bitmap.recycle();
+                    return null;
+                }
 
-                    BitmapUtils.RotateBitmapResult rotateResult =
-                            BitmapUtils.rotateBitmapByExif(decodeResult.bitmap, mContext, mUri);
+                BitmapUtils.RotateBitmapResult rotateResult =
+                        BitmapUtils.rotateBitmapByExif(decodeResult.bitmap, mContext, mUri);
 
-                    return new Result(
-                            mUri, rotateResult.bitmap, decodeResult.sampleSize, rotateResult.degrees);
+                if (isCancelled()) {
+                    rotateResult.bitmap.recycle();
+                    return null;
                 }
+
+                return new Result(
+                        mUri, rotateResult.bitmap, decodeResult.sampleSize, rotateResult.degrees);
             }
             return null;
         } catch (Exception e) {
@@ -35,11 +35,6 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.lang.ref.WeakReference;
 
-import javax.microedition.khronos.egl.EGL10;
-import javax.microedition.khronos.egl.EGLConfig;
-import javax.microedition.khronos.egl.EGLContext;
-import javax.microedition.khronos.egl.EGLDisplay;
-
 /**
  * Utility class that deals with operations with an ImageView.
  */
@@ -64,11 +59,6 @@ final class BitmapUtils {
      */
     static final float[] POINTS2 = new float[6];
 
-    /**
-     * Used to know the max texture size allowed to be rendered
-     */
-    private static int mMaxTextureSize;
-
     /**
      * used to save bitmaps during state save and restore so not to reload them.
      */
@@ -137,7 +127,14 @@ final class BitmapUtils {
                     Math.max(
                             calculateInSampleSizeByReqestedSize(
                                     options.outWidth, options.outHeight, reqWidth, reqHeight),
-                            calculateInSampleSizeByMaxTextureSize(options.outWidth, options.outHeight));
+                            calculateInSampleSizeByMaxTextureSize(context, options.outWidth, options.outHeight));
+
+            // sample more or use less memory per pixel if the bitmap wouldn't fit in memory
+            CropMemoryPlanner.Plan plan =
+                    CropMemoryPlanner.planDecode(
+                            context, options.outWidth, options.outHeight, options.inSampleSize, isOpaque(options), 1);
+            options.inSampleSize = plan.sampleSize;
+            options.inPreferredConfig = plan.config;
 
             // Decode bitmap with inSampleSize set
             Bitmap bitmap = decodeImage(resolver, uri, options);
@@ -155,39 +152,64 @@ final class BitmapUtils {
      * rotation.<br>
      * if the rotation is not 0,90,180 or 270 degrees then we must first crop a larger area of the
      * image that contains the requires rectangle, rotate and then crop again a sub rectangle.<br>
-     * If crop fails due to OOM we scale the cropping image by 0.5 every time it fails until it is
-     * small enough.
+     * If the crop wouldn't fit in memory it is scaled down by a power of 2 until it does, planned
+     * before allocating.
+     *
+     * @param points           the crop points in the original image
+     * @param loadedSampleSize the sample size the bitmap was decoded from the original image by
+     * @param minScale         the power of 2 to scale the crop down by at least, 1 to keep it full size
      */
     static BitmapSampled cropBitmapObjectHandleOOM(
+            Context context,
             Bitmap bitmap,
             float[] points,
+            int loadedSampleSize,
+            int minScale,
             int degreesRotated,
             boolean fixAspectRatio,
             int aspectRatioX,
             int aspectRatioY,
             boolean flipHorizontally,
             boolean flipVertically) {
-        int scale = 1;
-        while (true) {
-            try {
-                Bitmap cropBitmap =
-                        cropBitmapObjectWithScale(
-                                bitmap,
-                                points,
-                                degreesRotated,
-                                fixAspectRatio,
-                                aspectRatioX,
-                                aspectRatioY,
-                                1 / (float) scale,
-                                flipHorizontally,
-                                flipVertically);
-                return new BitmapSampled(cropBitmap, scale);
-            } catch (OutOfMemoryError e) {
-                scale *= 2;
-                if (scale > 8) {
-                    throw e;
-                }
+        if (loadedSampleSize > 1) {
+            float[] bitmapPoints = new float[points.length];
+            for (int i = 0; i < points.length; i++) {
+                bitmapPoints[i] = points[i] / loadedSampleSize;
             }
+            points = bitmapPoints;
+        }
+        Rect rect =
+                getRectFromPoints(
+                        points,
+                        bitmap.getWidth(),
+                        bitmap.getHeight(),
+                        fixAspectRatio,
+                        aspectRatioX,
+                        aspectRatioY);
+        int scale =
+                CropMemoryPlanner.planScale(
+                        context,
+                        rect.width(),
+                        rect.height(),
+                        bitmap.getConfig(),
+                        minScale,
+                        degreesRotated % 90 != 0 ? 2 : 1);
+        try {
+            Bitmap cropBitmap =
+                    cropBitmapObjectWithScale(
+                            bitmap,
+                            points,
+                            degreesRotated,
+                            fixAspectRatio,
+                            aspectRatioX,
+                            aspectRatioY,
+                            1 / (float) scale,
+                            flipHorizontally,
+                            flipVertically);
+            return new BitmapSampled(cropBitmap, scale * Math.max(1, loadedSampleSize));
+        } catch (OutOfMemoryError e) {
+            CropMemoryPlanner.onOutOfMemory();
+            throw new RuntimeException("Failed to crop bitmap at scale 1/" + scale, e);
         }
     }
 
@@ -250,7 +272,7 @@ final class BitmapUtils {
     /**
      * Crop image bitmap from URI by decoding it with specific width and height to down-sample if
      * required.<br>
-     * Additionally if OOM is thrown try to increase the sampling (2,4,8).
+     * Additionally sample more if the crop wouldn't fit in memory, planned before decoding.
      */
     static BitmapSampled cropBitmap(
             Context context,
@@ -266,39 +288,25 @@ final class BitmapUtils {
             int reqHeight,
             boolean flipHorizontally,
             boolean flipVertically) {
-        int sampleMulti = 1;
-        while (true) {
-            try {
-                // if successful, just return the resulting bitmap
-                return cropBitmap(
-                        context,
-                        loadedImageUri,
-                        points,
-                        degreesRotated,
-                        orgWidth,
-                        orgHeight,
-                        fixAspectRatio,
-                        aspectRatioX,
-                        aspectRatioY,
-                        reqWidth,
-                        reqHeight,
-                        flipHorizontally,
-                        flipVertically,
-                        sampleMulti);
-            } catch (OutOfMemoryError e) {
-                // if OOM try to increase the sampling to lower the memory usage
-                sampleMulti *= 2;
-                if (sampleMulti > 16) {
-                    throw new RuntimeException(
-                            "Failed to handle OOM by sampling ("
-                                    + sampleMulti
-                                    + "): "
-                                    + loadedImageUri
-                                    + "\r\n"
-                                    + e.getMessage(),
-                            e);
-                }
-            }
+        try {
+            return cropBitmapRegion(
+                    context,
+                    loadedImageUri,
+                    points,
+                    degreesRotated,
+                    orgWidth,
+                    orgHeight,
+                    fixAspectRatio,
+                    aspectRatioX,
+                    aspectRatioY,
+                    reqWidth,
+                    reqHeight,
+                    flipHorizontally,
+                    flipVertically);
+        } catch (OutOfMemoryError e) {
+            CropMemoryPlanner.onOutOfMemory();
+            throw new RuntimeException(
+                    "Failed to crop image: " + loadedImageUri + "\r\n" + e.getMessage(), e);
         }
     }
 
@@ -486,11 +494,10 @@ final class BitmapUtils {
      * Crop image bitmap from URI by decoding it with specific width and height to down-sample if
      * required.
      *
-     * @param orgWidth    used to get rectangle from points (handle edge cases to limit rectangle)
-     * @param orgHeight   used to get rectangle from points (handle edge cases to limit rectangle)
-     * @param sampleMulti used to increase the sampling of the image to handle memory issues.
+     * @param orgWidth  used to get rectangle from points (handle edge cases to limit rectangle)
+     * @param orgHeight used to get rectangle from points (handle edge cases to limit rectangle)
      */
-    private static BitmapSampled cropBitmap(
+    private static BitmapSampled cropBitmapRegion(
             Context context,
             Uri loadedImageUri,
             float[] points,
@@ -503,8 +510,7 @@ final class BitmapUtils {
             int reqWidth,
             int reqHeight,
             boolean flipHorizontally,
-            boolean flipVertically,
-            int sampleMulti) {
+            boolean flipVertically) {
 
         // get the rectangle in original image that contains the required cropped area (larger for non
         // rectangular crop)
@@ -520,7 +526,13 @@ final class BitmapUtils {
             // decode only the required image from URI, optionally sub-sampling if reqWidth/reqHeight is
             // given.
             BitmapSampled bitmapSampled =
-                    decodeSampledBitmapRegion(context, loadedImageUri, rect, width, height, sampleMulti);
+                    decodeSampledBitmapRegion(
+                            context,
+                            loadedImageUri,
+                            rect,
+                            width,
+                            height,
+                            getCropCopies(degreesRotated, flipHorizontally, flipVertically));
             result = bitmapSampled.bitmap;
             sampleSize = bitmapSampled.sampleSize;
         } catch (Exception ignored) {
@@ -557,7 +569,6 @@ final class BitmapUtils {
                     fixAspectRatio,
                     aspectRatioX,
                     aspectRatioY,
-                    sampleMulti,
                     rect,
                     width,
                     height,
@@ -578,7 +589,6 @@ final class BitmapUtils {
             boolean fixAspectRatio,
             int aspectRatioX,
             int aspectRatioY,
-            int sampleMulti,
             Rect rect,
             int width,
             int height,
@@ -587,13 +597,22 @@ final class BitmapUtils {
         Bitmap result = null;
         int sampleSize;
         try {
-            BitmapFactory.Options options = new BitmapFactory.Options();
-            options.inSampleSize =
-                    sampleSize =
-                            sampleMulti
-                                    * calculateInSampleSizeByReqestedSize(rect.width(), rect.height(), width, height);
-
-            Bitmap fullBitmap = decodeImage(context.getContentResolver(), loadedImageUri, options);
+            ContentResolver resolver = context.getContentResolver();
+            BitmapFactory.Options options = decodeImageForOption(resolver, loadedImageUri);
+
+            // the whole image and the crop of it are in memory at once
+            CropMemoryPlanner.Plan plan =
+                    CropMemoryPlanner.planDecode(
+                            context,
+                            options.outWidth,
+                            options.outHeight,
+                            calculateInSampleSizeByReqestedSize(rect.width(), rect.height(), width, height),
+                            isOpaque(options),
+                            getCropCopies(degreesRotated, flipHorizontally, flipVertically) + 1);
+            options.inSampleSize = sampleSize = plan.sampleSize;
+            options.inPreferredConfig = plan.config;
+
+            Bitmap fullBitmap = decodeImage(resolver, loadedImageUri, options);
             if (fullBitmap != null) {
                 try {
                     // adjust crop points by the sampling because the image is smaller
@@ -651,52 +670,51 @@ final class BitmapUtils {
     }
 
     /**
-     * Decode image from uri using given "inSampleSize", but if failed due to out-of-memory then raise
-     * the inSampleSize until success.
+     * Decode image from uri using given "inSampleSize" and config, planned by {@link
+     * CropMemoryPlanner} to fit in memory.
      */
     private static Bitmap decodeImage(
             ContentResolver resolver, Uri uri, BitmapFactory.Options options)
             throws FileNotFoundException {
-        do {
-            InputStream stream = null;
-            try {
-                stream = resolver.openInputStream(uri);
-                return BitmapFactory.decodeStream(stream, EMPTY_RECT, options);
-            } catch (OutOfMemoryError e) {
-                options.inSampleSize *= 2;
-            } finally {
-                closeSafe(stream);
-            }
-        } while (options.inSampleSize <= 512);
-        throw new RuntimeException("Failed to decode image: " + uri);
+        InputStream stream = null;
+        try {
+            stream = resolver.openInputStream(uri);
+            return BitmapFactory.decodeStream(stream, EMPTY_RECT, options);
+        } catch (OutOfMemoryError e) {
+            CropMemoryPlanner.onOutOfMemory();
+            throw new RuntimeException("Failed to decode image: " + uri, e);
+        } finally {
+            closeSafe(stream);
+        }
     }
 
     /**
      * Decode specific rectangle bitmap from stream using sampling to get bitmap with the requested
-     * limit.
+     * limit, sampling more if it wouldn't fit in memory.
      *
-     * @param sampleMulti used to increase the sampling of the image to handle memory issues.
+     * @param copies how many bitmaps of the region size are in memory at once while cropping
      */
     private static BitmapSampled decodeSampledBitmapRegion(
-            Context context, Uri uri, Rect rect, int reqWidth, int reqHeight, int sampleMulti) {
+            Context context, Uri uri, Rect rect, int reqWidth, int reqHeight, int copies) {
         InputStream stream = null;
         BitmapRegionDecoder decoder = null;
         try {
-            BitmapFactory.Options options = new BitmapFactory.Options();
-            options.inSampleSize =
-                    sampleMulti
-                            * calculateInSampleSizeByReqestedSize(
-                            rect.width(), rect.height(), reqWidth, reqHeight);
+            ContentResolver resolver = context.getContentResolver();
+            BitmapFactory.Options options = decodeImageForOption(resolver, uri);
+            CropMemoryPlanner.Plan plan =
+                    CropMemoryPlanner.planDecode(
+                            context,
+                            rect.width(),
+                            rect.height(),
+                            calculateInSampleSizeByReqestedSize(rect.width(), rect.height(), reqWidth, reqHeight),
+                            isOpaque(options),
+                            copies);
+            options.inSampleSize = plan.sampleSize;
+            options.inPreferredConfig = plan.config;
 
-            stream = context.getContentResolver().openInputStream(uri);
+            stream = resolver.openInputStream(uri);
             decoder = BitmapRegionDecoder.newInstance(stream, false);
-            do {
-                try {
-                    return new BitmapSampled(decoder.decodeRegion(rect, options), options.inSampleSize);
-                } catch (OutOfMemoryError e) {
-                    options.inSampleSize *= 2;
-                }
-            } while (options.inSampleSize <= 512);
+            return new BitmapSampled(decoder.decodeRegion(rect, options), options.inSampleSize);
         } catch (Exception e) {
             throw new RuntimeException(
                     "Failed to load sampled bitmap: " + uri + "\r\n" + e.getMessage(), e);
@@ -706,7 +724,25 @@ final class BitmapUtils {
                 decoder.recycle();
             }
         }
-        return new BitmapSampled(null, 1);
+    }
+
+    /**
+     * Whether the image has no alpha for sure, by its type, so it can be decoded to RGB_565.
+     */
+    private static boolean isOpaque(BitmapFactory.Options options) {
+        return "image/jpeg".equals(options.outMimeType);
+    }
+
+    /**
+     * How many bitmaps of the crop size are in memory at once while cropping: the crop, a rotated
+     * or flipped copy of it, and for a rotation that is not a multiple of 90 degrees a copy rotated
+     * into bounds up to twice as large.
+     */
+    private static int getCropCopies(int degreesRotated, boolean flipHorizontally, boolean flipVertically) {
+        if (degreesRotated % 90 != 0) {
+            return 3;
+        }
+        return degreesRotated > 0 || flipHorizontally || flipVertically ? 2 : 1;
     }
 
     /**
@@ -759,7 +795,7 @@ final class BitmapUtils {
      * Calculate the largest inSampleSize value that is a power of 2 and keeps both height and width
      * larger than the requested height and width.
      */
-    private static int calculateInSampleSizeByReqestedSize(
+    static int calculateInSampleSizeByReqestedSize(
             int width, int height, int reqWidth, int reqHeight) {
         int inSampleSize = 1;
         if (height > reqHeight || width > reqWidth) {
@@ -774,14 +810,12 @@ final class BitmapUtils {
      * Calculate the largest inSampleSize value that is a power of 2 and keeps both height and width
      * smaller than max texture size allowed for the device.
      */
-    private static int calculateInSampleSizeByMaxTextureSize(int width, int height) {
+    private static int calculateInSampleSizeByMaxTextureSize(Context context, int width, int height) {
         int inSampleSize = 1;
-        if (mMaxTextureSize == 0) {
-            mMaxTextureSize = getMaxTextureSize();
-        }
-        if (mMaxTextureSize > 0) {
-            while ((height / inSampleSize) > mMaxTextureSize
-                    || (width / inSampleSize) > mMaxTextureSize) {
+        int maxTextureSize = CropDeviceCapabilities.getMaxTextureSize(context);
+        if (maxTextureSize > 0) {
+            while ((height / inSampleSize) > maxTextureSize
+                    || (width / inSampleSize) > maxTextureSize) {
                 inSampleSize *= 2;
             }
         }
@@ -809,63 +843,13 @@ final class BitmapUtils {
         }
     }
 
-    /**
-     * Get the max size of bitmap allowed to be rendered on the device.<br>
-     * http://stackoverflow.com/questions/7428996/hw-accelerated-activity-how-to-get-opengl-texture-size-limit.
-     */
-    private static int getMaxTextureSize() {
-        // Safe minimum default size
-        final int IMAGE_MAX_BITMAP_DIMENSION = 2048;
-
-        try {
-            // Get EGL Display
-            EGL10 egl = (EGL10) EGLContext.getEGL();
-            EGLDisplay display = egl.eglGetDisplay(EGL10.EGL_DEFAULT_DISPLAY);
-
-            // Initialise
-            int[] version = new int[2];
-            egl.eglInitialize(display, version);
-
-            // Query total number of configurations
-            int[] totalConfigurations = new int[1];
-            egl.eglGetConfigs(display, null, 0, totalConfigurations);
-
-            // Query actual list configurations
-            EGLConfig[] configurationsList = new EGLConfig[totalConfigurations[0]];
-            egl.eglGetConfigs(display, configurationsList, totalConfigurations[0], totalConfigurations);
-
-            int[] textureSize = new int[1];
-            int maximumTextureSize = 0;
-
-            // Iterate through all the configurations to located the maximum texture size
-            for (int i = 0; i < totalConfigurations[0]; i++) {
-                // Only need to check for width since opengl textures are always squared
-                egl.eglGetConfigAttrib(
-                        display, configurationsList[i], EGL10.EGL_MAX_PBUFFER_WIDTH, textureSize);
-
-                // Keep track of the maximum texture size
-                if (maximumTextureSize < textureSize[0]) {
-                    maximumTextureSize = textureSize[0];
-                }
-            }
-
-            // Release
-            egl.eglTerminate(display);
-
-            // Return largest texture size found, or default
-            return Math.max(maximumTextureSize, IMAGE_MAX_BITMAP_DIMENSION);
-        } catch (Exception e) {
-            return IMAGE_MAX_BITMAP_DIMENSION;
-        }
-    }
-
     /**
      * Close the given closeable object (Stream) in a safe way: check if it is null and catch-log
      * exception thrown.
      *
      * @param closeable the closable object to close
      */
-    private static void closeSafe(Closeable closeable) {
+    static void closeSafe(Closeable closeable) {
         if (closeable != null) {
             try {
                 closeable.close();
@@ -0,0 +1,219 @@
+// "Therefore those skilled at the unorthodox
+// are infinite as heaven and earth,
+// inexhaustible as the great rivers.
+// When they come to an end,
+// they begin again,
+// like the days and months;
+// they die and are reborn,
+// like the four seasons."
+//
+// - Sun Tsu,
+// "The Art of War"
+
+package com.theartofdev.edmodo.cropper;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Build;
+import android.os.Process;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import javax.microedition.khronos.egl.EGL10;
+import javax.microedition.khronos.egl.EGLConfig;
+import javax.microedition.khronos.egl.EGLContext;
+import javax.microedition.khronos.egl.EGLDisplay;
+
+/**
+ * Capabilities of the device the image decoding depends on, probed once and kept for the life of
+ * the process and on disk across runs.<br>
+ * Probing the max texture size starts EGL and goes over every config, so it is done in background
+ * by {@link #warmUp(Context)} when the app starts and not on the first image decode. The result is
+ * stored with the build fingerprint, so it is probed again only after a system update.
+ */
+public final class CropDeviceCapabilities {
+
+    // region: Fields and Consts
+
+    /**
+     * Safe minimum default size
+     */
+    public static final int DEFAULT_MAX_TEXTURE_SIZE = 2048;
+
+    private static final String PREFS_NAME = "com.theartofdev.edmodo.cropper.capabilities";
+
+    private static final String KEY_MAX_TEXTURE_SIZE = "max_texture_size";
+
+    private static final String KEY_FINGERPRINT = "fingerprint";
+
+    private static final Object LOCK = new Object();
+
+    /**
+     * The max texture size of the device, 0 until known
+     */
+    private static volatile int mMaxTextureSize;
+
+    private static TextureSizeProbe mProbe = new EglTextureSizeProbe();
+    // endregion
+
+    private CropDeviceCapabilities() {
+    }
+
+    /**
+     * Read or probe the capabilities in background so the first image decode doesn't wait for it.
+     * Call when the app starts, calling again does nothing.
+     *
+     * @param context any context
+     */
+    public static void warmUp(Context context) {
+        if (mMaxTextureSize != 0) {
+            return;
+        }
+        final Context appContext = context.getApplicationContext();
+        Thread thread =
+                new Thread(
+                        new Runnable() {
+                            @Override
+                            public void run() {
+                                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                                getMaxTextureSize(appContext);
+                            }
+                        },
+                        "CropDeviceCapabilities");
+        thread.start();
+    }
+
+    /**
+     * Get the max size of bitmap allowed to be rendered on the device, from memory once known.<br>
+     * If it isn't stored yet it is probed on the calling thread, or waited for if the probe already
+     * runs in background.
+     *
+     * @param context to read and store the value, null to only keep it in memory; no other Android
+     *                API is used then, so it runs on the JVM with a probe set by {@link
+     *                #setTextureSizeProbe}
+     */
+    static int getMaxTextureSize(@Nullable Context context) {
+        int maxTextureSize = mMaxTextureSize;
+        if (maxTextureSize != 0) {
+            return maxTextureSize;
+        }
+        synchronized (LOCK) {
+            if (mMaxTextureSize != 0) {
+                return mMaxTextureSize;
+            }
+            maxTextureSize = context != null ? readOrProbe(context) : mProbe.probeMaxTextureSize();
+            mMaxTextureSize = maxTextureSize;
+            return maxTextureSize;
+        }
+    }
+
+    /**
+     * Read the size stored for this build of the system, or probe and store it.
+     */
+    private static int readOrProbe(Context context) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        String fingerprint = String.valueOf(Build.FINGERPRINT);
+        if (fingerprint.equals(prefs.getString(KEY_FINGERPRINT, null))) {
+            int maxTextureSize = prefs.getInt(KEY_MAX_TEXTURE_SIZE, 0);
+            if (maxTextureSize > 0) {
+                return maxTextureSize;
+            }
+        }
+        long start = System.currentTimeMillis();
+        int maxTextureSize = mProbe.probeMaxTextureSize();
+        Log.d(
+                "AIC",
+                "Probed max texture size "
+                        + maxTextureSize
+                        + " in "
+                        + (System.currentTimeMillis() - start)
+                        + " ms");
+        prefs
+                .edit()
+                .putInt(KEY_MAX_TEXTURE_SIZE, maxTextureSize)
+                .putString(KEY_FINGERPRINT, fingerprint)
+                .apply();
+        return maxTextureSize;
+    }
+
+    /**
+     * Replace the probe, i.e. with a fixed size in tests running on the JVM where there is no EGL,
+     * and forget the size known in memory.
+     *
+     * @param probe the probe to use, null to restore the EGL probe
+     */
+    @VisibleForTesting
+    public static void setTextureSizeProbe(@Nullable TextureSizeProbe probe) {
+        synchronized (LOCK) {
+            mProbe = probe != null ? probe : new EglTextureSizeProbe();
+            mMaxTextureSize = 0;
+        }
+    }
+
+    // region: Inner class: TextureSizeProbe
+
+    /**
+     * Finds the max texture size of the device.
+     */
+    public interface TextureSizeProbe {
+
+        /**
+         * @return the max texture size, {@link #DEFAULT_MAX_TEXTURE_SIZE} if it can't be found
+         */
+        int probeMaxTextureSize();
+    }
+
+    /**
+     * Probe by the EGL configs of the default display.<br>
+     * http://stackoverflow.com/questions/7428996/hw-accelerated-activity-how-to-get-opengl-texture-size-limit.
+     */
+    private static final class EglTextureSizeProbe implements TextureSizeProbe {
+
+        @Override
+        public int probeMaxTextureSize() {
+            try {
+                // Get EGL Display
+                EGL10 egl = (EGL10) EGLContext.getEGL();
+                EGLDisplay display = egl.eglGetDisplay(EGL10.EGL_DEFAULT_DISPLAY);
+
+                // Initialise
+                int[] version = new int[2];
+                egl.eglInitialize(display, version);
+
+                // Query total number of configurations
+                int[] totalConfigurations = new int[1];
+                egl.eglGetConfigs(display, null, 0, totalConfigurations);
+
+                // Query actual list configurations
+                EGLConfig[] configurationsList = new EGLConfig[totalConfigurations[0]];
+                egl.eglGetConfigs(display, configurationsList, totalConfigurations[0], totalConfigurations);
+
+                int[] textureSize = new int[1];
+                int maximumTextureSize = 0;
+
+                // Iterate through all the configurations to located the maximum texture size
+                for (int i = 0; i < totalConfigurations[0]; i++) {
+                    // Only need to check for width since opengl textures are always squared
+                    egl.eglGetConfigAttrib(
+                            display, configurationsList[i], EGL10.EGL_MAX_PBUFFER_WIDTH, textureSize);
+
+                    // Keep track of the maximum texture size
+                    if (maximumTextureSize < textureSize[0]) {
+                        maximumTextureSize = textureSize[0];
+                    }
+                }
+
+                // Release
+                egl.eglTerminate(display);
+
+                // Return largest texture size found, or default
+                return Math.max(maximumTextureSize, DEFAULT_MAX_TEXTURE_SIZE);
+            } catch (Exception e) {
+                return DEFAULT_MAX_TEXTURE_SIZE;
+            }
+        }
+    }
+    // endregion
+}
@@ -957,6 +957,16 @@ public final class CropImage {
             return this;
         }
 
+        /**
+         * whether to show the image in full detail when zoomed in past the resolution of the loaded
+         * bitmap, by decoding only the tiles in view.<br>
+         * <i>Default: true</i>
+         */
+        public ActivityBuilder setTiledDisplay(boolean tiledDisplay) {
+            mOptions.tiledDisplay = tiledDisplay;
+            return this;
+        }
+
         /**
          * optional, set crop menu crop button title.<br>
          * <i>Default: null, will use resource string: crop_image_menu_crop</i>
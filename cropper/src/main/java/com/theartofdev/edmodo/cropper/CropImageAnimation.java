@@ -31,6 +31,8 @@ final class CropImageAnimation extends Animation implements Animation.AnimationL
 
   private final CropOverlayView mCropOverlayView;
 
+  private final CropTileView mTileView;
+
   private final float[] mStartBoundPoints = new float[8];
 
   private final float[] mEndBoundPoints = new float[8];
@@ -50,9 +52,11 @@ final class CropImageAnimation extends Animation implements Animation.AnimationL
   private final float[] mAnimMatrix = new float[9];
   // endregion
 
-  public CropImageAnimation(ImageView cropImageView, CropOverlayView cropOverlayView) {
+  public CropImageAnimation(
+          ImageView cropImageView, CropOverlayView cropOverlayView, CropTileView tileView) {
     mImageView = cropImageView;
     mCropOverlayView = cropOverlayView;
+    mTileView = tileView;
 
     setDuration(300);
     setFillAfter(true);
@@ -103,6 +107,7 @@ final class CropImageAnimation extends Animation implements Animation.AnimationL
     Matrix m = mImageView.getImageMatrix();
     m.setValues(mAnimMatrix);
     mImageView.setImageMatrix(m);
+    mTileView.setImageMatrix(m);
 
     mImageView.invalidate();
     mCropOverlayView.invalidate();
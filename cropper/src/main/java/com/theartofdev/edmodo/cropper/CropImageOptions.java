@@ -286,6 +286,12 @@ public class CropImageOptions implements Parcelable {
      */
     public boolean flipVertically;
 
+    /**
+     * whether to show the image in full detail by decoding the tiles in view when zoomed in past
+     * the resolution of the loaded bitmap
+     */
+    public boolean tiledDisplay;
+
     /**
      * optional, the text of the crop menu crop button
      */
@@ -356,6 +362,7 @@ public class CropImageOptions implements Parcelable {
         rotationDegrees = 90;
         flipHorizontally = false;
         flipVertically = false;
+        tiledDisplay = true;
         cropMenuCropButtonTitle = null;
 
         cropMenuCropButtonIcon = 0;
@@ -411,6 +418,7 @@ public class CropImageOptions implements Parcelable {
         rotationDegrees = in.readInt();
         flipHorizontally = in.readByte() != 0;
         flipVertically = in.readByte() != 0;
+        tiledDisplay = in.readByte() != 0;
         cropMenuCropButtonTitle = TextUtils.CHAR_SEQUENCE_CREATOR.createFromParcel(in);
         cropMenuCropButtonIcon = in.readInt();
     }
@@ -463,6 +471,7 @@ public class CropImageOptions implements Parcelable {
         dest.writeInt(rotationDegrees);
         dest.writeByte((byte) (flipHorizontally ? 1 : 0));
         dest.writeByte((byte) (flipVertically ? 1 : 0));
+        dest.writeByte((byte) (tiledDisplay ? 1 : 0));
         TextUtils.writeToParcel(cropMenuCropButtonTitle, dest, flags);
         dest.writeInt(cropMenuCropButtonIcon);
     }
@@ -22,7 +22,6 @@ import android.graphics.Matrix;
 import android.graphics.Rect;
 import android.graphics.RectF;
 import android.net.Uri;
-import android.os.AsyncTask;
 import android.os.Bundle;
 import android.os.Parcelable;
 
@@ -52,6 +51,11 @@ public class CropImageView extends FrameLayout {
      */
     private final ImageView mImageView;
 
+    /**
+     * Full detail tiles of the image over the image view when zoomed in.
+     */
+    private final CropTileView mTileView;
+
     /**
      * Overlay over the image view to show cropping UI.
      */
@@ -109,6 +113,11 @@ public class CropImageView extends FrameLayout {
      */
     private boolean mFlipVertically;
 
+    /**
+     * if to decode the tiles in view in full detail when zoomed in past the loaded bitmap
+     */
+    private boolean mTiledDisplay;
+
     private int mLayoutWidth;
 
     private int mLayoutHeight;
@@ -227,12 +236,12 @@ public class CropImageView extends FrameLayout {
     /**
      * Task used to load bitmap async from UI thread
      */
-    private WeakReference<BitmapLoadingWorkerTask> mBitmapLoadingWorkerTask;
+    private BitmapLoadingWorkerTask mBitmapLoadingWorkerTask;
 
     /**
      * Task used to crop bitmap async from UI thread
      */
-    private WeakReference<BitmapCroppingWorkerTask> mBitmapCroppingWorkerTask;
+    private BitmapCroppingWorkerTask mBitmapCroppingWorkerTask;
     // endregion
 
     public CropImageView(Context context) {
@@ -356,6 +365,9 @@ public class CropImageView extends FrameLayout {
                     options.flipVertically =
                             ta.getBoolean(R.styleable.CropImageView_cropFlipHorizontally, options.flipVertically);
 
+                    options.tiledDisplay =
+                            ta.getBoolean(R.styleable.CropImageView_cropTiledDisplay, options.tiledDisplay);
+
                     mSaveBitmapToInstanceState =
                             ta.getBoolean(
                                     R.styleable.CropImageView_cropSaveBitmapToInstanceState,
@@ -382,6 +394,7 @@ public class CropImageView extends FrameLayout {
         mShowProgressBar = options.showProgressBar;
         mFlipHorizontally = options.flipHorizontally;
         mFlipVertically = options.flipVertically;
+        mTiledDisplay = options.tiledDisplay;
 
         LayoutInflater inflater = LayoutInflater.from(context);
         View v = inflater.inflate(R.layout.crop_image_view, this, true);
@@ -389,6 +402,10 @@ public class CropImageView extends FrameLayout {
         mImageView = v.findViewById(R.id.ImageView_image);
         mImageView.setScaleType(ImageView.ScaleType.MATRIX);
 
+        // between the image and the overlay
+        mTileView = new CropTileView(context);
+        addView(mTileView, 1, new LayoutParams(LayoutParams.MATCH_PARENT, LayoutParams.MATCH_PARENT));
+
         mCropOverlayView = v.findViewById(R.id.CropOverlayView);
         mCropOverlayView.setCropWindowChangeListener(
                 new CropOverlayView.CropWindowChangeListener() {
@@ -409,6 +426,11 @@ public class CropImageView extends FrameLayout {
 
         mProgressBar = v.findViewById(R.id.CropProgressBar);
         setProgressBarVisibility();
+
+        if (!isInEditMode()) {
+            // know the max texture size before the first image decode needs it
+            CropDeviceCapabilities.warmUp(context);
+        }
     }
 
     /**
@@ -578,6 +600,27 @@ public class CropImageView extends FrameLayout {
         }
     }
 
+    /**
+     * whether the image is shown in full detail when zoomed in past the resolution of the loaded
+     * bitmap
+     */
+    public boolean isTiledDisplay() {
+        return mTiledDisplay;
+    }
+
+    /**
+     * Sets whether to show the image in full detail when zoomed in past the resolution of the loaded
+     * bitmap, by decoding only the tiles in view. Applies to images loaded by Uri from the next one
+     * on.<br>
+     * Default: true
+     */
+    public void setTiledDisplay(boolean tiledDisplay) {
+        mTiledDisplay = tiledDisplay;
+        if (!tiledDisplay) {
+            mTileView.clear();
+        }
+    }
+
     /**
      * Get the current guidelines option set.
      */
@@ -861,15 +904,17 @@ public class CropImageView extends FrameLayout {
             reqWidth = options != RequestSizeOptions.NONE ? reqWidth : 0;
             reqHeight = options != RequestSizeOptions.NONE ? reqHeight : 0;
 
-            if (mLoadedImageUri != null
-                    && (mLoadedSampleSize > 1 || options == RequestSizeOptions.SAMPLING)) {
+            long start = System.currentTimeMillis();
+            float[] points = getCropPoints();
+            int scale = planCrop(points, reqWidth, reqHeight, options);
+            if (scale == CropPlanner.DECODE_REGION) {
                 int orgWidth = mBitmap.getWidth() * mLoadedSampleSize;
                 int orgHeight = mBitmap.getHeight() * mLoadedSampleSize;
                 BitmapUtils.BitmapSampled bitmapSampled =
                         BitmapUtils.cropBitmap(
                                 getContext(),
                                 mLoadedImageUri,
-                                getCropPoints(),
+                                points,
                                 mDegreesRotated,
                                 orgWidth,
                                 orgHeight,
@@ -884,8 +929,11 @@ public class CropImageView extends FrameLayout {
             } else {
                 croppedBitmap =
                         BitmapUtils.cropBitmapObjectHandleOOM(
+                                getContext(),
                                 mBitmap,
-                                getCropPoints(),
+                                points,
+                                mLoadedSampleSize,
+                                scale,
                                 mDegreesRotated,
                                 mCropOverlayView.isFixAspectRatio(),
                                 mCropOverlayView.getAspectRatioX(),
@@ -894,6 +942,7 @@ public class CropImageView extends FrameLayout {
                                 mFlipVertically)
                                 .bitmap;
             }
+            CropPlanner.logCropTime(scale != CropPlanner.DECODE_REGION, start);
 
             croppedBitmap = BitmapUtils.resizeBitmap(croppedBitmap, reqWidth, reqHeight, options);
         }
@@ -1112,12 +1161,10 @@ public class CropImageView extends FrameLayout {
      */
     public void setImageUriAsync(Uri uri) {
         if (uri != null) {
-            BitmapLoadingWorkerTask currentTask =
-                    mBitmapLoadingWorkerTask != null ? mBitmapLoadingWorkerTask.get() : null;
-            if (currentTask != null) {
+            if (mBitmapLoadingWorkerTask != null) {
                 // cancel previous loading (no check if the same URI because camera URI can be the same for
                 // different images)
-                currentTask.cancel(true);
+                mBitmapLoadingWorkerTask.cancel();
             }
 
             // either no existing task is working or we canceled it, need to load new URI
@@ -1125,8 +1172,8 @@ public class CropImageView extends FrameLayout {
             mRestoreCropWindowRect = null;
             mRestoreDegreesRotated = 0;
             mCropOverlayView.setInitialCropWindowRect(null);
-            mBitmapLoadingWorkerTask = new WeakReference<>(new BitmapLoadingWorkerTask(this, uri));
-            mBitmapLoadingWorkerTask.get().executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+            mBitmapLoadingWorkerTask = new BitmapLoadingWorkerTask(this, uri);
+            mBitmapLoadingWorkerTask.start();
             setProgressBarVisibility();
         }
     }
@@ -1310,6 +1357,8 @@ public class CropImageView extends FrameLayout {
             mLoadedSampleSize = loadSampleSize;
             mDegreesRotated = degreesRotated;
 
+            mTileView.setImage(mTiledDisplay ? imageUri : null, loadSampleSize);
+
             applyImageMatrix(getWidth(), getHeight(), true, false);
 
             if (mCropOverlayView != null) {
@@ -1344,6 +1393,7 @@ public class CropImageView extends FrameLayout {
         mSaveInstanceStateBitmapUri = null;
 
         mImageView.setImageBitmap(null);
+        mTileView.clear();
 
         setCropOverlayVisibility();
     }
@@ -1376,11 +1426,9 @@ public class CropImageView extends FrameLayout {
         if (bitmap != null) {
             mImageView.clearAnimation();
 
-            BitmapCroppingWorkerTask currentTask =
-                    mBitmapCroppingWorkerTask != null ? mBitmapCroppingWorkerTask.get() : null;
-            if (currentTask != null) {
+            if (mBitmapCroppingWorkerTask != null) {
                 // cancel previous cropping
-                currentTask.cancel(true);
+                mBitmapCroppingWorkerTask.cancel();
             }
 
             reqWidth = options != RequestSizeOptions.NONE ? reqWidth : 0;
@@ -1388,53 +1436,78 @@ public class CropImageView extends FrameLayout {
 
             int orgWidth = bitmap.getWidth() * mLoadedSampleSize;
             int orgHeight = bitmap.getHeight() * mLoadedSampleSize;
-            if (mLoadedImageUri != null
-                    && (mLoadedSampleSize > 1 || options == RequestSizeOptions.SAMPLING)) {
+            float[] points = getCropPoints();
+            int scale = planCrop(points, reqWidth, reqHeight, options);
+            if (scale == CropPlanner.DECODE_REGION) {
                 mBitmapCroppingWorkerTask =
-                        new WeakReference<>(
-                                new BitmapCroppingWorkerTask(
-                                        this,
-                                        mLoadedImageUri,
-                                        getCropPoints(),
-                                        mDegreesRotated,
-                                        orgWidth,
-                                        orgHeight,
-                                        mCropOverlayView.isFixAspectRatio(),
-                                        mCropOverlayView.getAspectRatioX(),
-                                        mCropOverlayView.getAspectRatioY(),
-                                        reqWidth,
-                                        reqHeight,
-                                        mFlipHorizontally,
-                                        mFlipVertically,
-                                        options,
-                                        saveUri,
-                                        saveCompressFormat,
-                                        saveCompressQuality));
+                        new BitmapCroppingWorkerTask(
+                                this,
+                                mLoadedImageUri,
+                                points,
+                                mDegreesRotated,
+                                orgWidth,
+                                orgHeight,
+                                mCropOverlayView.isFixAspectRatio(),
+                                mCropOverlayView.getAspectRatioX(),
+                                mCropOverlayView.getAspectRatioY(),
+                                reqWidth,
+                                reqHeight,
+                                mFlipHorizontally,
+                                mFlipVertically,
+                                options,
+                                saveUri,
+                                saveCompressFormat,
+                                saveCompressQuality);
             } else {
                 mBitmapCroppingWorkerTask =
-                        new WeakReference<>(
-                                new BitmapCroppingWorkerTask(
-                                        this,
-                                        bitmap,
-                                        getCropPoints(),
-                                        mDegreesRotated,
-                                        mCropOverlayView.isFixAspectRatio(),
-                                        mCropOverlayView.getAspectRatioX(),
-                                        mCropOverlayView.getAspectRatioY(),
-                                        reqWidth,
-                                        reqHeight,
-                                        mFlipHorizontally,
-                                        mFlipVertically,
-                                        options,
-                                        saveUri,
-                                        saveCompressFormat,
-                                        saveCompressQuality));
+                        new BitmapCroppingWorkerTask(
+                                this,
+                                bitmap,
+                                points,
+                                mLoadedSampleSize,
+                                scale,
+                                mDegreesRotated,
+                                mCropOverlayView.isFixAspectRatio(),
+                                mCropOverlayView.getAspectRatioX(),
+                                mCropOverlayView.getAspectRatioY(),
+                                reqWidth,
+                                reqHeight,
+                                mFlipHorizontally,
+                                mFlipVertically,
+                                options,
+                                saveUri,
+                                saveCompressFormat,
+                                saveCompressQuality);
             }
-            mBitmapCroppingWorkerTask.get().executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+            mBitmapCroppingWorkerTask.start();
             setProgressBarVisibility();
         }
     }
 
+    /**
+     * Plan if the crop can be taken from the loaded bitmap or the crop region must be decoded from
+     * the loaded Uri, see {@link CropPlanner}.
+     *
+     * @param points the crop points in the original image
+     * @return the power of 2 to scale the crop of the loaded bitmap down by, or {@link
+     * CropPlanner#DECODE_REGION}
+     */
+    private int planCrop(float[] points, int reqWidth, int reqHeight, RequestSizeOptions options) {
+        if (mLoadedImageUri == null) {
+            // the bitmap was set directly, there is nothing to decode again
+            return 1;
+        }
+        Rect rect =
+                BitmapUtils.getRectFromPoints(
+                        points,
+                        mBitmap.getWidth() * mLoadedSampleSize,
+                        mBitmap.getHeight() * mLoadedSampleSize,
+                        mCropOverlayView.isFixAspectRatio(),
+                        mCropOverlayView.getAspectRatioX(),
+                        mCropOverlayView.getAspectRatioY());
+        return CropPlanner.plan(rect, points, mLoadedSampleSize, reqWidth, reqHeight, options);
+    }
+
     @Override
     public Parcelable onSaveInstanceState() {
         if (mLoadedImageUri == null && mBitmap == null && mImageResource < 1) {
@@ -1455,10 +1528,7 @@ public class CropImageView extends FrameLayout {
             bundle.putString("LOADED_IMAGE_STATE_BITMAP_KEY", key);
         }
         if (mBitmapLoadingWorkerTask != null) {
-            BitmapLoadingWorkerTask task = mBitmapLoadingWorkerTask.get();
-            if (task != null) {
-                bundle.putParcelable("LOADING_IMAGE_URI", task.getUri());
-            }
+            bundle.putParcelable("LOADING_IMAGE_URI", mBitmapLoadingWorkerTask.getUri());
         }
         bundle.putParcelable("instanceState", super.onSaveInstanceState());
         bundle.putParcelable("LOADED_IMAGE_URI", imageUri);
@@ -1711,7 +1781,7 @@ public class CropImageView extends FrameLayout {
                     if (animate) {
                         if (mAnimation == null) {
                             // lazy create animation single instance
-                            mAnimation = new CropImageAnimation(mImageView, mCropOverlayView);
+                            mAnimation = new CropImageAnimation(mImageView, mCropOverlayView, mTileView);
                         }
                         // set the state for animation to start from
                         mAnimation.setStartState(mImagePoints, mImageMatrix);
@@ -1828,6 +1898,7 @@ public class CropImageView extends FrameLayout {
                 mImageView.startAnimation(mAnimation);
             } else {
                 mImageView.setImageMatrix(mImageMatrix);
+                mTileView.setImageMatrix(mImageMatrix);
             }
 
             // update the image rectangle in the crop overlay
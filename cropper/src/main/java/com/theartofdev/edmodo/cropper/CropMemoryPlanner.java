@@ -0,0 +1,262 @@
+// "Therefore those skilled at the unorthodox
+// are infinite as heaven and earth,
+// inexhaustible as the great rivers.
+// When they come to an end,
+// they begin again,
+// like the days and months;
+// they die and are reborn,
+// like the four seasons."
+//
+// - Sun Tsu,
+// "The Art of War"
+
+package com.theartofdev.edmodo.cropper;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.Build;
+import android.util.Log;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Chooses the sample size and config of a bitmap before it is allocated, so it fits in the memory
+ * the app has left, instead of allocating, running out of memory and retrying at a higher sample
+ * size.<br>
+ * The budget is the memory class of the device ({@link ActivityManager#getMemoryClass()}) less the
+ * heap in use; on Android O and up bitmap pixels live outside the Java heap so the memory class
+ * alone bounds them.<br>
+ * Counts how often the plan differs from the bitmap asked for, i.e. how often the old out of memory
+ * fallback would have fired, available to the host app by {@link #getStats()}.
+ */
+public final class CropMemoryPlanner {
+
+    // region: Fields and Consts
+
+    /**
+     * The share of the free memory a single bitmap operation may use, the rest is for everything
+     * else running
+     */
+    private static final float BUDGET_SHARE = 0.8f;
+
+    /**
+     * The largest sample size planned, as large as the old fallback went
+     */
+    private static final int MAX_SAMPLE_SIZE = 512;
+
+    /**
+     * The memory class of the device in bytes, 0 until known
+     */
+    private static volatile long mMemoryClassBytes;
+
+    private static final AtomicLong mPlans = new AtomicLong();
+
+    private static final AtomicLong mFallbacksAvoided = new AtomicLong();
+
+    private static final AtomicLong mConfigsReduced = new AtomicLong();
+
+    private static final AtomicLong mOutOfMemory = new AtomicLong();
+    // endregion
+
+    private CropMemoryPlanner() {
+    }
+
+    /**
+     * Snapshot of the planner metrics since the process started.
+     */
+    public static Stats getStats() {
+        return new Stats(mPlans.get(), mFallbacksAvoided.get(), mConfigsReduced.get(), mOutOfMemory.get());
+    }
+
+    /**
+     * Plan decoding an image so it fits in the memory left.
+     *
+     * @param width         the width of the decoded area of the image
+     * @param height        the height of the decoded area of the image
+     * @param minSampleSize the sample size the caller wants, the plan is never below it
+     * @param opaque        if the image has no alpha and can be decoded to {@link Bitmap.Config#RGB_565}
+     * @param copies        how many bitmaps of the decoded size are alive at once, i.e. 2 if the
+     *                      decoded bitmap is rotated into a new one
+     */
+    static Plan planDecode(
+            Context context, int width, int height, int minSampleSize, boolean opaque, int copies) {
+        long budget = getBudgetBytes(context);
+        int sampleSize = Math.max(1, minSampleSize);
+        Bitmap.Config config = Bitmap.Config.ARGB_8888;
+        boolean reduced = opaque && !fits(width, height, sampleSize, 4, copies, budget);
+        if (reduced) {
+            // half the memory for no visible loss beats halving the resolution
+            config = Bitmap.Config.RGB_565;
+            mConfigsReduced.incrementAndGet();
+        }
+        sampleSize = fit(width, height, sampleSize, getBytesPerPixel(config), copies, budget);
+        onPlanned(width, height, minSampleSize, sampleSize, config, reduced, budget);
+        return new Plan(sampleSize, config);
+    }
+
+    /**
+     * Plan how much to scale down a crop of a bitmap already in memory so it fits in the memory left.
+     *
+     * @param width    the width of the cropped area of the bitmap
+     * @param height   the height of the cropped area of the bitmap
+     * @param config   the config of the bitmap, the crop keeps it
+     * @param minScale the scale the caller wants, the plan is never below it
+     * @param copies   how many bitmaps of the cropped size are alive at once
+     * @return the power of 2 to scale the crop down by, 1 to keep it full size
+     */
+    static int planScale(
+            Context context, int width, int height, Bitmap.Config config, int minScale, int copies) {
+        long budget = getBudgetBytes(context);
+        int scale = fit(width, height, Math.max(1, minScale), getBytesPerPixel(config), copies, budget);
+        onPlanned(width, height, minScale, scale, config, false, budget);
+        return scale;
+    }
+
+    /**
+     * Count an allocation that ran out of memory even though it was planned to fit.
+     */
+    static void onOutOfMemory() {
+        mOutOfMemory.incrementAndGet();
+        Log.w("AIC", "Out of memory on a planned bitmap, " + getStats());
+    }
+
+    /**
+     * The bytes a single bitmap operation may allocate now.
+     */
+    private static long getBudgetBytes(Context context) {
+        if (mMemoryClassBytes == 0) {
+            ActivityManager manager =
+                    (ActivityManager) context.getApplicationContext().getSystemService(Context.ACTIVITY_SERVICE);
+            mMemoryClassBytes = manager != null ? manager.getMemoryClass() * 1024L * 1024L : -1;
+        }
+        Runtime runtime = Runtime.getRuntime();
+        long limit = mMemoryClassBytes > 0 ? mMemoryClassBytes : runtime.maxMemory();
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O) {
+            // bitmap pixels share the Java heap with everything else
+            limit = Math.min(limit, runtime.maxMemory()) - (runtime.totalMemory() - runtime.freeMemory());
+        }
+        return Math.max(0, (long) (limit * BUDGET_SHARE));
+    }
+
+    /**
+     * The smallest power of 2 sample size, not below the given one, to fit in the budget.
+     */
+    private static int fit(
+            int width, int height, int sampleSize, int bytesPerPixel, int copies, long budget) {
+        while (!fits(width, height, sampleSize, bytesPerPixel, copies, budget)
+                && sampleSize < MAX_SAMPLE_SIZE) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    private static boolean fits(
+            int width, int height, int sampleSize, int bytesPerPixel, int copies, long budget) {
+        long w = (width + sampleSize - 1) / sampleSize;
+        long h = (height + sampleSize - 1) / sampleSize;
+        return w * h * bytesPerPixel * copies <= budget;
+    }
+
+    private static int getBytesPerPixel(Bitmap.Config config) {
+        if (config == Bitmap.Config.RGB_565) {
+            return 2;
+        } else if (config == Bitmap.Config.ALPHA_8) {
+            return 1;
+        }
+        return 4;
+    }
+
+    private static void onPlanned(
+            int width,
+            int height,
+            int minSampleSize,
+            int sampleSize,
+            Bitmap.Config config,
+            boolean reduced,
+            long budget) {
+        mPlans.incrementAndGet();
+        if (reduced || sampleSize > Math.max(1, minSampleSize)) {
+            // the bitmap asked for would not have fit, the old code would have run out of memory
+            mFallbacksAvoided.incrementAndGet();
+            Log.d(
+                    "AIC",
+                    String.format(
+                            Locale.US,
+                            "Planned %dx%d at sample %d (asked %d) %s within %d KB",
+                            width,
+                            height,
+                            sampleSize,
+                            minSampleSize,
+                            config,
+                            budget / 1024));
+        }
+    }
+
+    // region: Inner class: Plan
+
+    /**
+     * The sample size and config to decode by.
+     */
+    static final class Plan {
+
+        final int sampleSize;
+
+        final Bitmap.Config config;
+
+        Plan(int sampleSize, Bitmap.Config config) {
+            this.sampleSize = sampleSize;
+            this.config = config;
+        }
+    }
+    // endregion
+
+    // region: Inner class: Stats
+
+    /**
+     * The metrics of the planner at the time they were read.
+     */
+    public static final class Stats {
+
+        /**
+         * The number of bitmaps planned
+         */
+        public final long planCount;
+
+        /**
+         * The number of bitmaps that would not have fit as asked for, where the old out of memory
+         * fallback would have fired
+         */
+        public final long fallbackCount;
+
+        /**
+         * The number of decodes planned in RGB_565 to fit
+         */
+        public final long configReducedCount;
+
+        /**
+         * The number of planned allocations that still ran out of memory
+         */
+        public final long outOfMemoryCount;
+
+        Stats(long planCount, long fallbackCount, long configReducedCount, long outOfMemoryCount) {
+            this.planCount = planCount;
+            this.fallbackCount = fallbackCount;
+            this.configReducedCount = configReducedCount;
+            this.outOfMemoryCount = outOfMemoryCount;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                    Locale.US,
+                    "planned %d, fallbacks avoided %d, reduced to RGB_565 %d, out of memory %d",
+                    planCount,
+                    fallbackCount,
+                    configReducedCount,
+                    outOfMemoryCount);
+        }
+    }
+    // endregion
+}
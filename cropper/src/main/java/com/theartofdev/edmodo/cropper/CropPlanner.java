@@ -0,0 +1,115 @@
+// "Therefore those skilled at the unorthodox
+// are infinite as heaven and earth,
+// inexhaustible as the great rivers.
+// When they come to an end,
+// they begin again,
+// like the days and months;
+// they die and are reborn,
+// like the four seasons."
+//
+// - Sun Tsu,
+// "The Art of War"
+
+package com.theartofdev.edmodo.cropper;
+
+import android.graphics.Rect;
+import android.util.Log;
+
+import java.util.Locale;
+
+/**
+ * Chooses where a crop of an image loaded from Uri is taken from: the bitmap already loaded for
+ * display, or a decode of only the crop rectangle from the Uri.<br>
+ * The loaded bitmap is sampled down to fit the screen, so it is used only if the output asked for
+ * doesn't need more detail than it has, i.e. the output would be scaled down by at least the loaded
+ * sample size anyway. Otherwise decoding the image again can't be avoided.
+ */
+final class CropPlanner {
+
+    /**
+     * Returned by {@link #plan} when the loaded bitmap has too little detail for the output.
+     */
+    static final int DECODE_REGION = 0;
+
+    private CropPlanner() {
+    }
+
+    /**
+     * Plan the crop of the given points out of an image loaded from Uri.
+     *
+     * @param cropRect         the rectangle containing the crop points, in the original image
+     * @param points           the 4 crop points, in the original image
+     * @param loadedSampleSize the sample size the loaded bitmap was decoded by
+     * @param reqWidth         the width asked for, 0 for full size
+     * @param reqHeight        the height asked for, 0 for full size
+     * @param options          how the crop is resized to the size asked for
+     * @return the power of 2 to scale the crop of the loaded bitmap down by, 1 to keep it as is, or
+     * {@link #DECODE_REGION} to decode the crop rectangle from the Uri
+     */
+    static int plan(
+            Rect cropRect,
+            float[] points,
+            int loadedSampleSize,
+            int reqWidth,
+            int reqHeight,
+            CropImageView.RequestSizeOptions options) {
+        // the size of the crop itself, the rectangle is larger if rotated by not straight angle
+        float outWidth = distance(points, 0, 2);
+        float outHeight = distance(points, 2, 4);
+
+        int scale;
+        if (reqWidth <= 0 || reqHeight <= 0 || options == CropImageView.RequestSizeOptions.NONE) {
+            // full size asked for
+            scale = loadedSampleSize <= 1 ? 1 : DECODE_REGION;
+        } else if (options == CropImageView.RequestSizeOptions.SAMPLING) {
+            // same sample size the region decode would use, the loaded bitmap is sampled down the rest
+            int sampleSize =
+                    BitmapUtils.calculateInSampleSizeByReqestedSize(
+                            cropRect.width(), cropRect.height(), reqWidth, reqHeight);
+            scale = sampleSize >= loadedSampleSize ? sampleSize / loadedSampleSize : DECODE_REGION;
+        } else {
+            float widthRatio = outWidth / reqWidth;
+            float heightRatio = outHeight / reqHeight;
+            // how much the full size crop is scaled down by the resize, exact scales each axis apart
+            float downscale =
+                    options == CropImageView.RequestSizeOptions.RESIZE_EXACT
+                            ? Math.min(widthRatio, heightRatio)
+                            : Math.max(widthRatio, heightRatio);
+            scale = loadedSampleSize <= Math.max(1, downscale) ? 1 : DECODE_REGION;
+        }
+
+        Log.d(
+                "AIC",
+                String.format(
+                        Locale.US,
+                        "Crop %.0fx%.0f to %dx%d %s: %s (loaded sample %d)",
+                        outWidth,
+                        outHeight,
+                        reqWidth,
+                        reqHeight,
+                        options,
+                        scale != DECODE_REGION ? "loaded bitmap at 1/" + scale : "region decode",
+                        loadedSampleSize));
+        return scale;
+    }
+
+    /**
+     * Log how long the crop took from the source planned.
+     *
+     * @param fromBitmap if the crop was taken from the loaded bitmap
+     * @param startMs    the time the crop started at
+     */
+    static void logCropTime(boolean fromBitmap, long startMs) {
+        Log.d(
+                "AIC",
+                "Cropped by "
+                        + (fromBitmap ? "loaded bitmap" : "region decode")
+                        + " in "
+                        + (System.currentTimeMillis() - startMs)
+                        + " ms");
+    }
+
+    private static float distance(float[] points, int from, int to) {
+        return (float) Math.hypot(points[to] - points[from], points[to + 1] - points[from + 1]);
+    }
+}
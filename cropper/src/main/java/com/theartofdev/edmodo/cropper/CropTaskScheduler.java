@@ -0,0 +1,265 @@
+// "Therefore those skilled at the unorthodox
+// are infinite as heaven and earth,
+// inexhaustible as the great rivers.
+// When they come to an end,
+// they begin again,
+// like the days and months;
+// they die and are reborn,
+// like the four seasons."
+//
+// - Sun Tsu,
+// "The Art of War"
+
+package com.theartofdev.edmodo.cropper;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+
+import java.util.Locale;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs the loading, cropping and tile decoding work of all crop image views on a small pool of
+ * background threads.<br>
+ * The pool is bounded as each task may hold a full size bitmap, queued tasks run by priority then
+ * in the order they were started, and a cancelled task is dropped from the queue right away.<br>
+ * Queue and latency metrics are available to the host app by {@link #getStats()}.
+ */
+public final class CropTaskScheduler {
+
+    // region: Fields and Consts
+
+    /**
+     * Loading the image to show goes before cropping.
+     */
+    static final int PRIORITY_LOAD = 2;
+
+    static final int PRIORITY_CROP = 1;
+
+    /**
+     * Tiles only add detail over the image already shown.
+     */
+    static final int PRIORITY_TILE = 0;
+
+    /**
+     * Decoding runs out of memory long before it runs out of cores.
+     */
+    private static final int MAX_THREADS = 2;
+
+    private static final CropTaskScheduler INSTANCE = new CropTaskScheduler();
+
+    private final ThreadPoolExecutor mExecutor;
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    private final AtomicLong mSequence = new AtomicLong();
+
+    private final AtomicLong mSubmitted = new AtomicLong();
+
+    private final AtomicLong mCompleted = new AtomicLong();
+
+    private final AtomicLong mCancelled = new AtomicLong();
+
+    private final AtomicLong mTotalWaitMs = new AtomicLong();
+
+    private final AtomicLong mTotalRunMs = new AtomicLong();
+
+    private final AtomicLong mMaxWaitMs = new AtomicLong();
+
+    private final AtomicInteger mPeakQueueSize = new AtomicInteger();
+    // endregion
+
+    private CropTaskScheduler() {
+        int threads = Math.max(1, Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors() - 1));
+        mExecutor =
+                new ThreadPoolExecutor(
+                        threads,
+                        threads,
+                        30,
+                        TimeUnit.SECONDS,
+                        new PriorityBlockingQueue<Runnable>(),
+                        new ThreadFactory() {
+                            private final AtomicInteger mCount = new AtomicInteger();
+
+                            @Override
+                            public Thread newThread(final Runnable runnable) {
+                                return new Thread(
+                                        new Runnable() {
+                                            @Override
+                                            public void run() {
+                                                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                                                runnable.run();
+                                            }
+                                        },
+                                        "CropTask #" + mCount.incrementAndGet());
+                            }
+                        });
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * The scheduler shared by all crop image views.
+     */
+    public static CropTaskScheduler getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Snapshot of the scheduler metrics since the process started.
+     */
+    public Stats getStats() {
+        long completed = mCompleted.get();
+        return new Stats(
+                mExecutor.getQueue().size(),
+                mPeakQueueSize.get(),
+                mExecutor.getActiveCount(),
+                mSubmitted.get(),
+                completed,
+                mCancelled.get(),
+                completed > 0 ? mTotalWaitMs.get() / completed : 0,
+                mMaxWaitMs.get(),
+                completed > 0 ? mTotalRunMs.get() / completed : 0);
+    }
+
+    /**
+     * Queue the task to run once a thread is free and no task of higher priority waits.
+     */
+    void execute(CropWorkerTask<?> task) {
+        task.mSequence = mSequence.incrementAndGet();
+        task.mQueuedAt = System.currentTimeMillis();
+        mSubmitted.incrementAndGet();
+        mExecutor.execute(task);
+        int size = mExecutor.getQueue().size();
+        int peak;
+        while (size > (peak = mPeakQueueSize.get()) && !mPeakQueueSize.compareAndSet(peak, size)) {
+            // retry until the peak is at least the current size
+        }
+    }
+
+    /**
+     * Drop the task from the queue if it has not started yet.
+     */
+    void remove(CropWorkerTask<?> task) {
+        if (mExecutor.remove(task)) {
+            mCancelled.incrementAndGet();
+        }
+    }
+
+    void postToMain(Runnable runnable) {
+        mHandler.post(runnable);
+    }
+
+    void onStarted(long waitMs) {
+        mTotalWaitMs.addAndGet(waitMs);
+        long max;
+        while (waitMs > (max = mMaxWaitMs.get()) && !mMaxWaitMs.compareAndSet(max, waitMs)) {
+            // retry until the max is at least this wait
+        }
+    }
+
+    void onFinished(long runMs, boolean cancelled) {
+        mTotalRunMs.addAndGet(runMs);
+        mCompleted.incrementAndGet();
+        if (cancelled) {
+            mCancelled.incrementAndGet();
+        }
+    }
+
+    // region: Inner class: Stats
+
+    /**
+     * The metrics of the scheduler at the time they were read.
+     */
+    public static final class Stats {
+
+        /**
+         * The number of tasks waiting for a thread
+         */
+        public final int queueSize;
+
+        /**
+         * The most tasks that waited for a thread at the same time
+         */
+        public final int peakQueueSize;
+
+        /**
+         * The number of tasks running
+         */
+        public final int activeCount;
+
+        /**
+         * The number of tasks started
+         */
+        public final long submittedCount;
+
+        /**
+         * The number of tasks that ran to the end or stopped on cancel
+         */
+        public final long completedCount;
+
+        /**
+         * The number of tasks cancelled while queued or running
+         */
+        public final long cancelledCount;
+
+        /**
+         * The average time tasks waited in the queue, in milliseconds
+         */
+        public final long averageWaitMs;
+
+        /**
+         * The longest time a task waited in the queue, in milliseconds
+         */
+        public final long maxWaitMs;
+
+        /**
+         * The average time tasks ran, in milliseconds
+         */
+        public final long averageRunMs;
+
+        Stats(
+                int queueSize,
+                int peakQueueSize,
+                int activeCount,
+                long submittedCount,
+                long completedCount,
+                long cancelledCount,
+                long averageWaitMs,
+                long maxWaitMs,
+                long averageRunMs) {
+            this.queueSize = queueSize;
+            this.peakQueueSize = peakQueueSize;
+            this.activeCount = activeCount;
+            this.submittedCount = submittedCount;
+            this.completedCount = completedCount;
+            this.cancelledCount = cancelledCount;
+            this.averageWaitMs = averageWaitMs;
+            this.maxWaitMs = maxWaitMs;
+            this.averageRunMs = averageRunMs;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                    Locale.US,
+                    "queued %d (peak %d), active %d, submitted %d, completed %d, cancelled %d, "
+                            + "wait avg %d ms max %d ms, run avg %d ms",
+                    queueSize,
+                    peakQueueSize,
+                    activeCount,
+                    submittedCount,
+                    completedCount,
+                    cancelledCount,
+                    averageWaitMs,
+                    maxWaitMs,
+                    averageRunMs);
+        }
+    }
+    // endregion
+}
@@ -0,0 +1,464 @@
+// "Therefore those skilled at the unorthodox
+// are infinite as heaven and earth,
+// inexhaustible as the great rivers.
+// When they come to an end,
+// they begin again,
+// like the days and months;
+// they die and are reborn,
+// like the four seasons."
+//
+// - Sun Tsu,
+// "The Art of War"
+
+package com.theartofdev.edmodo.cropper;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.net.Uri;
+import android.util.Log;
+import android.util.LruCache;
+import android.view.View;
+
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Shows the image in full detail over the sampled bitmap of the crop image view once it is zoomed
+ * in past the resolution of that bitmap.<br>
+ * Only the tiles in view are decoded, by {@link BitmapRegionDecoder} from the image Uri, at the
+ * sample size matching the zoom of the image matrix. Decoded tiles are kept in an LRU cache so
+ * panning back and forth doesn't decode them again; the full image is never held in memory.
+ */
+final class CropTileView extends View {
+
+    // region: Fields and Consts
+
+    /**
+     * The size of a decoded tile in pixels
+     */
+    private static final int TILE_SIZE = 512;
+
+    /**
+     * Wait for the zoom or pan to settle before decoding tiles for it
+     */
+    private static final int UPDATE_DELAY_MS = 60;
+
+    /**
+     * Tiles decoded for the current image by level, column and row
+     */
+    private final LruCache<Long, Bitmap> mTiles =
+            new LruCache<Long, Bitmap>((int) Math.min(Runtime.getRuntime().maxMemory() / 8, Integer.MAX_VALUE)) {
+                @Override
+                protected int sizeOf(Long key, Bitmap bitmap) {
+                    return bitmap.getByteCount();
+                }
+
+                @Override
+                protected void entryRemoved(boolean evicted, Long key, Bitmap oldValue, Bitmap newValue) {
+                    oldValue.recycle();
+                }
+            };
+
+    /**
+     * Tile decoding started and not yet delivered by tile key
+     */
+    private final Map<Long, TileDecodingWorkerTask> mPendingTiles = new HashMap<>();
+
+    private final Matrix mImageMatrix = new Matrix();
+
+    private final Matrix mInverseMatrix = new Matrix();
+
+    private final Matrix mTileMatrix = new Matrix();
+
+    private final RectF mRect = new RectF();
+
+    private final Rect mVisibleRect = new Rect();
+
+    private final Paint mPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+    private final Runnable mUpdateTiles =
+            new Runnable() {
+                @Override
+                public void run() {
+                    updateTiles();
+                }
+            };
+
+    /**
+     * The Uri of the image to decode tiles from, null if there are no tiles to show
+     */
+    private Uri mUri;
+
+    /**
+     * The sample size of the bitmap shown under the tiles
+     */
+    private int mLoadedSampleSize;
+
+    /**
+     * The width and height of the full image
+     */
+    private int mImageWidth;
+
+    private int mImageHeight;
+
+    /**
+     * The decoder of the image, null while it is being opened
+     */
+    private BitmapRegionDecoder mDecoder;
+
+    private DecoderOpeningWorkerTask mDecoderTask;
+
+    /**
+     * The sample size the tiles in view are decoded at, 0 if the sampled bitmap is detailed enough
+     */
+    private int mLevel;
+    // endregion
+
+    CropTileView(Context context) {
+        super(context);
+        setWillNotDraw(false);
+    }
+
+    /**
+     * Set the image to show tiles of.
+     *
+     * @param uri              the image to decode tiles from, null to show none
+     * @param loadedSampleSize the sample size of the bitmap the image matrix applies to
+     */
+    void setImage(Uri uri, int loadedSampleSize) {
+        clear();
+        if (uri != null && loadedSampleSize > 1) {
+            mUri = uri;
+            mLoadedSampleSize = loadedSampleSize;
+            mDecoderTask = new DecoderOpeningWorkerTask(this, uri);
+            mDecoderTask.start();
+        }
+    }
+
+    /**
+     * Set the matrix mapping the sampled bitmap to the view, the tiles follow it.
+     */
+    void setImageMatrix(Matrix matrix) {
+        mImageMatrix.set(matrix);
+        if (mUri != null) {
+            removeCallbacks(mUpdateTiles);
+            postDelayed(mUpdateTiles, UPDATE_DELAY_MS);
+            invalidate();
+        }
+    }
+
+    /**
+     * Stop decoding and release the tiles and the decoder.
+     */
+    void clear() {
+        removeCallbacks(mUpdateTiles);
+        cancelPendingTiles();
+        if (mDecoderTask != null) {
+            mDecoderTask.cancel();
+            mDecoderTask = null;
+        }
+        if (mDecoder != null) {
+            mDecoder.recycle();
+            mDecoder = null;
+        }
+        mTiles.evictAll();
+        mUri = null;
+        mLevel = 0;
+        invalidate();
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        removeCallbacks(mUpdateTiles);
+        cancelPendingTiles();
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        if (mDecoder == null || mLevel == 0 || !getVisibleRect()) {
+            return;
+        }
+        int tileSize = TILE_SIZE * mLevel;
+        for (int row = mVisibleRect.top / tileSize; row * tileSize < mVisibleRect.bottom; row++) {
+            for (int col = mVisibleRect.left / tileSize; col * tileSize < mVisibleRect.right; col++) {
+                Bitmap tile = mTiles.get(getTileKey(mLevel, col, row));
+                if (tile != null) {
+                    int left = col * tileSize;
+                    int top = row * tileSize;
+                    int right = Math.min(left + tileSize, mImageWidth);
+                    int bottom = Math.min(top + tileSize, mImageHeight);
+                    // tile pixels to image pixels to sampled bitmap pixels to the view
+                    mTileMatrix.setScale(
+                            (right - left) / (float) tile.getWidth() / mLoadedSampleSize,
+                            (bottom - top) / (float) tile.getHeight() / mLoadedSampleSize);
+                    mTileMatrix.postTranslate(left / (float) mLoadedSampleSize, top / (float) mLoadedSampleSize);
+                    mTileMatrix.postConcat(mImageMatrix);
+                    canvas.drawBitmap(tile, mTileMatrix, mPaint);
+                }
+            }
+        }
+    }
+
+    /**
+     * On the decoder open set it and start decoding the tiles in view.
+     */
+    void onDecoderOpened(DecoderOpeningWorkerTask task, BitmapRegionDecoder decoder) {
+        if (task != mDecoderTask || mUri == null) {
+            if (decoder != null) {
+                decoder.recycle();
+            }
+            return;
+        }
+        mDecoderTask = null;
+        if (decoder == null) {
+            // can't show tiles, the sampled bitmap is all there is
+            mUri = null;
+            return;
+        }
+        mDecoder = decoder;
+        mImageWidth = decoder.getWidth();
+        mImageHeight = decoder.getHeight();
+        updateTiles();
+    }
+
+    /**
+     * On a tile decoded keep it and draw it if it's still in view.
+     */
+    void onTileDecoded(TileDecodingWorkerTask task, Bitmap tile) {
+        if (mPendingTiles.get(task.mKey) != task) {
+            if (tile != null) {
+                tile.recycle();
+            }
+            return;
+        }
+        mPendingTiles.remove(task.mKey);
+        if (tile != null) {
+            mTiles.put(task.mKey, tile);
+            invalidate();
+        }
+    }
+
+    /**
+     * Find the sample size matching the zoom and start decoding the missing tiles in view, cancel
+     * the decoding of tiles no longer needed.
+     */
+    private void updateTiles() {
+        if (mDecoder == null) {
+            return;
+        }
+
+        // view pixels per image pixel
+        float scale = mImageMatrix.mapRadius(1) / mLoadedSampleSize;
+        int level = 1;
+        while (level * 2 * scale <= 1) {
+            level *= 2;
+        }
+        if (level >= mLoadedSampleSize) {
+            // the sampled bitmap shows all the detail the zoom can
+            level = 0;
+        }
+        if (level != mLevel) {
+            mLevel = level;
+            mTiles.evictAll();
+            invalidate();
+        }
+        if (level == 0 || !getVisibleRect()) {
+            cancelPendingTiles();
+            return;
+        }
+
+        int tileSize = TILE_SIZE * level;
+        int firstCol = mVisibleRect.left / tileSize;
+        int firstRow = mVisibleRect.top / tileSize;
+        int lastCol = (mVisibleRect.right - 1) / tileSize;
+        int lastRow = (mVisibleRect.bottom - 1) / tileSize;
+
+        // drop the decoding of tiles out of view
+        Iterator<Map.Entry<Long, TileDecodingWorkerTask>> iterator = mPendingTiles.entrySet().iterator();
+        while (iterator.hasNext()) {
+            TileDecodingWorkerTask task = iterator.next().getValue();
+            if (task.mLevel != level
+                    || task.mCol < firstCol
+                    || task.mCol > lastCol
+                    || task.mRow < firstRow
+                    || task.mRow > lastRow) {
+                task.cancel();
+                iterator.remove();
+            }
+        }
+
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int col = firstCol; col <= lastCol; col++) {
+                long key = getTileKey(level, col, row);
+                if (mTiles.get(key) == null && !mPendingTiles.containsKey(key)) {
+                    Rect region =
+                            new Rect(
+                                    col * tileSize,
+                                    row * tileSize,
+                                    Math.min((col + 1) * tileSize, mImageWidth),
+                                    Math.min((row + 1) * tileSize, mImageHeight));
+                    TileDecodingWorkerTask task =
+                            new TileDecodingWorkerTask(this, mDecoder, key, level, col, row, region);
+                    mPendingTiles.put(key, task);
+                    task.start();
+                }
+            }
+        }
+    }
+
+    /**
+     * Set the part of the full image in view, in image pixels.
+     *
+     * @return false if none of the image is in view
+     */
+    private boolean getVisibleRect() {
+        if (!mImageMatrix.invert(mInverseMatrix)) {
+            return false;
+        }
+        mRect.set(0, 0, getWidth(), getHeight());
+        mInverseMatrix.mapRect(mRect);
+        mVisibleRect.set(
+                (int) Math.floor(mRect.left * mLoadedSampleSize),
+                (int) Math.floor(mRect.top * mLoadedSampleSize),
+                (int) Math.ceil(mRect.right * mLoadedSampleSize),
+                (int) Math.ceil(mRect.bottom * mLoadedSampleSize));
+        return mVisibleRect.intersect(0, 0, mImageWidth, mImageHeight);
+    }
+
+    /**
+     * Cancel the decoding of all pending tiles.
+     */
+    private void cancelPendingTiles() {
+        for (TileDecodingWorkerTask task : mPendingTiles.values()) {
+            task.cancel();
+        }
+        mPendingTiles.clear();
+    }
+
+    private static long getTileKey(int level, int col, int row) {
+        return ((long) level << 48) | ((long) col << 24) | row;
+    }
+
+    // region: Inner class: DecoderOpeningWorkerTask
+
+    /**
+     * Task to open the region decoder of the image in background.
+     */
+    static final class DecoderOpeningWorkerTask extends CropWorkerTask<BitmapRegionDecoder> {
+
+        private final CropTileView mTileView;
+
+        private final Uri mUri;
+
+        private final Context mContext;
+
+        DecoderOpeningWorkerTask(CropTileView tileView, Uri uri) {
+            super(CropTaskScheduler.PRIORITY_TILE);
+            mTileView = tileView;
+            mUri = uri;
+            mContext = tileView.getContext();
+        }
+
+        @Override
+        protected BitmapRegionDecoder doInBackground() {
+            InputStream stream = null;
+            try {
+                stream = mContext.getContentResolver().openInputStream(mUri);
+                return stream != null ? BitmapRegionDecoder.newInstance(stream, false) : null;
+            } catch (Exception e) {
+                Log.w("AIC", "Failed to open region decoder, tiled display disabled", e);
+                return null;
+            } finally {
+                BitmapUtils.closeSafe(stream);
+            }
+        }
+
+        @Override
+        protected void onPostExecute(BitmapRegionDecoder decoder) {
+            if (isCancelled()) {
+                if (decoder != null) {
+                    decoder.recycle();
+                }
+            } else {
+                mTileView.onDecoderOpened(this, decoder);
+            }
+        }
+    }
+    // endregion
+
+    // region: Inner class: TileDecodingWorkerTask
+
+    /**
+     * Task to decode one tile of the image in background.
+     */
+    static final class TileDecodingWorkerTask extends CropWorkerTask<Bitmap> {
+
+        private final CropTileView mTileView;
+
+        private final BitmapRegionDecoder mDecoder;
+
+        final long mKey;
+
+        final int mLevel;
+
+        final int mCol;
+
+        final int mRow;
+
+        private final Rect mRegion;
+
+        TileDecodingWorkerTask(
+                CropTileView tileView,
+                BitmapRegionDecoder decoder,
+                long key,
+                int level,
+                int col,
+                int row,
+                Rect region) {
+            super(CropTaskScheduler.PRIORITY_TILE);
+            mTileView = tileView;
+            mDecoder = decoder;
+            mKey = key;
+            mLevel = level;
+            mCol = col;
+            mRow = row;
+            mRegion = region;
+        }
+
+        @Override
+        protected Bitmap doInBackground() {
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inSampleSize = mLevel;
+            // images with alpha still decode to ARGB_8888
+            options.inPreferredConfig = Bitmap.Config.RGB_565;
+            try {
+                return mDecoder.decodeRegion(mRegion, options);
+            } catch (Exception | OutOfMemoryError e) {
+                // decoder recycled for a new image or no memory for the tile, the sampled bitmap shows
+                return null;
+            }
+        }
+
+        @Override
+        protected void onPostExecute(Bitmap tile) {
+            if (isCancelled()) {
+                if (tile != null) {
+                    tile.recycle();
+                }
+            } else {
+                mTileView.onTileDecoded(this, tile);
+            }
+        }
+    }
+    // endregion
+}
@@ -0,0 +1,106 @@
+// "Therefore those skilled at the unorthodox
+// are infinite as heaven and earth,
+// inexhaustible as the great rivers.
+// When they come to an end,
+// they begin again,
+// like the days and months;
+// they die and are reborn,
+// like the four seasons."
+//
+// - Sun Tsu,
+// "The Art of War"
+
+package com.theartofdev.edmodo.cropper;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Background work run by {@link CropTaskScheduler} with the result delivered on the UI thread.<br>
+ * Cancel is cooperative: a queued task never runs, a running task checks {@link #isCancelled()}
+ * between its steps and stops at the next one.
+ *
+ * @param <R> the type of the result
+ */
+abstract class CropWorkerTask<R> implements Runnable, Comparable<CropWorkerTask<?>> {
+
+    // region: Fields and Consts
+
+    /**
+     * The priority to run by, higher first
+     */
+    private final int mPriority;
+
+    private final AtomicBoolean mCancelled = new AtomicBoolean();
+
+    /**
+     * The order the task was started in, first come first served among equal priority
+     */
+    long mSequence;
+
+    /**
+     * The time the task was queued at
+     */
+    long mQueuedAt;
+    // endregion
+
+    CropWorkerTask(int priority) {
+        mPriority = priority;
+    }
+
+    /**
+     * Queue the task on the shared scheduler.
+     */
+    final void start() {
+        CropTaskScheduler.getInstance().execute(this);
+    }
+
+    /**
+     * Stop the task, it won't start if still queued and no result will be delivered.
+     */
+    final void cancel() {
+        if (mCancelled.compareAndSet(false, true)) {
+            CropTaskScheduler.getInstance().remove(this);
+        }
+    }
+
+    final boolean isCancelled() {
+        return mCancelled.get();
+    }
+
+    @Override
+    public final void run() {
+        CropTaskScheduler scheduler = CropTaskScheduler.getInstance();
+        long start = System.currentTimeMillis();
+        scheduler.onStarted(start - mQueuedAt);
+        final R result = isCancelled() ? null : doInBackground();
+        scheduler.onFinished(System.currentTimeMillis() - start, isCancelled());
+        scheduler.postToMain(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        onPostExecute(result);
+                    }
+                });
+    }
+
+    @Override
+    public final int compareTo(CropWorkerTask<?> other) {
+        if (mPriority != other.mPriority) {
+            return mPriority > other.mPriority ? -1 : 1;
+        }
+        return mSequence < other.mSequence ? -1 : (mSequence == other.mSequence ? 0 : 1);
+    }
+
+    /**
+     * Do the work on a background thread.
+     *
+     * @return the result, null if cancelled
+     */
+    protected abstract R doInBackground();
+
+    /**
+     * Deliver the result on the UI thread, called also when cancelled while running so the result
+     * can be released.
+     */
+    protected abstract void onPostExecute(R result);
+}
@@ -0,0 +1,74 @@
+// "Therefore those skilled at the unorthodox
+// are infinite as heaven and earth,
+// inexhaustible as the great rivers.
+// When they come to an end,
+// they begin again,
+// like the days and months;
+// they die and are reborn,
+// like the four seasons."
+//
+// - Sun Tsu,
+// "The Art of War"
+
+package com.theartofdev.edmodo.cropper;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class CropDeviceCapabilitiesTest {
+
+    @After
+    public void tearDown() {
+        CropDeviceCapabilities.setTextureSizeProbe(null);
+    }
+
+    @Test
+    public void getMaxTextureSize_usesProbeWithoutContext() {
+        CropDeviceCapabilities.setTextureSizeProbe(new FixedProbe(4096));
+
+        assertEquals(4096, CropDeviceCapabilities.getMaxTextureSize(null));
+    }
+
+    @Test
+    public void getMaxTextureSize_probesOnce() {
+        FixedProbe probe = new FixedProbe(8192);
+        CropDeviceCapabilities.setTextureSizeProbe(probe);
+
+        CropDeviceCapabilities.getMaxTextureSize(null);
+        CropDeviceCapabilities.getMaxTextureSize(null);
+
+        assertEquals(1, probe.mCount);
+    }
+
+    @Test
+    public void setTextureSizeProbe_forgetsKnownSize() {
+        CropDeviceCapabilities.setTextureSizeProbe(new FixedProbe(4096));
+        CropDeviceCapabilities.getMaxTextureSize(null);
+
+        CropDeviceCapabilities.setTextureSizeProbe(
+                new FixedProbe(CropDeviceCapabilities.DEFAULT_MAX_TEXTURE_SIZE));
+
+        assertEquals(
+                CropDeviceCapabilities.DEFAULT_MAX_TEXTURE_SIZE,
+                CropDeviceCapabilities.getMaxTextureSize(null));
+    }
+
+    private static final class FixedProbe implements CropDeviceCapabilities.TextureSizeProbe {
+
+        private final int mSize;
+
+        private int mCount;
+
+        FixedProbe(int size) {
+            mSize = size;
+        }
+
+        @Override
+        public int probeMaxTextureSize() {
+            mCount++;
+            return mSize;
+        }
+    }
+}